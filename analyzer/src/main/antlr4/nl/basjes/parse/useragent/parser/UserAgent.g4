@@ -17,6 +17,9 @@
 
 grammar UserAgent;
 
+// All nodes of the tree can cache things that are needed by the tree walkers during a single parse.
+options { contextSuperClass=nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext; }
+
 //For browsers based on Mozilla, the user-agent string shall follow the format:
 //   MozillaProductToken (MozillaComment) GeckoProductToken *(VendorProductToken|VendorComment)
 //Applications that embed the Gecko layout engine shall have user-agent strings that follow the format:
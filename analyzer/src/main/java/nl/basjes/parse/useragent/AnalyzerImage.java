@@ -0,0 +1,287 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A precompiled analyzer image is the fully built UserAgentAnalyzer (all matchers, actions and lookups)
+ * stored with the standard Java serialization (gzip compressed) after a small header. Loading such an image skips reading the yaml files and
+ * parsing all the matcher expressions which makes the startup a lot faster.
+ * <p>
+ * An image is only usable by exactly the same version of Yauaa and only for the same set of wanted fields.
+ * In all other cases it is rejected (and the caller is expected to build the analyzer from the yaml files).
+ */
+public final class AnalyzerImage {
+    private static final Logger LOG = LogManager.getLogger(AnalyzerImage.class);
+
+    public static final String DEFAULT_IMAGE_RESOURCE = "UserAgents/UserAgentAnalyzer.image";
+
+    static final String MAGIC = "Yauaa Analyzer Image";
+    static final int FORMAT_VERSION = 1;
+
+    private AnalyzerImage() {
+    }
+
+    /**
+     * Writes the image of the provided analyzer.
+     * @param uaa The analyzer to store
+     * @param wantedFieldNames The (expanded) wanted fields that were used to build the analyzer (null = all fields).
+     * @param output Where to write the image to.
+     * @throws IOException If the writing failed.
+     */
+    public static void write(UserAgentAnalyzer uaa, Collection<String> wantedFieldNames, OutputStream output) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(output);
+        DataOutputStream header = new DataOutputStream(gzip);
+        header.writeUTF(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        header.writeUTF(UserAgentAnalyzer.getVersion());
+        Set<String> fields = normalize(wantedFieldNames);
+        if (fields == null) {
+            header.writeInt(-1);
+        } else {
+            header.writeInt(fields.size());
+            for (String field : fields) {
+                header.writeUTF(field);
+            }
+        }
+        header.flush();
+
+        ObjectOutputStream body = new ObjectOutputStream(gzip);
+        body.writeObject(uaa);
+        body.flush();
+        gzip.finish();
+    }
+
+    public static void write(UserAgentAnalyzer uaa, Collection<String> wantedFieldNames, File imageFile) throws IOException {
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(imageFile))) {
+            write(uaa, wantedFieldNames, output);
+        }
+    }
+
+    /**
+     * Reads an analyzer from an image.
+     * @param input The image
+     * @param wantedFieldNames The (expanded) wanted fields the analyzer must have been built with (null = all fields).
+     * @return The analyzer or null if the image is not usable.
+     */
+    public static UserAgentAnalyzer read(InputStream input, Collection<String> wantedFieldNames) {
+        try {
+            GZIPInputStream gzip = new GZIPInputStream(input, 65536);
+            DataInputStream header = new DataInputStream(gzip);
+            if (!MAGIC.equals(header.readUTF()) || header.readInt() != FORMAT_VERSION) {
+                LOG.warn("Rejecting analyzer image: This is not a (supported) analyzer image.");
+                return null;
+            }
+            String imageVersion = header.readUTF();
+            if (!UserAgentAnalyzer.getVersion().equals(imageVersion)) {
+                LOG.warn("Rejecting analyzer image: It was made by \"{}\"", imageVersion);
+                return null;
+            }
+            Set<String> imageFields = null;
+            int numberOfFields = header.readInt();
+            if (numberOfFields >= 0) {
+                imageFields = new TreeSet<>();
+                for (int i = 0; i < numberOfFields; i++) {
+                    imageFields.add(header.readUTF());
+                }
+            }
+            Set<String> fields = normalize(wantedFieldNames);
+            if (imageFields == null ? fields != null : !imageFields.equals(fields)) {
+                LOG.warn("Rejecting analyzer image: It was made for the fields {} instead of {}",
+                    imageFields == null ? "<all>" : imageFields,
+                    fields      == null ? "<all>" : fields);
+                return null;
+            }
+
+            Object uaa = new ImageObjectInputStream(gzip).readObject();
+            if (!(uaa instanceof UserAgentAnalyzer)) {
+                LOG.warn("Rejecting analyzer image: It does not contain a UserAgentAnalyzer");
+                return null;
+            }
+            return (UserAgentAnalyzer) uaa;
+        } catch (IOException | ClassNotFoundException e) {
+            LOG.warn("Rejecting analyzer image: Unable to read it ({})", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Loads an analyzer from an image on the classpath.
+     * @param resourceName The name of the image resource
+     * @param wantedFieldNames The (expanded) wanted fields the analyzer must have been built with (null = all fields).
+     * @return The analyzer or null if the image does not exist or is not usable.
+     */
+    public static UserAgentAnalyzer loadFromClasspath(String resourceName, Collection<String> wantedFieldNames) {
+        long start = System.nanoTime();
+        InputStream resource = AnalyzerImage.class.getClassLoader().getResourceAsStream(resourceName);
+        if (resource == null) {
+            LOG.warn("Unable to find the analyzer image \"{}\" on the classpath", resourceName);
+            return null;
+        }
+        UserAgentAnalyzer uaa;
+        try (InputStream input = new BufferedInputStream(resource, 65536)) {
+            uaa = read(input, wantedFieldNames);
+        } catch (IOException e) {
+            LOG.warn("Unable to close the analyzer image \"{}\" ({})", resourceName, e.toString());
+            return null;
+        }
+        logLoaded(uaa, "classpath:" + resourceName, start);
+        return uaa;
+    }
+
+    /**
+     * Loads an analyzer from an image file.
+     * @param imageFile The image file
+     * @param wantedFieldNames The (expanded) wanted fields the analyzer must have been built with (null = all fields).
+     * @return The analyzer or null if the image does not exist or is not usable.
+     */
+    public static UserAgentAnalyzer loadFromFile(File imageFile, Collection<String> wantedFieldNames) {
+        long start = System.nanoTime();
+        if (!imageFile.isFile()) {
+            LOG.warn("Unable to find the analyzer image file \"{}\"", imageFile);
+            return null;
+        }
+        UserAgentAnalyzer uaa;
+        // The image is compressed so it is simply streamed (memory mapping it would not gain anything).
+        try (InputStream input = new BufferedInputStream(new FileInputStream(imageFile), 65536)) {
+            uaa = read(input, wantedFieldNames);
+        } catch (IOException e) {
+            LOG.warn("Unable to read the analyzer image file \"{}\" ({})", imageFile, e.toString());
+            return null;
+        }
+        logLoaded(uaa, imageFile.toString(), start);
+        return uaa;
+    }
+
+    /**
+     * Builds the analyzer (with all fields) from the yaml files and writes the image.
+     * This is used during the build (see the 'analyzerImage' profile in the pom.xml).
+     * @param args The name of the image file to create.
+     * @throws IOException If writing the image failed.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            LOG.error("Usage: AnalyzerImage <image file>");
+            return;
+        }
+        File imageFile = new File(args[0]);
+        File directory = imageFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+
+        UserAgentAnalyzer uaa = UserAgentAnalyzer.newBuilder().hideMatcherLoadStats().build();
+        write(uaa, null, imageFile);
+        LOG.info("Wrote analyzer image {} ({} bytes)", imageFile, imageFile.length());
+    }
+
+    private static void logLoaded(UserAgentAnalyzer uaa, String source, long start) {
+        if (uaa != null) {
+            UserAgentAnalyzer.logVersion();
+            LOG.info("Loaded {} matchers from the analyzer image {} in {} msec",
+                uaa.matchers.length, source, (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    // The only classes (besides those of Yauaa itself) an analyzer consists of.
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+        "java.lang.Boolean",
+        "java.lang.Integer",
+        "java.lang.Long",
+        "java.lang.Number",
+        "java.util.ArrayList",
+        "java.util.BitSet",
+        "java.util.Collections$EmptyMap",
+        "java.util.Collections$UnmodifiableMap",
+        "java.util.HashMap",
+        "java.util.HashSet",
+        "java.util.LinkedHashMap",
+        "java.util.TreeMap",
+        "java.util.TreeSet"
+    ));
+
+    /**
+     * Only deserializes the classes an analyzer consists of so an image file cannot be used
+     * to instantiate arbitrary classes (i.e. the well known deserialization gadget chains).
+     */
+    private static final class ImageObjectInputStream extends ObjectInputStream {
+        ImageObjectInputStream(InputStream input) throws IOException {
+            super(input);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Not allowed in an analyzer image");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy", "Not allowed in an analyzer image");
+        }
+
+        private static boolean isAllowed(String name) {
+            String elementName = name;
+            if (elementName.startsWith("[")) {
+                // An array: "[I", "[[C", "[Ljava.lang.String;", ...
+                elementName = elementName.substring(elementName.lastIndexOf('[') + 1);
+                if (elementName.length() == 1) {
+                    return true; // A primitive type
+                }
+                elementName = elementName.substring(1, elementName.length() - 1);
+                if ("java.lang.Object".equals(elementName) || "java.lang.String".equals(elementName)) {
+                    return true;
+                }
+            }
+            return elementName.startsWith("nl.basjes.parse.useragent.") || ALLOWED_CLASSES.contains(elementName);
+        }
+    }
+
+    private static Set<String> normalize(Collection<String> wantedFieldNames) {
+        if (wantedFieldNames == null) {
+            return null;
+        }
+        return new TreeSet<>(wantedFieldNames);
+    }
+}
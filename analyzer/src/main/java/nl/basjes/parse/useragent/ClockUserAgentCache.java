@@ -0,0 +1,58 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.utils.ClockCache;
+
+/**
+ * The default in memory cache: once it is full an entry that has not been used recently is evicted
+ * (see ClockCache). Retrieving from it does not take a lock so it does not serialize the parsing threads.
+ */
+public final class ClockUserAgentCache implements UserAgentCache {
+    private final int size;
+    private final ClockCache<String, UserAgent> cache;
+
+    /**
+     * @param size The maximum number of useragents kept in the cache.
+     */
+    public ClockUserAgentCache(int size) {
+        this.size = size;
+        cache = new ClockCache<>(size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public UserAgent get(String userAgentString) {
+        // As the results are mutable we only hand out copies of what is in the cache.
+        UserAgent cachedUserAgent = cache.get(userAgentString);
+        return cachedUserAgent == null ? null : new UserAgent(cachedUserAgent);
+    }
+
+    @Override
+    public void put(String userAgentString, UserAgent userAgent) {
+        cache.put(userAgentString, new UserAgent(userAgent));
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static nl.basjes.parse.useragent.UserAgent.SET_ALL_FIELDS;
+import static nl.basjes.parse.useragent.UserAgent.STANDARD_FIELDS;
+import static nl.basjes.parse.useragent.UserAgent.SYNTAX_ERROR;
+import static nl.basjes.parse.useragent.UserAgent.USERAGENT;
+
+/**
+ * All the fields an analyzer can produce, each with a fixed index.
+ * A UserAgent uses these indexes to store the values in simple arrays instead of a map.
+ * The standard fields (which always have a value) come first.
+ */
+public final class FieldRegistry implements Serializable {
+
+    /**
+     * The registry with only the standard and system fields; used if there is no analyzer that knows more.
+     */
+    public static final FieldRegistry DEFAULT = new FieldRegistry(Collections.emptyList());
+
+    private final String[] names;
+    private final boolean[] systemFields;
+    private final Map<String, Integer> indexes;
+
+    // The state of a new UserAgent: Only the standard fields are present (with their default value).
+    private final String[] initialValues;
+    private final long[] initialConfidences;
+    private final boolean[] initialPresent;
+
+    public FieldRegistry(Collection<String> fieldNames) {
+        List<String> allNames = new ArrayList<>(Arrays.asList(STANDARD_FIELDS));
+
+        TreeSet<String> otherNames = new TreeSet<>(fieldNames);
+        otherNames.add(SYNTAX_ERROR);
+        otherNames.add(USERAGENT);
+        otherNames.add(SET_ALL_FIELDS);
+        otherNames.removeAll(allNames);
+        allNames.addAll(otherNames);
+
+        names = allNames.toArray(new String[allNames.size()]);
+        systemFields = new boolean[names.length];
+        indexes = new HashMap<>(names.length * 2);
+        initialValues = new String[names.length];
+        initialConfidences = new long[names.length];
+        initialPresent = new boolean[names.length];
+
+        for (int index = 0; index < names.length; index++) {
+            String name = names[index];
+            indexes.put(name, index);
+            systemFields[index] = UserAgent.isSystemField(name);
+            initialConfidences[index] = -1;
+        }
+        for (int index = 0; index < STANDARD_FIELDS.length; index++) {
+            initialValues[index] = UserAgent.getDefaultValue(names[index]);
+            initialPresent[index] = true;
+        }
+    }
+
+    /**
+     * @param name The name of the field
+     * @return The index of the field or -1 if this field is not in the registry.
+     */
+    public int getIndex(String name) {
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public boolean isSystemField(int index) {
+        return systemFields[index];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    String[] newValues() {
+        return initialValues.clone();
+    }
+
+    long[] newConfidences() {
+        return initialConfidences.clone();
+    }
+
+    boolean[] newPresent() {
+        return initialPresent.clone();
+    }
+}
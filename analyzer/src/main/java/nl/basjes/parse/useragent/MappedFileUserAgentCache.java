@@ -0,0 +1,369 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.utils.Hash64;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of the results of the analyzer in a memory mapped file so it survives restarts
+ * and it can be shared by several JVMs on the same machine.
+ * <p>
+ * The file has a fixed size and consists of
+ * <ul>
+ * <li>A header with the fingerprint of the analyzer that wrote it (see UserAgentAnalyzer.getRulesFingerprint).
+ * If the fingerprint does not match (i.e. the rules have changed) the file is replaced by an empty one.</li>
+ * <li>An open addressing hash table with per slot the 64 bit hash of the useragent and where its record is.</li>
+ * <li>The records (append only) with the useragent and the result, protected by a CRC.</li>
+ * </ul>
+ * Reading is done without any locking: the CRC and the stored useragent protect against incomplete
+ * or colliding records. Writing is done under a FileLock so several JVMs can write to the same file.
+ * Once the file is full no new results are added (nothing is ever evicted).
+ */
+public final class MappedFileUserAgentCache implements UserAgentCache, Closeable {
+    private static final Logger LOG = LogManager.getLogger(MappedFileUserAgentCache.class);
+
+    private static final long MAGIC          = 0x5941554141434348L; // "YAUAACCH"
+    private static final int  FORMAT_VERSION = 1;
+
+    // The header
+    private static final int MAGIC_OFFSET          = 0;
+    private static final int FORMAT_VERSION_OFFSET = 8;
+    private static final int SLOTS_OFFSET          = 12;
+    private static final int FINGERPRINT_OFFSET    = 16;
+    private static final int DATA_SIZE_OFFSET      = 24;
+    private static final int DATA_END_OFFSET       = 28;
+    private static final int ENTRIES_OFFSET        = 32;
+    private static final int HEADER_SIZE           = 64;
+
+    // Each slot: the hash of the useragent (0 = empty slot), the position and the length of the record.
+    private static final int SLOT_SIZE     = 16;
+    private static final int SLOT_HASH     = 0;
+    private static final int SLOT_POSITION = 8;
+    private static final int SLOT_LENGTH   = 12;
+
+    // Each record: the CRC of the payload, the length of the payload and the payload (see UserAgent.writeTo).
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    // The expected average size of a record; this determines the size of the data in a new file.
+    private static final int BYTES_PER_ENTRY = 1024;
+    // The entire file must fit in a single MappedByteBuffer.
+    public static final int MAX_ENTRIES = 1 << 20;
+
+    private final File file;
+    private final long fingerprint;
+    private final FieldRegistry fieldRegistry;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int dataStart;
+    private final int dataSize;
+
+    /**
+     * Opens the cache file (or creates it if it does not exist or if it was made for different rules).
+     * @param file The cache file
+     * @param maxEntries The maximum number of results (only used if a new file is created).
+     * @param fingerprint The fingerprint of the analyzer (see UserAgentAnalyzer.getRulesFingerprint)
+     * @param fieldRegistry The FieldRegistry of the analyzer
+     * @throws IOException If the file could not be created or opened.
+     */
+    public MappedFileUserAgentCache(File file, int maxEntries, long fingerprint, FieldRegistry fieldRegistry)
+        throws IOException {
+        if (maxEntries < 1 || maxEntries > MAX_ENTRIES) {
+            throw new IllegalArgumentException("The maximum number of entries must be between 1 and " + MAX_ENTRIES);
+        }
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.fieldRegistry = fieldRegistry;
+
+        if (!isUsable(file, fingerprint)) {
+            create(file, maxEntries, fingerprint);
+        }
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (!isValidHeader(buffer, channel.size(), fingerprint)) {
+            // Someone else replaced the file in the mean time (i.e. an analyzer with different rules).
+            channel.close();
+            throw new IOException("The cache file " + file + " was replaced by one with a different fingerprint");
+        }
+        slots = buffer.getInt(SLOTS_OFFSET);
+        dataSize = buffer.getInt(DATA_SIZE_OFFSET);
+        dataStart = HEADER_SIZE + slots * SLOT_SIZE;
+        LOG.info("Opened the cache file {} ({} entries)", file, size());
+    }
+
+    private static boolean isUsable(File file, long fingerprint) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (isValidHeader(header, channel.size(), fingerprint)) {
+                return true;
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to read the cache file {} ({})", file, e.toString());
+        }
+        LOG.info("Replacing the cache file {} (it was made by a different version or with different rules)", file);
+        return false;
+    }
+
+    private static boolean isValidHeader(ByteBuffer header, long fileSize, long fingerprint) {
+        if (header.getLong(MAGIC_OFFSET) != MAGIC ||
+            header.getInt(FORMAT_VERSION_OFFSET) != FORMAT_VERSION ||
+            header.getLong(FINGERPRINT_OFFSET) != fingerprint) {
+            return false;
+        }
+        int slots = header.getInt(SLOTS_OFFSET);
+        int dataSize = header.getInt(DATA_SIZE_OFFSET);
+        return slots > 0 && Integer.bitCount(slots) == 1 && dataSize >= 0 &&
+            fileSize == HEADER_SIZE + (long) slots * SLOT_SIZE + dataSize;
+    }
+
+    private static void create(File file, int maxEntries, long fingerprint) throws IOException {
+        // At most half of the slots are used so the probe sequences remain short.
+        int slots = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+        int dataSize = maxEntries * BYTES_PER_ENTRY;
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+
+        // The new file is prepared completely before it is put in place so no one ever sees a partial file.
+        // A JVM that still has the old file mapped simply keeps using that (now nameless) file.
+        File newFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try (RandomAccessFile output = new RandomAccessFile(newFile, "rw")) {
+                output.setLength(HEADER_SIZE + (long) slots * SLOT_SIZE + dataSize);
+                output.seek(MAGIC_OFFSET);
+                output.writeLong(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeInt(slots);
+                output.writeLong(fingerprint);
+                output.writeInt(dataSize);
+                output.writeInt(0); // The end of the data
+                output.writeInt(0); // The number of entries
+            }
+            try {
+                Files.move(newFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(newFile.toPath());
+        }
+        LOG.info("Created the cache file {} for {} entries", file, maxEntries);
+    }
+
+    private long hashOf(String userAgentString) {
+        long hash = Hash64.hash(fingerprint, userAgentString);
+        return hash == 0 ? 1 : hash; // 0 marks an empty slot.
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    @Override
+    public UserAgent get(String userAgentString) {
+        if (userAgentString == null) {
+            return null;
+        }
+        long hash = hashOf(userAgentString);
+        int mask = slots - 1;
+        int slot = (int) hash & mask;
+        for (int probe = 0; probe < slots; probe++) {
+            int slotOffset = slotOffset(slot);
+            long slotHash = buffer.getLong(slotOffset + SLOT_HASH);
+            if (slotHash == 0) {
+                return null;
+            }
+            if (slotHash == hash) {
+                UserAgent userAgent = readRecord(
+                    buffer.getInt(slotOffset + SLOT_POSITION),
+                    buffer.getInt(slotOffset + SLOT_LENGTH),
+                    userAgentString);
+                if (userAgent != null) {
+                    return userAgent;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    // Returns null if the record is incomplete, damaged or for a different useragent (i.e. a hash collision).
+    private UserAgent readRecord(int position, int length, String userAgentString) {
+        if (position < dataStart || length < RECORD_HEADER_SIZE || (long) position + length > dataStart + (long) dataSize) {
+            return null;
+        }
+        // Never change the position of the shared buffer.
+        ByteBuffer record = buffer.duplicate();
+        record.position(position);
+        int crc = record.getInt();
+        int payloadLength = record.getInt();
+        if (payloadLength != length - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        byte[] payload = new byte[payloadLength];
+        record.get(payload);
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload, 0, payload.length);
+        if ((int) crc32.getValue() != crc) {
+            return null;
+        }
+        try {
+            UserAgent userAgent = UserAgent.readFrom(new DataInputStream(new ByteArrayInputStream(payload)), fieldRegistry);
+            return userAgentString.equals(userAgent.getUserAgentString()) ? userAgent : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String userAgentString, UserAgent userAgent) {
+        if (userAgentString == null) {
+            return;
+        }
+        byte[] record;
+        try {
+            record = createRecord(userAgent);
+        } catch (IOException e) {
+            return; // Like a useragent that is too long; it is only a cache.
+        }
+        long hash = hashOf(userAgentString);
+
+        // The FileLock only protects against other JVMs, not against other threads of this one.
+        synchronized (this) {
+            try (FileLock ignored = channel.lock(0, HEADER_SIZE, false)) {
+                store(hash, userAgentString, record);
+            } catch (IOException | OverlappingFileLockException e) {
+                LOG.debug("Unable to store in the cache file {} ({})", file, e.toString());
+            }
+        }
+    }
+
+    private static byte[] createRecord(UserAgent userAgent) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(BYTES_PER_ENTRY);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0); // The CRC
+        output.writeInt(0); // The length of the payload
+        userAgent.writeTo(output);
+        output.flush();
+        byte[] record = bytes.toByteArray();
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(record, RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE);
+        ByteBuffer.wrap(record).putInt((int) crc32.getValue()).putInt(record.length - RECORD_HEADER_SIZE);
+        return record;
+    }
+
+    // Must be called while holding the lock.
+    private void store(long hash, String userAgentString, byte[] record) {
+        int entries = buffer.getInt(ENTRIES_OFFSET);
+        int dataEnd = buffer.getInt(DATA_END_OFFSET);
+        if (entries >= slots / 2 || (long) dataEnd + record.length > dataSize) {
+            return; // The file is full.
+        }
+
+        int mask = slots - 1;
+        int slot = (int) hash & mask;
+        while (buffer.getLong(slotOffset(slot) + SLOT_HASH) != 0) {
+            int slotOffset = slotOffset(slot);
+            if (buffer.getLong(slotOffset + SLOT_HASH) == hash &&
+                readRecord(buffer.getInt(slotOffset + SLOT_POSITION), buffer.getInt(slotOffset + SLOT_LENGTH),
+                    userAgentString) != null) {
+                return; // Already present (possibly stored by another JVM).
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int position = dataStart + dataEnd;
+        ByteBuffer data = buffer.duplicate();
+        data.position(position);
+        data.put(record);
+        buffer.putInt(DATA_END_OFFSET, dataEnd + record.length);
+
+        // The hash is written last: that is what makes the slot visible to the readers.
+        int slotOffset = slotOffset(slot);
+        buffer.putInt(slotOffset + SLOT_POSITION, position);
+        buffer.putInt(slotOffset + SLOT_LENGTH, record.length);
+        buffer.putLong(slotOffset + SLOT_HASH, hash);
+        buffer.putInt(ENTRIES_OFFSET, entries + 1);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            try (FileLock ignored = channel.lock(0, HEADER_SIZE, false)) {
+                for (int slot = 0; slot < slots; slot++) {
+                    buffer.putLong(slotOffset(slot) + SLOT_HASH, 0);
+                }
+                buffer.putInt(DATA_END_OFFSET, 0);
+                buffer.putInt(ENTRIES_OFFSET, 0);
+            } catch (IOException | OverlappingFileLockException e) {
+                LOG.warn("Unable to clear the cache file {} ({})", file, e.toString());
+            }
+        }
+    }
+
+    /**
+     * @return The number of results in the cache file (including the ones stored by other JVMs).
+     */
+    public int size() {
+        return buffer.getInt(ENTRIES_OFFSET);
+    }
+
+    /**
+     * Writes everything to disk and closes the file; after this nothing new is stored anymore.
+     * @throws IOException If closing the file failed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            buffer.force();
+            channel.close();
+        }
+    }
+}
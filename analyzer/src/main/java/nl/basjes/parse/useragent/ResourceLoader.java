@@ -21,7 +21,9 @@ import nl.basjes.parse.useragent.analyze.ActionBuilder;
 import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
 import nl.basjes.parse.useragent.analyze.Matcher;
 import nl.basjes.parse.useragent.analyze.UselessMatcherException;
+import nl.basjes.parse.useragent.utils.Hash64;
 import nl.basjes.parse.useragent.utils.YamlUtils;
+import org.apache.commons.lang3.tuple.Triple;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.core.io.Resource;
@@ -34,8 +36,12 @@ import org.yaml.snakeyaml.nodes.SequenceNode;
 import org.yaml.snakeyaml.reader.UnicodeReader;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import static nl.basjes.parse.useragent.UserAgent.DEVICE_CLASS;
 import static nl.basjes.parse.useragent.UserAgent.LAYOUT_ENGINE_CLASS;
@@ -45,17 +51,33 @@ import static nl.basjes.parse.useragent.utils.YamlUtils.*;
 public class ResourceLoader {
     private static final Logger LOG = LogManager.getLogger(ResourceLoader.class);
 
+    private final boolean keepTests;
     private boolean doingOnlyASingleTest = false;
     final ActionBuilder actions = new ActionBuilder();
     final List<Matcher> allMatchers = new ArrayList<>();
+    final int numberOfActions;
     final boolean canDetectHacker;
+    // A checksum over the names and contents of all loaded config files.
+    final long rulesChecksum;
 
     final Map<String, List<MappingNode>> matcherConfigs = new HashMap<>(64);
 
     public final List<Map<String, Map<String, String>>> testCases = new ArrayList<>(2048);
 
     public ResourceLoader(String resourceString, List<String> wantedFieldNames, boolean showMatcherStats) {
+        this(resourceString, wantedFieldNames, showMatcherStats, true);
+    }
+
+    /**
+     * Load all the config files.
+     * @param resourceString The resource pattern of the config files.
+     * @param wantedFieldNames The wanted fields (null = all fields)
+     * @param showMatcherStats Log the statistics of the matchers per file
+     * @param keepTests If false then all the test entries are skipped (they are not needed for normal analyzing).
+     */
+    public ResourceLoader(String resourceString, List<String> wantedFieldNames, boolean showMatcherStats, boolean keepTests) {
         LOG.info("Loading from: \"{}\"", resourceString);
+        this.keepTests = keepTests;
 
         canDetectHacker = wantedFieldNames == null ||
             wantedFieldNames.contains(DEVICE_CLASS) ||
@@ -71,6 +93,8 @@ public class ResourceLoader {
             }
         } catch (IOException e) {
             e.printStackTrace();
+            numberOfActions = 0;
+            rulesChecksum = 0;
             return;
         }
 
@@ -80,25 +104,48 @@ public class ResourceLoader {
             throw new InvalidParserConfigurationException("Unable to find ANY config files");
         }
 
-        Yaml yaml = new Yaml();
+        // Reading and composing the yaml files is done in parallel.
+        // Loading the composed files must be done sequentially and in the order of the filenames.
+        List<Supplier<Triple<String, Node, Long>>> composeTasks = new ArrayList<>(resources.size());
         for (Map.Entry<String, Resource> resourceEntry : resources.entrySet()) {
-            try {
-                Resource resource = resourceEntry.getValue();
-                String filename = resource.getFilename();
-                maxFilenameLength = Math.max(maxFilenameLength, filename.length());
-                try (InputStream stream = resource.getInputStream()) {
-                    loadResource(yaml.compose(new UnicodeReader(stream)), filename);
+            Resource resource = resourceEntry.getValue();
+            String filename = resource.getFilename();
+            maxFilenameLength = Math.max(maxFilenameLength, filename.length());
+            composeTasks.add(() -> {
+                try (CheckedInputStream stream = new CheckedInputStream(resource.getInputStream(), new CRC32())) {
+                    // A Yaml instance is not threadsafe so each file gets its own.
+                    Node node = new Yaml().compose(new UnicodeReader(stream));
+                    // Make sure the checksum covers the entire file.
+                    byte[] remainder = new byte[4096];
+                    int read = 0;
+                    while (read >= 0) {
+                        read = stream.read(remainder);
+                    }
+                    return Triple.of(filename, node, stream.getChecksum().getValue());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+            });
+        }
+        long checksum = 0;
+        for (Triple<String, Node, Long> composedFile : runInParallel(composeTasks)) {
+            if (composedFile != null) {
+                loadResource(composedFile.getMiddle(), composedFile.getLeft());
+                checksum = Hash64.hash(checksum, composedFile.getLeft() + ':' + composedFile.getRight());
             }
         }
+        rulesChecksum = checksum;
         LOG.info("Loaded {} files", resources.size());
 
         LOG.info("Building all matchers");
         int totalNumberOfMatchers = 0;
         int skippedMatchers = 0;
         long fullStart = System.nanoTime();
+
+        // All matchers are built in parallel (per file) each with their own registration of the actions.
+        // These are merged afterwards in the order of the filenames so the result is identical to building them sequentially.
+        List<Supplier<FileMatchers>> buildTasks = new ArrayList<>(resources.size());
         for (Map.Entry<String, Resource> resourceEntry : resources.entrySet()) {
             Resource resource = resourceEntry.getValue();
             String configFilename = resource.getFilename();
@@ -106,32 +153,37 @@ public class ResourceLoader {
             if (matcherConfig == null) {
                 continue; // No matchers in this file (probably only lookups and/or tests)
             }
+            buildTasks.add(() -> new FileMatchers(configFilename, matcherConfig, wantedFieldNames));
+        }
 
-            long start = System.nanoTime();
-            int startSize = actions.informMatcherActions.size();
-            for (MappingNode map : matcherConfig) {
-                try {
-                    allMatchers.add(new Matcher(actions, wantedFieldNames, map, configFilename));
-                    totalNumberOfMatchers++;
-                } catch (UselessMatcherException ume) {
-                    skippedMatchers++;
-                }
-            }
-            long stop = System.nanoTime();
-            int stopSize = actions.informMatcherActions.size();
+        for (FileMatchers fileMatchers : runInParallel(buildTasks)) {
+            int startSize = actions.getInformMatcherActionsSize();
+            actions.merge(fileMatchers.actions);
+            allMatchers.addAll(fileMatchers.matchers);
+            totalNumberOfMatchers += fileMatchers.matchers.size();
+            skippedMatchers += fileMatchers.skippedMatchers;
+            int stopSize = actions.getInformMatcherActionsSize();
 
             if (showMatcherStats) {
                 Formatter msg = new Formatter(Locale.ENGLISH);
                 msg.format("Building %4d matchers from %-" + maxFilenameLength + "s took %5d msec resulted in %8d extra hashmap entries",
-                    matcherConfig.size(),
-                    configFilename,
-                    (stop - start) / 1000000,
+                    fileMatchers.matcherConfig.size(),
+                    fileMatchers.filename,
+                    fileMatchers.buildTime / 1000000,
                     stopSize - startSize);
                 LOG.info(msg.toString());
             }
         }
         long fullStop = System.nanoTime();
 
+        // All actions get a dense id so the matches found during a parse can be stored in simple arrays.
+        int actionId = 0;
+        for (Matcher matcher : allMatchers) {
+            actionId = matcher.assignActionIds(actionId);
+        }
+        numberOfActions = actionId;
+        int memoizedWalkLists = ActionBuilder.assignMemoIds(allMatchers);
+
         Formatter msg = new Formatter(Locale.ENGLISH);
         msg.format("Building %4d (dropped %4d) matchers from %4d files took %5d msec",
             totalNumberOfMatchers,
@@ -143,9 +195,79 @@ public class ResourceLoader {
         LOG.info("Analyzer stats");
         LOG.info("Lookups      : {}", actions.getLookupSize());
         LOG.info("Matchers     : {} (total:{} ; dropped: {})", allMatchers.size(), totalNumberOfMatchers, skippedMatchers);
-        LOG.info("Hashmap size: {}", actions.informMatcherActions.size());
-        LOG.info("Ranges map size : {}", actions.informMatcherActionRanges.size());
-        LOG.info("Testcases    : {}", testCases.size());
+        LOG.info("Actions      : {}", numberOfActions);
+        LOG.info("WalkLists    : {} (memoized: {})", actions.getWalkListsSize(), memoizedWalkLists);
+        LOG.info("Hashmap size: {}", actions.getInformMatcherActionsSize());
+        LOG.info("Ranges map size : {}", actions.getInformMatcherActionRangesSize());
+        if (keepTests) {
+            LOG.info("Testcases    : {}", testCases.size());
+        } else {
+            LOG.info("Testcases    : skipped");
+        }
+    }
+
+    /**
+     * The matchers built from a single file together with their own registration of the actions.
+     */
+    private final class FileMatchers {
+        final String filename;
+        final List<MappingNode> matcherConfig;
+        final ActionBuilder actions = ResourceLoader.this.actions.newChild();
+        final List<Matcher> matchers = new ArrayList<>();
+        int skippedMatchers = 0;
+        final long buildTime;
+
+        FileMatchers(String filename, List<MappingNode> matcherConfig, List<String> wantedFieldNames) {
+            this.filename = filename;
+            this.matcherConfig = matcherConfig;
+            long start = System.nanoTime();
+            for (MappingNode map : matcherConfig) {
+                try {
+                    matchers.add(new Matcher(actions, wantedFieldNames, map, filename));
+                } catch (UselessMatcherException ume) {
+                    skippedMatchers++;
+                }
+            }
+            buildTime = System.nanoTime() - start;
+        }
+    }
+
+    private static final class Outcome<T> {
+        private T result;
+        private RuntimeException failure;
+    }
+
+    /**
+     * Runs all tasks in parallel (on the common ForkJoin pool) and returns the results in the order of the tasks.
+     * If tasks fail the exception of the first failing task (in the order of the tasks) is rethrown as is;
+     * just like running them sequentially would do (ForkJoinTask.join() would wrap it into a new exception).
+     * @param tasks The tasks to run
+     * @param <T> The type of the result of a task
+     * @return The results in the same order as the tasks.
+     */
+    private static <T> List<T> runInParallel(List<Supplier<T>> tasks) {
+        List<ForkJoinTask<Outcome<T>>> runningTasks = new ArrayList<>(tasks.size());
+        for (Supplier<T> task : tasks) {
+            runningTasks.add(ForkJoinPool.commonPool().submit(() -> {
+                Outcome<T> outcome = new Outcome<>();
+                try {
+                    outcome.result = task.get();
+                } catch (RuntimeException e) {
+                    outcome.failure = e;
+                }
+                return outcome;
+            }));
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<Outcome<T>> runningTask : runningTasks) {
+            Outcome<T> outcome = runningTask.join();
+            if (outcome.failure != null) {
+                throw outcome.failure;
+            }
+            results.add(outcome.result);
+        }
+        return results;
     }
 
     private void loadResource(Node loadedYaml, String filename) {
@@ -193,7 +315,9 @@ public class ResourceLoader {
                     loadYamlMatcher(actualEntry, filename);
                     break;
                 case "test":
-                    loadYamlTestcase(actualEntry, filename);
+                    if (keepTests) {
+                        loadYamlTestcase(actualEntry, filename);
+                    }
                     break;
                 default:
                     throw new InvalidParserConfigurationException(
@@ -0,0 +1,179 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.analyze.LiteralPrefilter;
+import nl.basjes.parse.useragent.analyze.MatchArena;
+import nl.basjes.parse.useragent.parse.UserAgentShape;
+import nl.basjes.parse.useragent.utils.CaseInsensitive;
+import nl.basjes.parse.useragent.utils.ClockCache;
+import nl.basjes.parse.useragent.utils.Digits;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A second level cache that is keyed by the shape of the useragent (see UserAgentShape).
+ * Useragents that are the same template with only different (build) numbers have the same shape.
+ * For such a useragent the parse and all matchers are skipped: the result of the earlier useragent is reused
+ * with the digits in the values replaced by the digits of the new useragent.
+ * <p>
+ * This is only done if the outcome can not depend on the digits that are different:
+ * <ul>
+ * <li>The digits that could change the outcome of a compare, lookup or prefilter of the matchers
+ * (like the "11" in "X11") are exactly the same.</li>
+ * <li>Both useragents have the same tokens (so they have the same parse tree).</li>
+ * <li>Each value with digits can only have come from literal parts of the useragent
+ * that are still the same in the new useragent or it must be a constant (like the result of a LookUp).</li>
+ * </ul>
+ * In all other cases (i.e. the shape is ambiguous) nothing is returned and the useragent must be fully analyzed.
+ * The stored results are the results just before the post processing (i.e. before the FieldCalculators)
+ * so the post processing must always be done afterwards.
+ */
+final class ShapeCache {
+
+    private static final class Entry {
+        final int[] tokens;
+        final UserAgent userAgent;
+        // The runs of digits that must be exactly the same (because with other digits the outcome could differ).
+        final int[] pinnedRuns;
+        final String[] pinnedDigits;
+        // For each value with digits: the first digit run of each place in the useragent it can have come from.
+        final Map<String, int[]> digitValues;
+
+        Entry(int[] tokens, UserAgent userAgent, int[] pinnedRuns, String[] pinnedDigits,
+              Map<String, int[]> digitValues) {
+            this.tokens = tokens;
+            this.userAgent = userAgent;
+            this.pinnedRuns = pinnedRuns;
+            this.pinnedDigits = pinnedDigits;
+            this.digitValues = digitValues;
+        }
+    }
+
+    // Retrieving does not lock (see ClockCache) and the hits are counted without a shared atomic.
+    private final ClockCache<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+
+    ShapeCache(int size) {
+        entries = new ClockCache<>(size);
+    }
+
+    /**
+     * @param shape The shape of the useragent
+     * @return The analyzed (yet not post processed) useragent or null if nothing can be reused.
+     */
+    UserAgent get(UserAgentShape shape) {
+        Entry entry = entries.get(shape.getKey());
+        if (entry == null || !Arrays.equals(entry.tokens, shape.getTokens())) {
+            return null;
+        }
+        for (int i = 0; i < entry.pinnedRuns.length; i++) {
+            if (!entry.pinnedDigits[i].equals(shape.getDigitRun(entry.pinnedRuns[i]))) {
+                return null;
+            }
+        }
+
+        Map<String, String> replacedValues = new HashMap<>();
+        for (Map.Entry<String, int[]> digitValue : entry.digitValues.entrySet()) {
+            String value = digitValue.getKey();
+            String replacedValue = null;
+            for (int firstRun : digitValue.getValue()) {
+                String candidate = shape.replaceDigitRuns(value, firstRun);
+                if (candidate == null || (replacedValue != null && !replacedValue.equals(candidate))) {
+                    return null; // Where this value came from makes a difference.
+                }
+                replacedValue = candidate;
+            }
+            replacedValues.put(value, replacedValue);
+        }
+        hits.increment();
+        return new UserAgent(entry.userAgent, shape.getUserAgentString(), replacedValues);
+    }
+
+    /**
+     * Store the result of a full analysis if it can be reused for other useragents with the same shape.
+     * @param shape The shape of the useragent
+     * @param userAgent The analyzed (yet not post processed) useragent
+     * @param matches The matches of this analysis
+     * @param literalPrefilter The prefilter that was used in this analysis
+     */
+    void put(UserAgentShape shape, UserAgent userAgent, MatchArena matches, LiteralPrefilter literalPrefilter) {
+        int[] inspectedRanges = matches.getInspectedRanges();
+        if (inspectedRanges == null) {
+            return;
+        }
+        BitSet pinned = new BitSet();
+        for (int i = 0; i < inspectedRanges.length; i += 2) {
+            shape.markRuns(inspectedRanges[i], inspectedRanges[i + 1], pinned);
+        }
+
+        BitSet rejectedOnDigits = matches.getRejectedOnDigits();
+        for (int index = rejectedOnDigits.nextSetBit(0); index >= 0; index = rejectedOnDigits.nextSetBit(index + 1)) {
+            List<String> missingLiterals = literalPrefilter.getMissingLiteralShapes(index, matches.getFoundLiterals());
+            // If one of them cannot occur with any digits then this matcher is always rejected.
+            if (missingLiterals.stream().allMatch(literal -> CaseInsensitive.contains(shape.getKey(), literal))) {
+                missingLiterals.forEach(literal -> shape.markOccurrences(literal, pinned));
+            }
+        }
+
+        int[] tokens = shape.getTokens();
+        if (tokens.length == 0) {
+            return;
+        }
+
+        Map<String, int[]> digitValues = new HashMap<>();
+        for (String value : userAgent.getDistinctValues()) {
+            if (!Digits.containsDigit(value)) {
+                continue;
+            }
+            if (matches.isUntraceableValue(value)) {
+                return;
+            }
+            int[] firstRuns = shape.findDigitRuns(value);
+            if (matches.isFixedValue(value)) {
+                if (firstRuns.length != 0) {
+                    return; // It can also have come from the useragent.
+                }
+                continue; // A constant is retained as it is.
+            }
+            if (firstRuns.length == 0) {
+                return; // Not a literal part of the useragent (or we cannot be sure of that).
+            }
+            digitValues.put(value, firstRuns);
+        }
+        int[] pinnedRuns = pinned.stream().toArray();
+        String[] pinnedDigits = new String[pinnedRuns.length];
+        for (int i = 0; i < pinnedRuns.length; i++) {
+            pinnedDigits[i] = shape.getDigitRun(pinnedRuns[i]);
+        }
+        entries.put(shape.getKey(), new Entry(tokens, new UserAgent(userAgent), pinnedRuns, pinnedDigits, digitValues));
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
@@ -20,8 +20,6 @@ package nl.basjes.parse.useragent;
 import nl.basjes.parse.useragent.analyze.Matcher;
 import nl.basjes.parse.useragent.analyze.FieldSetter;
 import nl.basjes.parse.useragent.parser.UserAgentBaseListener;
-import nl.basjes.parse.useragent.utils.Normalize;
-import nl.basjes.parse.useragent.utils.VersionSplitter;
 import org.antlr.v4.runtime.ANTLRErrorListener;
 import org.antlr.v4.runtime.Parser;
 import org.antlr.v4.runtime.RecognitionException;
@@ -32,6 +30,9 @@ import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 import java.util.function.Function;
@@ -80,7 +81,7 @@ public class UserAgent extends UserAgentBaseListener implements Serializable, Fi
         AGENT_VERSION_MAJOR
     };
 
-    private static final HashMap<String, AgentField> defaultValues = defaultValues();
+    private static final Map<String, String> DEFAULT_VALUES = defaultValues();
 
     private boolean hasSyntaxError;
     private boolean hasAmbiguity;
@@ -112,7 +113,7 @@ public class UserAgent extends UserAgentBaseListener implements Serializable, Fi
             LOG.error("Message: {}", msg);
         }
         hasSyntaxError = true;
-        allFields.put(SYNTAX_ERROR, new AgentField(SYNTAX_ERROR, "true", 1));
+        put(SYNTAX_ERROR, "true", 1);
     }
 
     @Override
@@ -153,36 +154,207 @@ public class UserAgent extends UserAgentBaseListener implements Serializable, Fi
     // The original input value
     private final String userAgentString;
 
-    public final Map<String, AgentField> allFields = new HashMap<>(defaultValues);
+    // The values of all fields that are in the registry; stored at the index of the field.
+    // A field that is not present is different from a field that is present with a null value.
+    private final FieldRegistry fieldRegistry;
+    private final String[] fieldValues;
+    private final long[] fieldConfidences;
+    private final boolean[] fieldPresent;
+
+    // The fields that are not in the registry (normally this remains null).
+    private Map<String, AgentField> otherFields = null;
+
+    /**
+     * A read only view of all fields that are present.
+     * @deprecated The fields are no longer stored in a map; use get, getValue and getConfidence instead.
+     */
+    @Deprecated
+    public final Map<String, AgentField> allFields = new AllFieldsView();
+
+    private final class AllFieldsView extends AbstractMap<String, AgentField> implements Serializable {
+        @Override
+        public AgentField get(Object key) {
+            return key instanceof String ? UserAgent.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, AgentField>> entrySet() {
+            Set<Entry<String, AgentField>> entries = new LinkedHashSet<>();
+            for (int index = 0; index < fieldValues.length; index++) {
+                if (fieldPresent[index]) {
+                    String name = fieldRegistry.getName(index);
+                    entries.add(new SimpleImmutableEntry<>(name, new AgentField(name, fieldValues[index], fieldConfidences[index])));
+                }
+            }
+            if (otherFields != null) {
+                otherFields.forEach((name, field) -> entries.add(new SimpleImmutableEntry<>(name, field)));
+            }
+            return Collections.unmodifiableSet(entries);
+        }
+    }
 
     public UserAgent(String userAgentString) {
+        this(userAgentString, FieldRegistry.DEFAULT);
+    }
+
+    public UserAgent(String userAgentString, FieldRegistry fieldRegistry) {
         this.userAgentString = userAgentString;
+        this.fieldRegistry = fieldRegistry;
+        this.fieldValues = fieldRegistry.newValues();
+        this.fieldConfidences = fieldRegistry.newConfidences();
+        this.fieldPresent = fieldRegistry.newPresent();
+    }
+
+    /**
+     * Creates a copy of the provided UserAgent (i.e. the result of an earlier parse).
+     * @param userAgent The instance to copy.
+     */
+    public UserAgent(UserAgent userAgent) {
+        this(userAgent, userAgent.userAgentString, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a copy of the provided UserAgent for a different useragent string with some of the values replaced.
+     * @param userAgent The instance to copy.
+     * @param userAgentString The useragent string of the copy.
+     * @param replacedValues Each value that is a key in here is replaced by the associated value.
+     */
+    UserAgent(UserAgent userAgent, String userAgentString, Map<String, String> replacedValues) {
+        this.userAgentString = userAgentString;
+        this.hasSyntaxError = userAgent.hasSyntaxError;
+        this.hasAmbiguity = userAgent.hasAmbiguity;
+        this.ambiguityCount = userAgent.ambiguityCount;
+        this.fieldRegistry = userAgent.fieldRegistry;
+        this.fieldValues = userAgent.fieldValues.clone();
+        this.fieldConfidences = userAgent.fieldConfidences.clone();
+        this.fieldPresent = userAgent.fieldPresent.clone();
+        if (userAgent.otherFields != null) {
+            this.otherFields = new HashMap<>(userAgent.otherFields);
+        }
+        if (replacedValues.isEmpty()) {
+            return;
+        }
+        for (int index = 0; index < fieldValues.length; index++) {
+            fieldValues[index] = replacedValues.getOrDefault(fieldValues[index], fieldValues[index]);
+        }
+        if (otherFields != null) {
+            otherFields.replaceAll((name, field) -> replacedValues.containsKey(field.value) ?
+                new AgentField(name, replacedValues.get(field.value), field.confidence) : field);
+        }
     }
 
+    /**
+     * @return The distinct values of all fields that are present (this can include null).
+     */
+    Set<String> getDistinctValues() {
+        Set<String> values = new HashSet<>();
+        for (int index = 0; index < fieldValues.length; index++) {
+            if (fieldPresent[index]) {
+                values.add(fieldValues[index]);
+            }
+        }
+        if (otherFields != null) {
+            otherFields.values().forEach(field -> values.add(field.value));
+        }
+        return values;
+    }
 
-    private static HashMap<String, AgentField> defaultValues() {
-        HashMap<String, AgentField> map = new HashMap<>(32);
+    /**
+     * Writes this result in a compact binary form (see readFrom).
+     * The fields are stored by their index in the FieldRegistry so it can only be read with the same registry.
+     * @param out Where to write to
+     * @throws IOException If writing failed (this includes strings that are too long).
+     */
+    void writeTo(DataOutput out) throws IOException {
+        writeNullableUTF(out, userAgentString);
+        out.writeBoolean(hasSyntaxError);
+        out.writeBoolean(hasAmbiguity);
+        out.writeInt(ambiguityCount);
+        out.writeInt(fieldValues.length);
+        for (int index = 0; index < fieldValues.length; index++) {
+            out.writeBoolean(fieldPresent[index]);
+            writeNullableUTF(out, fieldValues[index]);
+            out.writeLong(fieldConfidences[index]);
+        }
+        if (otherFields == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(otherFields.size());
+        for (AgentField field : otherFields.values()) {
+            out.writeUTF(field.attribute);
+            writeNullableUTF(out, field.value);
+            out.writeLong(field.confidence);
+        }
+    }
+
+    /**
+     * Reads a result that was written by writeTo.
+     * @param in Where to read from
+     * @param fieldRegistry The FieldRegistry of the analyzer that wrote it
+     * @return The result
+     * @throws IOException If reading failed or if it was written with a different FieldRegistry.
+     */
+    static UserAgent readFrom(DataInput in, FieldRegistry fieldRegistry) throws IOException {
+        UserAgent userAgent = new UserAgent(readNullableUTF(in), fieldRegistry);
+        userAgent.hasSyntaxError = in.readBoolean();
+        userAgent.hasAmbiguity = in.readBoolean();
+        userAgent.ambiguityCount = in.readInt();
+        if (in.readInt() != userAgent.fieldValues.length) {
+            throw new IOException("The result was written with a different FieldRegistry");
+        }
+        for (int index = 0; index < userAgent.fieldValues.length; index++) {
+            userAgent.fieldPresent[index] = in.readBoolean();
+            userAgent.fieldValues[index] = readNullableUTF(in);
+            userAgent.fieldConfidences[index] = in.readLong();
+        }
+        int numberOfOtherFields = in.readInt();
+        for (int i = 0; i < numberOfOtherFields; i++) {
+            userAgent.put(in.readUTF(), readNullableUTF(in), in.readLong());
+        }
+        return userAgent;
+    }
+
+    private static void writeNullableUTF(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+
+    private static Map<String, String> defaultValues() {
+        Map<String, String> map = new HashMap<>(32);
         // Device : Family - Brand - Model
-        map.put(DEVICE_CLASS,                  new AgentField(DEVICE_CLASS, UNKNOWN_VALUE, -1)); // Hacker / Cloud / Server / Desktop / Tablet / Phone / Watch
-        map.put(DEVICE_BRAND,                  new AgentField(DEVICE_BRAND, UNKNOWN_VALUE, -1)); // (Google/AWS/Asure) / ????
-        map.put(DEVICE_NAME,                   new AgentField(DEVICE_NAME, UNKNOWN_VALUE, -1)); // (Google/AWS/Asure) / ????
+        map.put(DEVICE_CLASS,                  UNKNOWN_VALUE); // Hacker / Cloud / Server / Desktop / Tablet / Phone / Watch
+        map.put(DEVICE_BRAND,                  UNKNOWN_VALUE); // (Google/AWS/Asure) / ????
+        map.put(DEVICE_NAME,                   UNKNOWN_VALUE); // (Google/AWS/Asure) / ????
 
         // Operating system
-        map.put(OPERATING_SYSTEM_CLASS,        new AgentField(OPERATING_SYSTEM_CLASS, UNKNOWN_VALUE, -1)); // Cloud, Desktop, Mobile, Embedded
-        map.put(OPERATING_SYSTEM_NAME,         new AgentField(OPERATING_SYSTEM_NAME, UNKNOWN_VALUE, -1)); // ( Linux / Android / Windows ...)
-        map.put(OPERATING_SYSTEM_VERSION,      new AgentField(OPERATING_SYSTEM_VERSION, UNKNOWN_VERSION, -1)); // 1.2 / 43 / ...
+        map.put(OPERATING_SYSTEM_CLASS,        UNKNOWN_VALUE); // Cloud, Desktop, Mobile, Embedded
+        map.put(OPERATING_SYSTEM_NAME,         UNKNOWN_VALUE); // ( Linux / Android / Windows ...)
+        map.put(OPERATING_SYSTEM_VERSION,      UNKNOWN_VERSION); // 1.2 / 43 / ...
 
         // Engine : Class (=None/Hacker/Robot/Browser) - Name - Version
-        map.put(LAYOUT_ENGINE_CLASS,           new AgentField(LAYOUT_ENGINE_CLASS, UNKNOWN_VALUE, -1)); // None / Hacker / Robot / Browser /
-        map.put(LAYOUT_ENGINE_NAME,            new AgentField(LAYOUT_ENGINE_NAME, UNKNOWN_VALUE, -1)); // ( GoogleBot / Bing / ...) / (Trident / Gecko / ...)
-        map.put(LAYOUT_ENGINE_VERSION,         new AgentField(LAYOUT_ENGINE_VERSION, UNKNOWN_VERSION, -1)); // 1.2 / 43 / ...
-        map.put(LAYOUT_ENGINE_VERSION_MAJOR,   new AgentField(LAYOUT_ENGINE_VERSION_MAJOR, UNKNOWN_VERSION, -1)); // 1 / 43 / ...
+        map.put(LAYOUT_ENGINE_CLASS,           UNKNOWN_VALUE); // None / Hacker / Robot / Browser /
+        map.put(LAYOUT_ENGINE_NAME,            UNKNOWN_VALUE); // ( GoogleBot / Bing / ...) / (Trident / Gecko / ...)
+        map.put(LAYOUT_ENGINE_VERSION,         UNKNOWN_VERSION); // 1.2 / 43 / ...
+        map.put(LAYOUT_ENGINE_VERSION_MAJOR,   UNKNOWN_VERSION); // 1 / 43 / ...
 
         // Agent: Class (=Hacker/Robot/Browser) - Name - Version
-        map.put(AGENT_CLASS,                   new AgentField(AGENT_CLASS, UNKNOWN_VALUE, -1)); // Hacker / Robot / Browser /
-        map.put(AGENT_NAME,                    new AgentField(AGENT_NAME, UNKNOWN_VALUE, -1)); // ( GoogleBot / Bing / ...) / ( Firefox / Chrome / ... )
-        map.put(AGENT_VERSION,                 new AgentField(AGENT_VERSION, UNKNOWN_VERSION, -1)); // 1.2 / 43 / ...
-        map.put(AGENT_VERSION_MAJOR,           new AgentField(AGENT_VERSION_MAJOR, UNKNOWN_VERSION, -1)); // 1 / 43 / ...
+        map.put(AGENT_CLASS,                   UNKNOWN_VALUE); // Hacker / Robot / Browser /
+        map.put(AGENT_NAME,                    UNKNOWN_VALUE); // ( GoogleBot / Bing / ...) / ( Firefox / Chrome / ... )
+        map.put(AGENT_VERSION,                 UNKNOWN_VERSION); // 1.2 / 43 / ...
+        map.put(AGENT_VERSION_MAJOR,           UNKNOWN_VERSION); // 1 / 43 / ...
         return map;
     }
 
@@ -197,14 +369,27 @@ public class UserAgent extends UserAgentBaseListener implements Serializable, Fi
     }
 
     public void processSetAll() {
-        AgentField setAllField = allFields.get(SET_ALL_FIELDS);
+        AgentField setAllField = get(SET_ALL_FIELDS);
         if (setAllField == null) return;
         boolean useDefault = NULL_VALUE.equals(setAllField.value);
+
+        for (int index = 0; index < fieldValues.length; index++) {
+            if (!fieldPresent[index] || fieldRegistry.isSystemField(index) ||
+                fieldConfidences[index] >= setAllField.confidence) {
+                continue;
+            }
+            fieldValues[index] = useDefault ? getDefaultValue(fieldRegistry.getName(index)) : setAllField.value;
+            fieldConfidences[index] = useDefault ? -1 : setAllField.confidence;
+        }
+
+        if (otherFields == null) {
+            return;
+        }
         final Function<Map.Entry<String, AgentField>, AgentField> updateField = useDefault ?
             e-> new AgentField(e.getKey(), getDefaultValue(e.getKey()), -1) :
             e-> new AgentField(e.getKey(), setAllField.value, setAllField.confidence);
 
-        for (Map.Entry<String, AgentField> fieldEntry : allFields.entrySet()) {
+        for (Map.Entry<String, AgentField> fieldEntry : otherFields.entrySet()) {
             if (isSystemField(fieldEntry.getKey())) continue;
             if (fieldEntry.getValue().confidence >= setAllField.confidence) continue;
             fieldEntry.setValue(updateField.apply(fieldEntry));
@@ -221,43 +406,72 @@ public class UserAgent extends UserAgentBaseListener implements Serializable, Fi
     }
 
     private void set(AgentField incoming) {
-        AgentField field = get(incoming.attribute);
-        boolean wasEmpty = incoming.confidence == -1;
-        boolean update = field == null || incoming.confidence > field.confidence;
-        boolean useDefault = NULL_VALUE.equals(incoming.value) && !SET_ALL_FIELDS.equals(incoming.attribute);
+        set(incoming.attribute, incoming.value, incoming.confidence);
+    }
+
+    public void set(String attribute, String value, long confidence) {
+        int index = fieldRegistry.getIndex(attribute);
+        boolean wasEmpty = confidence == -1;
+        boolean update;
+        if (index < 0) {
+            AgentField field = otherFields == null ? null : otherFields.get(attribute);
+            update = field == null || confidence > field.confidence;
+        } else {
+            update = !fieldPresent[index] || confidence > fieldConfidences[index];
+        }
         if (update) {
-            allFields.put(incoming.attribute,
-                useDefault
-                    ? new AgentField(incoming.attribute, getDefaultValue(incoming.attribute), incoming.confidence)
-                    : incoming);
+            boolean useDefault = NULL_VALUE.equals(value) && !SET_ALL_FIELDS.equals(attribute);
+            put(attribute, useDefault ? getDefaultValue(attribute) : value, confidence);
         }
 
         if (!wasEmpty) {
-            LOG.debug("{}  {} ({}) = {}", update ? "USE" : "SKIP", incoming.attribute, incoming.confidence, incoming.value);
+            LOG.debug("{}  {} ({}) = {}", update ? "USE" : "SKIP", attribute, confidence, value);
         }
     }
 
-    public void set(String attribute, String value, long confidence) {
-        set(new AgentField(attribute, value, confidence));
+    // Unconditionally store the value
+    private void put(String attribute, String value, long confidence) {
+        int index = fieldRegistry.getIndex(attribute);
+        if (index < 0) {
+            if (otherFields == null) {
+                otherFields = new HashMap<>();
+            }
+            otherFields.put(attribute, new AgentField(attribute, value, confidence));
+        } else {
+            fieldValues[index] = value;
+            fieldConfidences[index] = confidence;
+            fieldPresent[index] = true;
+        }
     }
 
     public AgentField get(String attribute) {
-        return allFields.get(attribute);
+        int index = fieldRegistry.getIndex(attribute);
+        if (index < 0) {
+            return otherFields == null ? null : otherFields.get(attribute);
+        }
+        return fieldPresent[index] ? new AgentField(attribute, fieldValues[index], fieldConfidences[index]) : null;
     }
 
     public String getValue(String fieldName) {
-        AgentField field = get(fieldName);
-        return field == null ? UNKNOWN_VALUE : field.value;
+        int index = fieldRegistry.getIndex(fieldName);
+        if (index < 0) {
+            AgentField field = get(fieldName);
+            return field == null ? UNKNOWN_VALUE : field.value;
+        }
+        return fieldPresent[index] ? fieldValues[index] : UNKNOWN_VALUE;
     }
 
     public Long getConfidence(String fieldName) {
-        AgentField field = get(fieldName);
-        return field == null || field.value == null ? -1L : field.confidence;
+        int index = fieldRegistry.getIndex(fieldName);
+        if (index < 0) {
+            AgentField field = get(fieldName);
+            return field == null || field.value == null ? -1L : field.confidence;
+        }
+        return !fieldPresent[index] || fieldValues[index] == null ? -1L : fieldConfidences[index];
     }
 
-    private String getDefaultValue(String name) {
-        AgentField v = defaultValues.get(name);
-        return v == null ? null : v.value;
+    public static String getDefaultValue(String name) {
+        return DEFAULT_VALUES.get(name);
     }
 
     public String toYamlTestCase() {
@@ -376,8 +590,8 @@ public class UserAgent extends UserAgentBaseListener implements Serializable, Fi
         }
         for (String fieldName : fieldNames) {
             if (!"Useragent".equals(fieldName)) {
-                AgentField field = allFields.get(fieldName);
-                if (field.value != null) {
+                AgentField field = get(fieldName);
+                if (field != null && field.value != null) {
                     sb.append("    ").append(fieldName);
                     for (int l = fieldName.length(); l < maxLength + 2; l++) {
                         sb.append(' ');
@@ -391,14 +605,21 @@ public class UserAgent extends UserAgentBaseListener implements Serializable, Fi
     }
 
     public List<String> getAvailableFieldNames() {
-        List<String> resultSet = new ArrayList<>(allFields.size()+10);
+        List<String> resultSet = new ArrayList<>(fieldValues.length + 10);
         resultSet.addAll(Arrays.asList(STANDARD_FIELDS));
-        for (String fieldName : allFields.keySet()) {
+        for (int index = 0; index < fieldValues.length; index++) {
+            if (!fieldPresent[index] || fieldValues[index] == null || fieldConfidences[index] < 0) continue;
+            String fieldName = fieldRegistry.getName(index);
             if (resultSet.contains(fieldName)) continue;
-            AgentField field = allFields.get(fieldName);
-            if (field == null || field.value == null || field.confidence < 0) continue;
             resultSet.add(fieldName);
         }
+        if (otherFields != null) {
+            for (AgentField field : otherFields.values()) {
+                if (field.value != null && field.confidence >= 0 && !resultSet.contains(field.attribute)) {
+                    resultSet.add(field.attribute);
+                }
+            }
+        }
 
         // This is not a field; this is a special operator.
         resultSet.remove(SET_ALL_FIELDS);
@@ -511,93 +732,5 @@ public class UserAgent extends UserAgentBaseListener implements Serializable, Fi
         }
 
         if(addUserAgentStr) set(USERAGENT, getUserAgentString(), 0);
-
-        // !!!!!!!!!! NOTE !!!!!!!!!!!!
-        // IF YOU ADD ANY EXTRA FIELDS YOU MUST ADD THEM TO THE BUILDER TOO !!!!
-        // TODO: Perhaps this should be more generic. Like a "Post processor"  (Generic: Create fields from fields)?
-        addMajorVersionField(AGENT_VERSION, AGENT_VERSION_MAJOR);
-        addMajorVersionField(LAYOUT_ENGINE_VERSION, LAYOUT_ENGINE_VERSION_MAJOR);
-        addMajorVersionField("WebviewAppVersion", "WebviewAppVersionMajor");
-
-        concatFieldValuesNONDuplicated("AgentNameVersion",               AGENT_NAME,             AGENT_VERSION);
-        concatFieldValuesNONDuplicated("AgentNameVersionMajor",          AGENT_NAME,             AGENT_VERSION_MAJOR);
-        concatFieldValuesNONDuplicated("WebviewAppNameVersionMajor",     "WebviewAppName",       "WebviewAppVersionMajor");
-        concatFieldValuesNONDuplicated("LayoutEngineNameVersion",        LAYOUT_ENGINE_NAME,     LAYOUT_ENGINE_VERSION);
-        concatFieldValuesNONDuplicated("LayoutEngineNameVersionMajor",   LAYOUT_ENGINE_NAME,     LAYOUT_ENGINE_VERSION_MAJOR);
-        concatFieldValuesNONDuplicated("OperatingSystemNameVersion",     OPERATING_SYSTEM_NAME,  OPERATING_SYSTEM_VERSION);
-
-        // The device brand field is a mess.
-        AgentField deviceBrand = get(DEVICE_BRAND);
-        if (deviceBrand.nonNullConfidence() >= 0) {
-            set(
-                DEVICE_BRAND,
-                Normalize.brand(deviceBrand.value),
-                deviceBrand.confidence + 1);
-        }
-
-        // The email address is a mess
-        AgentField email = get("AgentInformationEmail");
-        if (email != null && email.nonNullConfidence() >= 0) {
-            set(
-                "AgentInformationEmail",
-                Normalize.email(email.value),
-                email.confidence + 1);
-        }
-
-        // Make sure the DeviceName always starts with the DeviceBrand
-        AgentField deviceName = get(DEVICE_NAME);
-        if (deviceName.nonNullConfidence() >= 0) {
-            deviceBrand = get(DEVICE_BRAND);
-            String deviceNameValue = (deviceName.value == null ? defaultValues.get(DEVICE_NAME) : deviceName).value;
-            // In some cases it does start with the brand but without a separator following the brand
-            deviceNameValue = (deviceBrand.nonNullConfidence() >= 0 && !deviceBrand.value.equals("Unknown"))
-                ? Normalize.cleanupDeviceBrandName(deviceBrand.value, deviceNameValue)
-                : Normalize.brand(deviceNameValue);
-
-            set(
-                DEVICE_NAME,
-                deviceNameValue,
-                deviceName.confidence + 1);
-        }
-    }
-
-    private void concatFieldValuesNONDuplicated(String targetName, String firstName, String secondName) {
-        AgentField first = get(firstName);
-        AgentField second = get(secondName);
-        boolean firstIsNull = first == null || first.value == null;
-        boolean secondIsNull = second == null || second.value == null;
-        if (firstIsNull) {
-            if (!secondIsNull && second.confidence >= 0) {
-                set(targetName, second.value, second.confidence);
-            } //else both null - nothing to do
-            return;
-        }
-        if(secondIsNull) {
-            if (first.confidence >= 0) {
-                set(targetName, first.value, first.confidence);
-            }
-            return;
-        }
-        if(first.value.equals(second.value)) {
-            set(targetName, first.value, first.confidence);
-            return;
-        }
-        if (second.value.startsWith(first.value)) {
-            set(targetName, second.value, second.confidence);
-            return;
-        }
-        set(targetName, first.value + " " + second.value, Math.max(first.confidence, second.confidence));
-    }
-
-    private void addMajorVersionField(String versionName, String majorVersionName) {
-        AgentField agentVersionMajor = get(majorVersionName);
-        if (agentVersionMajor != null && agentVersionMajor.value != null && agentVersionMajor.confidence != -1) return;
-        AgentField agentVersion = get(versionName);
-        if (agentVersion == null) return;
-        set(
-            majorVersionName,
-            VersionSplitter.getInstance().getSingleSplit(agentVersion.value == null ? getDefaultValue(versionName) : agentVersion.value, 1),
-            agentVersion.value == null ? -1 : agentVersion.confidence
-        );
     }
 }
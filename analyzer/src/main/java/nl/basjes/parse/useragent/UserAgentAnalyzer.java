@@ -17,44 +17,69 @@
 
 package nl.basjes.parse.useragent;
 
+import nl.basjes.parse.useragent.analyze.InformPathTrie;
 import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import nl.basjes.parse.useragent.analyze.LiteralPrefilter;
+import nl.basjes.parse.useragent.analyze.MatchArena;
 import nl.basjes.parse.useragent.analyze.Matcher;
 import nl.basjes.parse.useragent.analyze.MatcherAction;
-import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext;
+import nl.basjes.parse.useragent.calculate.FieldCalculator;
+import nl.basjes.parse.useragent.calculate.FieldCalculators;
+import nl.basjes.parse.useragent.parse.UserAgentShape;
 import nl.basjes.parse.useragent.parse.UserAgentTreeFlattener;
+import nl.basjes.parse.useragent.parse.UserAgentTreeFlattener.PathIdAnalyzer;
+import nl.basjes.parse.useragent.utils.Hash64;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
-import static nl.basjes.parse.useragent.UserAgent.AGENT_NAME;
-import static nl.basjes.parse.useragent.UserAgent.AGENT_VERSION;
 import static nl.basjes.parse.useragent.UserAgent.AGENT_VERSION_MAJOR;
-import static nl.basjes.parse.useragent.UserAgent.DEVICE_BRAND;
-import static nl.basjes.parse.useragent.UserAgent.DEVICE_NAME;
-import static nl.basjes.parse.useragent.UserAgent.LAYOUT_ENGINE_NAME;
-import static nl.basjes.parse.useragent.UserAgent.LAYOUT_ENGINE_VERSION;
 import static nl.basjes.parse.useragent.UserAgent.LAYOUT_ENGINE_VERSION_MAJOR;
-import static nl.basjes.parse.useragent.UserAgent.OPERATING_SYSTEM_NAME;
-import static nl.basjes.parse.useragent.UserAgent.OPERATING_SYSTEM_VERSION;
 import static nl.basjes.parse.useragent.UserAgent.PRE_SORTED_FIELDS_LIST;
 import static nl.basjes.parse.useragent.UserAgent.SET_ALL_FIELDS;
 import static nl.basjes.parse.useragent.UserAgent.SYNTAX_ERROR;
 import static nl.basjes.parse.useragent.UserAgent.USERAGENT;
 
-public class UserAgentAnalyzer implements Serializable {
+/**
+ * Analyzes useragents using the rules from the config files.
+ * <p>
+ * A single instance can be used by any number of threads at the same time.
+ * Everything that is built from the rules (the matchers, the lookups and the InformPathTrie) is only read
+ * while parsing. All state that changes during a parse (the ANTLR lexer/parser and the MatchArena) is kept
+ * per thread and the caches are threadsafe.
+ * The analyzers created by the Builder and all deserialized analyzers are frozen: the settings that change how
+ * the useragents are parsed (two stage parsing and compiled walkLists) can no longer be changed.
+ * Only the caches can still be replaced.
+ */
+public class UserAgentAnalyzer implements Serializable, Closeable {
     private static final Logger LOG = LogManager.getLogger(UserAgentAnalyzer.class);
     private static final List<String> HARD_CODED_GENERATED_FIELDS = Arrays.asList(
         SYNTAX_ERROR,
@@ -69,13 +94,46 @@ public class UserAgentAnalyzer implements Serializable {
         "WebviewAppNameVersionMajor"
     );
 
-    private final Map<String, Collection<MatcherAction>> informMatcherActions;
-    // These are the actual subrange we need for the paths.
-    private final Map<String, Set<Range>> informMatcherActionRanges;
+    public static final int DEFAULT_PARSE_CACHE_SIZE = 10000;
+    public static final int DEFAULT_PERSISTENT_CACHE_ENTRIES = 100000;
+    // The number of useragents that a worker of parallelParse handles in one go.
+    private static final int PARALLEL_CHUNK_SIZE = 256;
+    // The maximum number of chunks per worker that have been submitted yet have not been handled.
+    private static final int PARALLEL_CHUNKS_PER_WORKER = 4;
+
+    // All the paths (and the actual subranges) the actions must be informed about (by the id of the path).
+    // Everything else in the parse tree is not even looked at.
+    private final InformPathTrie informPathTrie;
 
     final boolean addUserAgentStr;
     final boolean canDetectHacker;
     final Matcher[] matchers;
+    // The matchers that can produce a result even if none of their actions have been informed.
+    private final BitSet alwaysEvaluatedMatchers;
+    private final LiteralPrefilter literalPrefilter;
+    // The calculators of the fields that are derived from other fields (only the ones that are needed).
+    private final FieldCalculator[] fieldCalculators;
+
+    private final int numberOfActions;
+    // All fields this analyzer can produce; a UserAgent stores its values by the index in this registry.
+    private final FieldRegistry fieldRegistry;
+    // Each thread gets its own (reused) administration of the matches found during a parse.
+    private transient ThreadLocal<MatchArena> matchArenas;
+
+    private int cacheSize = DEFAULT_PARSE_CACHE_SIZE;
+    // Volatile because the caches can be replaced while other threads are parsing.
+    private transient volatile UserAgentCache parseCache = null;
+
+    // Changes if anything changes that influences the results (the version, the rules and the wanted fields).
+    private final long rulesFingerprint;
+
+    private int shapeCacheSize = 0;
+    transient volatile ShapeCache shapeCache = null;
+
+    private boolean twoStageParsing = false;
+    private boolean compiledWalkLists = false;
+    // Not retained in the serialized form: a deserialized analyzer is always frozen.
+    private transient volatile boolean frozen = false;
 
     public UserAgentAnalyzer() {
         this("classpath*:UserAgents/**/*.yaml", true);
@@ -86,19 +144,50 @@ public class UserAgentAnalyzer implements Serializable {
     }
 
     public UserAgentAnalyzer(String resourceString, List<String> wantedFields, boolean showMatcherStats) {
+        this(resourceString, wantedFields, showMatcherStats, false);
+    }
+
+    /**
+     * @param resourceString The resource pattern of the config files.
+     * @param wantedFields The wanted fields (null = all fields)
+     * @param showMatcherStats Log the statistics of the matchers per file
+     * @param keepTests Also load the test cases from the config files.
+     *                  These are only needed by subclasses that do something with them.
+     */
+    public UserAgentAnalyzer(String resourceString, List<String> wantedFields, boolean showMatcherStats, boolean keepTests) {
         logVersion();
-        ResourceLoader loader= load(resourceString, wantedFields, showMatcherStats);
-        informMatcherActions = loader.actions.informMatcherActions;
-        informMatcherActionRanges = loader.actions.informMatcherActionRanges;
+        ResourceLoader loader= load(resourceString, wantedFields, showMatcherStats, keepTests);
+        informPathTrie = loader.actions.createInformPathTrie();
         matchers = loader.allMatchers.toArray(new Matcher[loader.allMatchers.size()]);
+        alwaysEvaluatedMatchers = new BitSet(matchers.length);
+        for (int index = 0; index < matchers.length; index++) {
+            Matcher matcher = matchers[index];
+            matcher.setIndex(index);
+            if (matcher.mustAlwaysBeEvaluated()) {
+                alwaysEvaluatedMatchers.set(index);
+            }
+        }
+        literalPrefilter = new LiteralPrefilter(matchers);
         canDetectHacker = loader.canDetectHacker;
         addUserAgentStr = wantedFields != null && wantedFields.contains(USERAGENT);
+        fieldCalculators = FieldCalculators.getCalculators(wantedFields);
+
+        numberOfActions = loader.numberOfActions;
+        rulesFingerprint = Hash64.hash(Hash64.hash(Hash64.hash(getVersion()), Long.toString(loader.rulesChecksum)),
+            wantedFields == null ? "<all>" : new TreeSet<>(wantedFields).toString());
+        fieldRegistry = new FieldRegistry(getAllPossibleFieldNames());
 
         verifyWeAreNotAskingForImpossibleFields(wantedFields);
+        initializeMatchArenas();
+        initializeCache();
     }
 
-    protected ResourceLoader load(String resourceString, List<String> wantedFields, boolean showMatcherStats) {
-        return new ResourceLoader(resourceString, wantedFields, showMatcherStats);
+    private void initializeMatchArenas() {
+        matchArenas = ThreadLocal.withInitial(() -> new MatchArena(numberOfActions, informPathTrie));
+    }
+
+    protected ResourceLoader load(String resourceString, List<String> wantedFields, boolean showMatcherStats, boolean keepTests) {
+        return new ResourceLoader(resourceString, wantedFields, showMatcherStats, keepTests);
     }
 
     private void verifyWeAreNotAskingForImpossibleFields(List<String> wantedFieldNames) {
@@ -169,6 +258,186 @@ public class UserAgentAnalyzer implements Serializable {
 
     // --------------------------------------------
 
+    public void disableCaching() {
+        setCacheSize(0);
+    }
+
+    /**
+     * Sets the new size of the parsing cache.
+     * Note that this will also wipe (and close) the existing cache.
+     *
+     * @param newCacheSize The size of the new in memory cache. As size of 0 will disable caching.
+     */
+    public void setCacheSize(int newCacheSize) {
+        cacheSize = newCacheSize > 0 ? newCacheSize : 0;
+        initializeCache();
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Use a different cache of the parse results (like a MappedFileUserAgentCache) instead of the in memory cache.
+     * Note that this cache is not part of the serialized form: after deserialization the in memory cache is used again.
+     *
+     * @param newCache The new cache. A value of null will disable caching.
+     */
+    public void setCache(UserAgentCache newCache) {
+        UserAgentCache oldCache = parseCache;
+        parseCache = newCache;
+        if (oldCache != newCache) {
+            closeCache(oldCache);
+        }
+    }
+
+    public UserAgentCache getCache() {
+        return parseCache;
+    }
+
+    /**
+     * Store the parse results in a memory mapped file so they survive a restart (see MappedFileUserAgentCache).
+     * The file is emptied automatically if it was made by an analyzer with different rules.
+     * If the file cannot be used the in memory cache remains in use.
+     * Once the file is full no new results are stored; nothing is ever evicted.
+     * The file is closed when the cache is replaced or when the analyzer is closed.
+     *
+     * @param file The cache file; it can be shared by several processes on the same machine.
+     * @param maxEntries The maximum number of results in the file (only used when creating a new file).
+     */
+    public void setPersistentCache(File file, int maxEntries) {
+        try {
+            setCache(new MappedFileUserAgentCache(file, maxEntries, getRulesFingerprint(), fieldRegistry));
+        } catch (IOException e) {
+            LOG.error("Unable to use {} as the persistent cache: {}", file, e.toString());
+        }
+    }
+
+    /**
+     * @return A fingerprint of everything that determines the results of this analyzer:
+     * the version, the rules, the wanted fields and the way of parsing.
+     */
+    public long getRulesFingerprint() {
+        return twoStageParsing ? Hash64.hash(rulesFingerprint, "TwoStageParsing") : rulesFingerprint;
+    }
+
+    /**
+     * Sets the new size of the shape cache (see ShapeCache); off by default.
+     * For useragents that only differ in the digits (like the build numbers) from a useragent that has been
+     * analyzed before the earlier outcome is reused (if that is possible) instead of doing the full analysis.
+     * Note that this will also wipe the existing shape cache.
+     *
+     * @param newShapeCacheSize The size of the new in memory cache of shapes. As size of 0 will disable it.
+     */
+    public void setShapeCacheSize(int newShapeCacheSize) {
+        shapeCacheSize = newShapeCacheSize > 0 ? newShapeCacheSize : 0;
+        initializeShapeCache();
+    }
+
+    public int getShapeCacheSize() {
+        return shapeCacheSize;
+    }
+
+    /**
+     * Parse the useragent first with the faster SLL prediction mode and only if that fails do it again with full LL.
+     * This is off by default because for ambiguous useragents SLL can pick a different alternative than LL
+     * (which may change the outcome) and ambiguities are no longer reported if the SLL stage succeeds.
+     *
+     * @param newTwoStageParsing Use two stage parsing or not.
+     */
+    public void setTwoStageParsing(boolean newTwoStageParsing) {
+        checkNotFrozen("two stage parsing");
+        twoStageParsing = newTwoStageParsing;
+    }
+
+    public boolean isTwoStageParsing() {
+        return twoStageParsing;
+    }
+
+    /**
+     * Compile the walkLists of all matchers into closures instead of interpreting the chain of Steps.
+     * The outcome is exactly the same; only the speed differs.
+     *
+     * @param newCompiledWalkLists Compile the walkLists or not.
+     */
+    public void setCompiledWalkLists(boolean newCompiledWalkLists) {
+        checkNotFrozen("compiled walkLists");
+        compiledWalkLists = newCompiledWalkLists;
+        for (Matcher matcher : matchers) {
+            matcher.setCompiledWalkLists(compiledWalkLists);
+        }
+    }
+
+    public boolean isCompiledWalkLists() {
+        return compiledWalkLists;
+    }
+
+    /**
+     * After this the way the useragents are parsed can no longer be changed (see the class documentation).
+     * The Builder does this as the last step.
+     */
+    public void freeze() {
+        for (Matcher matcher : matchers) {
+            matcher.freeze();
+        }
+        frozen = true;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen(String setting) {
+        if (frozen) {
+            throw new IllegalStateException("Unable to change " + setting + " of a frozen UserAgentAnalyzer");
+        }
+    }
+
+    private void initializeCache() {
+        if (cacheSize >= 1) {
+            setCache(new ClockUserAgentCache(cacheSize));
+        } else {
+            setCache(null);
+        }
+    }
+
+    private static void closeCache(UserAgentCache cache) {
+        if (cache instanceof Closeable) {
+            try {
+                ((Closeable) cache).close();
+            } catch (IOException e) {
+                LOG.error("Unable to close the cache: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * Closes the cache (if it needs closing like the MappedFileUserAgentCache).
+     * The analyzer itself can still be used; a closed persistent cache simply stores nothing new.
+     */
+    @Override
+    public void close() {
+        closeCache(parseCache);
+    }
+
+    private void initializeShapeCache() {
+        if (shapeCacheSize >= 1) {
+            shapeCache = new ShapeCache(shapeCacheSize);
+        } else {
+            shapeCache = null;
+        }
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        initializeMatchArenas();
+        initializeCache();
+        initializeShapeCache();
+        freeze();
+    }
+
+    // --------------------------------------------
+
 
     public static String getVersion() {
         return "Yauaa " + Version.getProjectVersion() + " (" + Version.getGitCommitIdDescribeShort() + " @ " + Version.getBuildTimestamp() + ")";
@@ -228,37 +497,296 @@ config:
 */
 
 
+    public FieldRegistry getFieldRegistry() {
+        return fieldRegistry;
+    }
+
     protected UserAgent createUserAgent(String userAgentString) {
-        return new UserAgent((userAgentString));
-    }
-
-    protected final Map<MatcherAction, Collection<MatcherAction.Match>> _matches(UserAgent userAgent) {
-        Map<MatcherAction, Collection<MatcherAction.Match>> matches = new HashMap<>();
-        UserAgentTreeFlattener.parse(userAgent, informMatcherActionRanges, (path, value, ctx) -> {
-            MatcherAction.Match match = new MatcherAction.Match(path, value, ctx);
-            String lpath = path.toLowerCase(Locale.ENGLISH);
-            informMatcherActions.getOrDefault(lpath, Collections.emptySet()).forEach(
-                action -> matches.computeIfAbsent(action, k -> new ArrayDeque<>()).add(match)
-            );
-
-            lpath += "=\"" + (value == null ? null : value.toLowerCase(Locale.ENGLISH)) + '"';
-            informMatcherActions.getOrDefault(lpath, Collections.emptySet()).forEach(
-                action -> matches.computeIfAbsent(action, k -> new ArrayDeque<>()).add(match)
-            );
-        });
+        return new UserAgent(userAgentString, fieldRegistry);
+    }
+
+    /**
+     * Parses the useragent and collects all matches.
+     * NOTE: The returned instance is reused by the next parse done by the same thread.
+     * @param userAgent The useragent to parse
+     * @return The matches that were found.
+     */
+    protected final MatchArena _matches(UserAgent userAgent) {
+        MatchArena matches = matchArenas.get();
+        matches.reset();
+        // The digits that could change the outcome are only needed for the shape cache.
+        boolean trackDigits = shapeCache != null;
+        UserAgentTreeFlattener.parse(userAgent, informPathTrie, new PathIdAnalyzer() {
+            @Override
+            public void informUserAgent(String parsedUserAgent) {
+                literalPrefilter.findLiterals(parsedUserAgent, matches.getFoundLiterals());
+            }
+
+            @Override
+            public void informParseTree(ParseTree parseTree) {
+                matches.setParseTree(parseTree);
+                if (trackDigits && parseTree instanceof CachingParserRuleContext) {
+                    ((CachingParserRuleContext) parseTree).trackDigits();
+                }
+            }
+
+            @Override
+            public void inform(int pathId, String value, ParseTree ctx) {
+                for (MatcherAction action : informPathTrie.getActions(pathId)) {
+                    matches.add(action, pathId, value, ctx);
+                }
+
+                if (informPathTrie.hasValueActions(pathId)) {
+                    if (trackDigits && informPathTrie.valueActionsDependOnDigits(pathId, value)) {
+                        CachingParserRuleContext.digitsInspected(ctx, value);
+                    }
+                    for (MatcherAction action : informPathTrie.getValueActions(pathId, value == null ? "null" : value)) {
+                        matches.add(action, pathId, value, ctx);
+                    }
+                }
+            }
+        }, twoStageParsing);
         return matches;
     }
 
-    protected final void _parse(UserAgent userAgent, Map<MatcherAction, Collection<MatcherAction.Match>> matches) {
-        Arrays.stream(matchers).forEach( matcher -> matcher.analyze(userAgent.withMatcher(matcher), matches));
+    protected final void _parse(UserAgent userAgent, MatchArena matches) {
+        analyzeMatches(userAgent, matches);
+        postProcess(userAgent);
+    }
+
+    private void analyzeMatches(UserAgent userAgent, MatchArena matches) {
+        // Only the matchers of which at least one action has been informed can produce a result
+        // (plus the few that can succeed without that). The rest is not even looked at.
+        // Of these the ones that require a literal that does not occur in the useragent are skipped too.
+        BitSet candidates = matches.getCandidates();
+        candidates.or(alwaysEvaluatedMatchers);
+        for (int i = 0; i < matches.getNumberOfInformedActions(); i++) {
+            candidates.set(matches.getInformedAction(i).getMatcher().getIndex());
+        }
+        // The candidates MUST be evaluated in the original order of the matchers.
+        BitSet foundLiterals = matches.getFoundLiterals();
+        for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+            if (!literalPrefilter.canMatch(index, foundLiterals)) {
+                if (shapeCache != null && literalPrefilter.rejectionDependsOnDigits(index, foundLiterals)) {
+                    matches.getRejectedOnDigits().set(index);
+                }
+                continue;
+            }
+            Matcher matcher = matchers[index];
+            matcher.analyze(userAgent.withMatcher(matcher), matches);
+        }
         // Fire all Analyzers
         userAgent.processSetAll();
+    }
+
+    private void postProcess(UserAgent userAgent) {
         userAgent.hardCodedPostProcessing(addUserAgentStr, canDetectHacker);
+        for (FieldCalculator fieldCalculator : fieldCalculators) {
+            fieldCalculator.calculate(userAgent);
+        }
     }
 
     public UserAgent parse(String userAgentString) {
-        UserAgent userAgent = createUserAgent(userAgentString);
-        _parse(userAgent, _matches(userAgent));
+        // Local copy of the reference so a concurrent setCacheSize does not bite us.
+        UserAgentCache cache = parseCache;
+        if (cache == null) {
+            return parseNoCache(userAgentString);
+        }
+
+        // The cache only hands out (and only keeps) copies because the results are mutable.
+        UserAgent cachedUserAgent = cache.get(userAgentString);
+        if (cachedUserAgent != null) {
+            return cachedUserAgent;
+        }
+
+        UserAgent userAgent = parseNoCache(userAgentString);
+        cache.put(userAgentString, userAgent);
+        return userAgent;
+    }
+
+    /**
+     * Parses all useragents of a batch (like all records of a file).
+     * Each distinct useragent is analyzed (or retrieved from the cache) only once; because the results are mutable
+     * the duplicates get a copy of that result.
+     * @param userAgentStrings The useragents (may contain duplicates and nulls)
+     * @return The results in the same order as the input.
+     */
+    public List<UserAgent> parseAll(List<String> userAgentStrings) {
+        return Arrays.asList(parseAll(userAgentStrings.toArray(new String[userAgentStrings.size()])));
+    }
+
+    /**
+     * Parses all useragents of a batch (like all records of a file).
+     * Each distinct useragent is analyzed (or retrieved from the cache) only once; because the results are mutable
+     * the duplicates get a copy of that result.
+     * @param userAgentStrings The useragents (may contain duplicates and nulls)
+     * @return The results in the same order as the input.
+     */
+    public UserAgent[] parseAll(String[] userAgentStrings) {
+        UserAgent[] results = new UserAgent[userAgentStrings.length];
+        // The first result of each distinct useragent (a HashMap also allows the null useragent).
+        Map<String, UserAgent> distinct = new HashMap<>(userAgentStrings.length * 2);
+        for (int index = 0; index < userAgentStrings.length; index++) {
+            String userAgentString = userAgentStrings[index];
+            UserAgent first = distinct.get(userAgentString);
+            if (first == null) {
+                results[index] = parse(userAgentString);
+                distinct.put(userAgentString, results[index]);
+            } else {
+                results[index] = new UserAgent(first);
+            }
+        }
+        return results;
+    }
+
+    // ===============================================================================================================
+    // Parsing with several threads.
+    // All state that changes during a parse (the ANTLR lexer/parser and the administration of the matches) is kept
+    // per thread and reused by all parses of that thread. The rules, the lookups and the matchers are only read and
+    // the caches are threadsafe; so all workers share this single analyzer.
+    // The useragents are handed to the workers in chunks which are parsed with parseAll (so the duplicates within a
+    // chunk are analyzed only once). Only a few chunks per worker are in flight at any moment so the input is read
+    // while the workers are busy and it is never all in memory at the same time. If a chunk fails the chunks that
+    // have not been started yet are cancelled and the exception is rethrown.
+
+    /**
+     * Parses all useragents using the common ForkJoinPool.
+     * @param userAgentStrings The useragents
+     * @return The results in the same order as the input.
+     */
+    public List<UserAgent> parallelParse(Stream<String> userAgentStrings) {
+        return parallelParse(userAgentStrings, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses all useragents using the threads of the executor (like a ForkJoinPool).
+     * @param userAgentStrings The useragents
+     * @param executor The executor that runs the workers
+     * @return The results in the same order as the input.
+     */
+    public List<UserAgent> parallelParse(Stream<String> userAgentStrings, Executor executor) {
+        List<UserAgent> results = new ArrayList<>();
+        runChunks(userAgentStrings.spliterator(), executor, true, results::add);
+        return results;
+    }
+
+    /**
+     * Parses all useragents using the common ForkJoinPool and hands each result to the consumer as soon as it is
+     * available (so in no particular order). Returns when all useragents have been parsed.
+     * @param userAgentStrings The useragents
+     * @param consumer Receives the results; it is called by the worker threads so it must be threadsafe.
+     */
+    public void parallelParseUnordered(Stream<String> userAgentStrings, Consumer<UserAgent> consumer) {
+        parallelParseUnordered(userAgentStrings, ForkJoinPool.commonPool(), consumer);
+    }
+
+    /**
+     * Parses all useragents using the threads of the executor (like a ForkJoinPool) and hands each result to the
+     * consumer as soon as it is available (so in no particular order). Returns when all useragents have been parsed.
+     * @param userAgentStrings The useragents
+     * @param executor The executor that runs the workers
+     * @param consumer Receives the results; it is called by the worker threads so it must be threadsafe.
+     */
+    public void parallelParseUnordered(Stream<String> userAgentStrings, Executor executor, Consumer<UserAgent> consumer) {
+        runChunks(userAgentStrings.spliterator(), executor, false, consumer);
+    }
+
+    // If ordered the results are handed to the consumer by the calling thread in the order of the input,
+    // else by the workers as soon as a chunk is done.
+    private void runChunks(Spliterator<String> input, Executor executor, boolean ordered, Consumer<UserAgent> consumer) {
+        int workers = executor instanceof ForkJoinPool ?
+            ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+        int maxInFlight = PARALLEL_CHUNKS_PER_WORKER * Math.max(1, workers);
+
+        Deque<CompletableFuture<UserAgent[]>> inFlight = new ArrayDeque<>(maxInFlight);
+        try {
+            List<String> chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
+            boolean more = true;
+            while (more) {
+                more = input.tryAdvance(chunk::add);
+                if (chunk.size() == PARALLEL_CHUNK_SIZE || (!more && !chunk.isEmpty())) {
+                    if (inFlight.size() == maxInFlight) {
+                        awaitChunk(inFlight, ordered, consumer);
+                    }
+                    String[] userAgentStrings = chunk.toArray(new String[chunk.size()]);
+                    chunk.clear();
+                    inFlight.addLast(CompletableFuture.supplyAsync(() -> {
+                        UserAgent[] results = parseAll(userAgentStrings);
+                        if (ordered) {
+                            return results;
+                        }
+                        for (UserAgent userAgent : results) {
+                            consumer.accept(userAgent);
+                        }
+                        return null;
+                    }, executor));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                awaitChunk(inFlight, ordered, consumer);
+            }
+        } catch (RuntimeException | Error e) {
+            // The chunks that have not been started yet are skipped.
+            for (CompletableFuture<UserAgent[]> chunk : inFlight) {
+                chunk.cancel(false);
+            }
+            throw e;
+        }
+    }
+
+    // Waits for the first chunk (if ordered) or for any chunk and removes the chunks that are done.
+    private static void awaitChunk(Deque<CompletableFuture<UserAgent[]>> inFlight,
+                                   boolean ordered,
+                                   Consumer<UserAgent> consumer) {
+        if (ordered) {
+            for (UserAgent userAgent : join(inFlight.removeFirst())) {
+                consumer.accept(userAgent);
+            }
+            return;
+        }
+        join(CompletableFuture.anyOf(inFlight.toArray(new CompletableFuture<?>[inFlight.size()])));
+        Iterator<CompletableFuture<UserAgent[]>> chunks = inFlight.iterator();
+        while (chunks.hasNext()) {
+            CompletableFuture<UserAgent[]> chunk = chunks.next();
+            if (chunk.isDone()) {
+                join(chunk); // Rethrows if the chunk failed
+                chunks.remove();
+            }
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> chunk) {
+        try {
+            return chunk.join();
+        } catch (CompletionException e) {
+            // Rethrow what went wrong in the worker.
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // ===============================================================================================================
+
+    private UserAgent parseNoCache(String userAgentString) {
+        // Local copy of the reference so a concurrent setShapeCacheSize does not bite us.
+        ShapeCache shapes = shapeCache;
+        if (shapes == null || userAgentString == null) {
+            UserAgent userAgent = createUserAgent(userAgentString);
+            _parse(userAgent, _matches(userAgent));
+            return userAgent;
+        }
+
+        UserAgentShape shape = new UserAgentShape(userAgentString);
+        UserAgent userAgent = shapes.get(shape);
+        if (userAgent == null) {
+            userAgent = createUserAgent(userAgentString);
+            MatchArena matches = _matches(userAgent);
+            analyzeMatches(userAgent, matches);
+            shapes.put(shape, userAgent, matches, literalPrefilter);
+        }
+        postProcess(userAgent);
         return userAgent;
     }
 
@@ -286,9 +814,19 @@ config:
         // If we want ALL fields this is null. If we only want specific fields this is a list of names.
         public List<String> wantedFieldNames = null;
         public boolean showMatcherLoadStats = true;
+        protected boolean keepTests = false;
+        private int cacheSize = DEFAULT_PARSE_CACHE_SIZE;
+        private int shapeCacheSize = 0;
+        private boolean twoStageParsing = false;
+        private boolean compiledWalkLists = false;
+        private String imageResource = null;
+        private File imageFile = null;
+        private String persistentCacheFile = null;
+        private int persistentCacheEntries = DEFAULT_PERSISTENT_CACHE_ENTRIES;
 
         protected Builder() {
-            this( builder -> new UserAgentAnalyzer("classpath*:UserAgents/**/*.yaml", builder.wantedFieldNames, builder.showMatcherLoadStats));
+            this( builder -> new UserAgentAnalyzer("classpath*:UserAgents/**/*.yaml",
+                builder.wantedFieldNames, builder.showMatcherLoadStats, builder.keepTests));
         }
 
         public Builder(Function<Builder, UserAgentAnalyzer> buildFunction) {
@@ -328,29 +866,183 @@ config:
             return this;
         }
 
-        private void addGeneratedFields(String result, String... dependencies) {
-            if (wantedFieldNames.contains(result)) {
-                Collections.addAll(wantedFieldNames, dependencies);
-            }
+        /**
+         * Use a cache of the parse results (the default).
+         * @param newCacheSize The maximum number of useragents kept in the in memory cache. A value &lt; 1 disables the cache.
+         * @return the current Builder instance.
+         */
+        public Builder withCache(int newCacheSize) {
+            cacheSize = newCacheSize;
+            return this;
+        }
+
+        public Builder withoutCache() {
+            cacheSize = 0;
+            return this;
+        }
+
+        /**
+         * Reuse the outcome for useragents that only differ in the digits (like build numbers) from a useragent
+         * that has been analyzed before (only if the outcome cannot depend on those digits).
+         * @param newShapeCacheSize The maximum number of shapes kept in the in memory cache. A value &lt; 1 disables it.
+         * @return the current Builder instance.
+         */
+        public Builder withShapeCache(int newShapeCacheSize) {
+            shapeCacheSize = newShapeCacheSize;
+            return this;
+        }
+
+        public Builder withoutShapeCache() {
+            shapeCacheSize = 0;
+            return this;
+        }
+
+        /**
+         * Store the parse results in a memory mapped file (instead of the in memory cache) so they survive restarts.
+         * @param fileName The name of the cache file; it is replaced automatically if the rules have changed.
+         * @return the current Builder instance.
+         */
+        public Builder withPersistentCache(String fileName) {
+            return withPersistentCache(fileName, DEFAULT_PERSISTENT_CACHE_ENTRIES);
+        }
+
+        /**
+         * Store the parse results in a memory mapped file (instead of the in memory cache) so they survive restarts.
+         * Once it holds maxEntries results nothing new is stored (nothing is evicted).
+         * Close the analyzer to write the file to disk.
+         * @param fileName The name of the cache file; it is replaced automatically if the rules have changed.
+         * @param maxEntries The maximum number of results in a new cache file.
+         * @return the current Builder instance.
+         */
+        public Builder withPersistentCache(String fileName, int maxEntries) {
+            persistentCacheFile = fileName;
+            persistentCacheEntries = maxEntries;
+            return this;
+        }
+
+        public Builder withoutPersistentCache() {
+            persistentCacheFile = null;
+            return this;
+        }
+
+        /**
+         * Parse using SLL first and only fall back to full LL if that fails.
+         * Faster, yet for ambiguous useragents the outcome can differ from the default parsing.
+         * @return the current Builder instance.
+         */
+        public Builder withTwoStageParsing() {
+            twoStageParsing = true;
+            return this;
+        }
+
+        public Builder withoutTwoStageParsing() {
+            twoStageParsing = false;
+            return this;
+        }
+
+        /**
+         * Compile the walkLists of all matchers into closures instead of interpreting the chain of Steps.
+         * @return the current Builder instance.
+         */
+        public Builder withCompiledWalkLists() {
+            compiledWalkLists = true;
+            return this;
+        }
+
+        public Builder withoutCompiledWalkLists() {
+            compiledWalkLists = false;
+            return this;
+        }
+
+        /**
+         * Also load the test cases from the config files.
+         * These are not needed for analyzing so by default they are dropped to save time and memory.
+         * @return the current Builder instance.
+         */
+        public Builder keepTests() {
+            keepTests = true;
+            return this;
+        }
+
+        public Builder dropTests() {
+            keepTests = false;
+            return this;
+        }
+
+        /**
+         * Try to load the analyzer from the default precompiled image on the classpath.
+         * If that image is missing or not usable the analyzer is built from the yaml files.
+         * @return the current Builder instance.
+         */
+        public Builder withImage() {
+            return withImage(AnalyzerImage.DEFAULT_IMAGE_RESOURCE);
+        }
+
+        /**
+         * Try to load the analyzer from a precompiled image on the classpath.
+         * If that image is missing or not usable the analyzer is built from the yaml files.
+         * @param resourceName The name of the image resource.
+         * @return the current Builder instance.
+         */
+        public Builder withImage(String resourceName) {
+            imageResource = resourceName;
+            imageFile = null;
+            return this;
+        }
+
+        /**
+         * Try to load the analyzer from a precompiled image file.
+         * If that image is missing or not usable the analyzer is built from the yaml files.
+         * @param fileName The name of the image file.
+         * @return the current Builder instance.
+         */
+        public Builder withImageFile(String fileName) {
+            imageResource = null;
+            imageFile = new File(fileName);
+            return this;
+        }
+
+        public Builder withoutImage() {
+            imageResource = null;
+            imageFile = null;
+            return this;
         }
 
         public UserAgentAnalyzer build() {
             if (wantedFieldNames != null) {
-                addGeneratedFields("AgentNameVersion", AGENT_NAME, AGENT_VERSION);
-                addGeneratedFields("AgentNameVersionMajor", AGENT_NAME, AGENT_VERSION_MAJOR);
-                addGeneratedFields("WebviewAppNameVersionMajor", "WebviewAppName", "WebviewAppVersionMajor");
-                addGeneratedFields("LayoutEngineNameVersion", LAYOUT_ENGINE_NAME, LAYOUT_ENGINE_VERSION);
-                addGeneratedFields("LayoutEngineNameVersionMajor", LAYOUT_ENGINE_NAME, LAYOUT_ENGINE_VERSION_MAJOR);
-                addGeneratedFields("OperatingSystemNameVersion", OPERATING_SYSTEM_NAME, OPERATING_SYSTEM_VERSION);
-                addGeneratedFields(DEVICE_NAME, DEVICE_BRAND);
-                addGeneratedFields(AGENT_VERSION_MAJOR, AGENT_VERSION);
-                addGeneratedFields(LAYOUT_ENGINE_VERSION_MAJOR, LAYOUT_ENGINE_VERSION);
-                addGeneratedFields("WebviewAppVersionMajor", "WebviewAppVersion");
+                // The fields that are needed to calculate the wanted fields.
+                FieldCalculators.addDependencies(wantedFieldNames);
 
                 // Special field that affects ALL fields.
                 wantedFieldNames.add(SET_ALL_FIELDS);
             }
-            return buildFunction.apply(this);
+            UserAgentAnalyzer uaa = null;
+            if (imageResource != null) {
+                uaa = AnalyzerImage.loadFromClasspath(imageResource, wantedFieldNames);
+            }
+            if (imageFile != null) {
+                uaa = AnalyzerImage.loadFromFile(imageFile, wantedFieldNames);
+            }
+            if (uaa != null && uaa.isCompiledWalkLists() != compiledWalkLists) {
+                // A loaded image is frozen so the walkLists can no longer be (un)compiled.
+                LOG.warn("The analyzer image has {}compiled walkLists; building from the rules instead.",
+                    uaa.isCompiledWalkLists() ? "" : "no ");
+                uaa = null;
+            }
+            if (uaa == null) {
+                uaa = buildFunction.apply(this);
+                uaa.setCompiledWalkLists(compiledWalkLists);
+            }
+            uaa.setCacheSize(cacheSize);
+            uaa.setShapeCacheSize(shapeCacheSize);
+            // Directly because a loaded image is already frozen and nothing else can use it yet.
+            uaa.twoStageParsing = twoStageParsing;
+            if (persistentCacheFile != null) {
+                // Last because the fingerprint depends on the other settings.
+                uaa.setPersistentCache(new File(persistentCacheFile), persistentCacheEntries);
+            }
+            uaa.freeze();
+            return uaa;
         }
     }
 }
@@ -0,0 +1,45 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+/**
+ * A cache of the results of the analyzer (see UserAgentAnalyzer.setCache).
+ * All implementations must be threadsafe.
+ * Because a UserAgent is mutable an implementation must never hand out (or keep) an instance that is used elsewhere.
+ * The cached results are not turned into immutable instances: callers are allowed to change the UserAgent they get
+ * (i.e. UserAgent.set) so every hit returns a fresh (mutable) copy instead.
+ */
+public interface UserAgentCache {
+
+    /**
+     * @param userAgentString The useragent
+     * @return A new instance with the cached result or null if it is not in the cache.
+     */
+    UserAgent get(String userAgentString);
+
+    /**
+     * @param userAgentString The useragent
+     * @param userAgent The result of the analysis (the caller keeps using this instance).
+     */
+    void put(String userAgentString, UserAgent userAgent);
+
+    /**
+     * Remove everything from the cache.
+     */
+    void clear();
+}
@@ -20,6 +20,7 @@ package nl.basjes.parse.useragent.analyze;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerBaseVisitor;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerLexer;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveLookup;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser;
 import org.antlr.v4.runtime.ANTLRErrorListener;
 import org.antlr.v4.runtime.CharStreams;
@@ -41,8 +42,11 @@ import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 
 import static nl.basjes.parse.useragent.analyze.NumberRangeVisitor.NUMBER_RANGE_VISITOR;
@@ -52,18 +56,106 @@ public class ActionBuilder {
 
     private static final String AGENT = "agent";
 
-    private final Map<String, Map<String, String>> lookups = new HashMap<>(128);
+    private final Map<String, Map<String, String>> lookups;
 
+    // All identical walkLists are shared (also by the children that build in parallel).
+    private final ConcurrentMap<String, WalkList> walkLists;
 
-    public Map<String, Collection<MatcherAction>> informMatcherActions = new HashMap<>();
-    public Map<String, Set<WordRangeVisitor.Range>> informMatcherActionRanges = new HashMap<>();
+
+    // Only used while building; the analyzer itself only uses the InformPathTrie created from these.
+    private final Map<String, Collection<MatcherAction>> informMatcherActions = new HashMap<>();
+    private final Map<String, Set<WordRangeVisitor.Range>> informMatcherActionRanges = new HashMap<>();
+
+    public ActionBuilder() {
+        this(new HashMap<>(128), new ConcurrentHashMap<>(16384));
+    }
+
+    private ActionBuilder(Map<String, Map<String, String>> lookups, ConcurrentMap<String, WalkList> walkLists) {
+        this.lookups = lookups;
+        this.walkLists = walkLists;
+    }
+
+    /**
+     * Creates an ActionBuilder that uses the same lookups yet registers the actions in its own maps.
+     * This makes it possible to build matchers in parallel (one child per thread).
+     * NOTE: The lookups must not be changed while the child is in use.
+     * @return The new child ActionBuilder.
+     */
+    public ActionBuilder newChild() {
+        return new ActionBuilder(lookups, walkLists);
+    }
+
+    /**
+     * Adds all registrations of the child to this ActionBuilder.
+     * The actions are appended so merging the children in the order in which the matchers
+     * would have been created sequentially results in exactly the same registrations.
+     * @param child The ActionBuilder (created via newChild()) to merge into this one.
+     */
+    public void merge(ActionBuilder child) {
+        for (Map.Entry<String, Collection<MatcherAction>> entry : child.informMatcherActions.entrySet()) {
+            informMatcherActions.computeIfAbsent(entry.getKey(), k -> new ArrayDeque<>()).addAll(entry.getValue());
+        }
+        for (Map.Entry<String, Set<WordRangeVisitor.Range>> entry : child.informMatcherActionRanges.entrySet()) {
+            informMatcherActionRanges.computeIfAbsent(entry.getKey(), k -> new HashSet<>(4)).addAll(entry.getValue());
+        }
+    }
+
+    /**
+     * @return A prefix trie of all the paths (and ranges) the matchers want to be informed about.
+     */
+    public InformPathTrie createInformPathTrie() {
+        InformPathTrie trie = new InformPathTrie();
+        informMatcherActions.forEach(trie::addActions);
+        informMatcherActionRanges.forEach(trie::addRanges);
+        trie.freeze();
+        return trie;
+    }
+
+    public int getInformMatcherActionsSize() {
+        return informMatcherActions.size();
+    }
+
+    public int getInformMatcherActionRangesSize() {
+        return informMatcherActionRanges.size();
+    }
 
     public int getLookupSize() {
         return lookups.size();
     }
 
+    public int getWalkListsSize() {
+        return walkLists.size();
+    }
+
     public void addLookup(String name, Map<String, String> map) {
-        lookups.put(name, map);
+        // All StepLookups that use this lookup share the same case insensitive version of it.
+        lookups.put(name, CaseInsensitiveLookup.of(map));
+    }
+
+    /**
+     * The walkLists that are shared by several actions and that actually walk the tree get a memo id.
+     * The results of these are memoized during a parse so each one is done only once
+     * for the same node and value (see MatchArena.walk).
+     * @param matchers All matchers.
+     * @return The number of memo ids that were assigned.
+     */
+    public static int assignMemoIds(Collection<Matcher> matchers) {
+        Map<WalkList, Integer> uses = new IdentityHashMap<>();
+        for (Matcher matcher : matchers) {
+            for (MatcherAction action : matcher.dynamicActions) {
+                uses.merge(action.walkList, 1, Integer::sum);
+            }
+        }
+        int memoId = 0;
+        for (Matcher matcher : matchers) {
+            for (MatcherAction action : matcher.dynamicActions) {
+                WalkList walkList = action.walkList;
+                if (walkList.getMemoId() == WalkList.NO_MEMO && uses.get(walkList) > 1 && walkList.walksTheTree()) {
+                    walkList.setMemoId(memoId++);
+                }
+            }
+        }
+        return memoId;
     }
 
     interface Build<T> {
@@ -71,7 +163,11 @@ public class ActionBuilder {
     }
 
     private <T extends MatcherAction> T build(String matchExpression, ParserRuleContext pattern, Build<T> buildFunc) {
-        WalkList walkList = new WalkList(pattern, lookups);
+        WalkList newWalkList = new WalkList(pattern, lookups);
+        WalkList walkList = walkLists.putIfAbsent(newWalkList.getCanonicalForm(), newWalkList);
+        if (walkList == null) {
+            walkList = newWalkList;
+        }
         String fixedValue = isFixedValue(pattern, lookups);
         T action =  buildFunc.build(matchExpression, walkList, fixedValue);
         if (fixedValue == null) registerPattern(pattern, action);
@@ -0,0 +1,343 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveLookup;
+import nl.basjes.parse.useragent.utils.Digits;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A prefix trie of all the paths any of the matchers can be informed about.
+ * Each path is identified by an integer id and the id of a child is found by the id of the parent,
+ * the name of the step (like "product") and the index of that step (the 2 in "(2)product").
+ * The word ranges (like "[1-2]") are a separate kind of step.
+ * If a path is not in this trie then no matcher is interested in it or in anything below it.
+ * <p>
+ * For each path it also holds the actions that must be informed (for any value and for a specific value).
+ * The path as a String is only created when asked for (i.e. for debugging).
+ */
+public final class InformPathTrie implements Serializable {
+
+    /**
+     * The id of a path that is not in this trie.
+     */
+    public static final int NONE = -1;
+
+    /**
+     * The id of the (empty) path above everything. The first step (i.e. "agent") has index 0.
+     */
+    public static final int ROOT = 0;
+
+    private static final MatcherAction[] NO_ACTIONS = new MatcherAction[0];
+    private static final Range[]         NO_RANGES  = new Range[0];
+
+    private static final Pattern STEP_PATTERN = Pattern.compile("^(?:\\((\\d+)\\))?([^\\[]*)(?:\\[(\\d+)-(-?\\d+)])?$");
+
+    private static final class Node implements Serializable {
+        final int id;
+        final Node parent;
+        // The text of the last step: "agent", "(1)product" or "[1-2]"
+        final String step;
+
+        // Per name of the step the children (by index of the step).
+        // After the trie has been frozen these can no longer be changed.
+        Map<String, int[]> children = new HashMap<>();
+        Map<Range, Integer> rangeChildren = new HashMap<>();
+
+        // The word ranges of this path that are needed by the matchers.
+        Range[] ranges = NO_RANGES;
+
+        MatcherAction[] actions = NO_ACTIONS;
+        // During the build a HashMap with lowercase keys, after that a CaseInsensitiveLookup.
+        Map<String, MatcherAction[]> valueActions = null;
+        // The shapes (see Digits.shapeOf) of the specific values with a digit in it (or null if there are none).
+        Map<String, String> digitValueShapes = null;
+
+        Node(int id, Node parent, String step) {
+            this.id = id;
+            this.parent = parent;
+            this.step = step;
+        }
+    }
+
+    private final List<Node> nodes = new ArrayList<>();
+    private boolean frozen = false;
+
+    public InformPathTrie() {
+        nodes.add(new Node(ROOT, null, ""));
+    }
+
+    // ==========================================================================================
+    // Building the trie
+
+    private Node getOrCreateChild(Node parent, String name, int index) {
+        int[] ids = parent.children.get(name);
+        if (ids == null || ids.length <= index) {
+            int oldLength = ids == null ? 0 : ids.length;
+            ids = ids == null ? new int[index + 1] : Arrays.copyOf(ids, index + 1);
+            Arrays.fill(ids, oldLength, ids.length, NONE);
+            parent.children.put(name, ids);
+        }
+        if (ids[index] == NONE) {
+            Node child = new Node(nodes.size(), parent, parent.id == ROOT ? name : "(" + index + ")" + name);
+            nodes.add(child);
+            ids[index] = child.id;
+        }
+        return nodes.get(ids[index]);
+    }
+
+    private Node getOrCreateRangeChild(Node parent, Range range) {
+        Integer id = parent.rangeChildren.get(range);
+        if (id == null) {
+            Node child = new Node(nodes.size(), parent, "[" + range.getFirst() + "-" + range.getLast() + "]");
+            nodes.add(child);
+            parent.rangeChildren.put(range, child.id);
+            return child;
+        }
+        return nodes.get(id);
+    }
+
+    private Node getOrCreate(String path) {
+        if (frozen) {
+            throw new IllegalStateException("Unable to add \"" + path + "\" because the InformPathTrie is frozen");
+        }
+        Node node = nodes.get(ROOT);
+        for (String step : path.toLowerCase(Locale.ENGLISH).split("\\.")) {
+            java.util.regex.Matcher stepMatcher = STEP_PATTERN.matcher(step);
+            if (!stepMatcher.matches()) {
+                throw new InvalidParserConfigurationException("Unable to parse the step \"" + step + "\" of \"" + path + "\"");
+            }
+            int index = stepMatcher.group(1) == null ? 0 : Integer.parseInt(stepMatcher.group(1));
+            node = getOrCreateChild(node, stepMatcher.group(2), index);
+            if (stepMatcher.group(3) != null) {
+                Range range = new Range(Integer.parseInt(stepMatcher.group(3)), Integer.parseInt(stepMatcher.group(4)));
+                node = getOrCreateRangeChild(node, range);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Register a path (and with that all of its prefixes).
+     * @param path The path as used to register the matcher actions (optionally with a ="value" at the end).
+     * @return The id of the path (without the value)
+     */
+    public int add(String path) {
+        // The value itself can contain any character (including the '.')
+        int valueStart = path.indexOf("=\"");
+        if (valueStart != -1) {
+            return getOrCreate(path.substring(0, valueStart)).id;
+        }
+        return getOrCreate(path).id;
+    }
+
+    /**
+     * Register the actions that must be informed about a path.
+     * @param path The path as used to register the matcher actions (optionally with a ="value" at the end).
+     * @param actions The actions (in the order in which they must be informed).
+     */
+    public void addActions(String path, Collection<MatcherAction> actions) {
+        Node node = nodes.get(add(path));
+        MatcherAction[] newActions = actions.toArray(new MatcherAction[actions.size()]);
+
+        int valueStart = path.indexOf("=\"");
+        if (valueStart == -1) {
+            node.actions = concat(node.actions, newActions);
+            return;
+        }
+
+        String value = path.substring(valueStart + 2, path.length() - 1).toLowerCase(Locale.ENGLISH);
+        if (node.valueActions == null) {
+            node.valueActions = new HashMap<>();
+        }
+        node.valueActions.merge(value, newActions, InformPathTrie::concat);
+    }
+
+    /**
+     * Prepares the trie for fast use; must be called after all actions have been added.
+     * After this the trie can no longer be changed so it can be used by all threads at the same time.
+     */
+    public void freeze() {
+        if (frozen) {
+            return;
+        }
+        frozen = true;
+        for (Node node: nodes) {
+            node.children = node.children.isEmpty() ?
+                Collections.emptyMap() : Collections.unmodifiableMap(node.children);
+            node.rangeChildren = node.rangeChildren.isEmpty() ?
+                Collections.emptyMap() : Collections.unmodifiableMap(node.rangeChildren);
+            if (node.valueActions != null) {
+                node.valueActions = CaseInsensitiveLookup.of(node.valueActions);
+                Map<String, String> shapes = node.valueActions.keySet().stream()
+                    .filter(Digits::containsDigit)
+                    .collect(Collectors.toMap(Digits::shapeOf, value -> value, (value1, value2) -> value1));
+                if (!shapes.isEmpty()) {
+                    node.digitValueShapes = CaseInsensitiveLookup.of(shapes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Register the word ranges of a path that are needed.
+     * @param path The path (without the range)
+     * @param ranges The needed ranges
+     */
+    public void addRanges(String path, Collection<Range> ranges) {
+        Node node = nodes.get(add(path));
+        LinkedHashMap<Range, Range> allRanges = new LinkedHashMap<>();
+        for (Range range : node.ranges) {
+            allRanges.put(range, range);
+        }
+        for (Range range: ranges) {
+            allRanges.put(range, range);
+            getOrCreateRangeChild(node, range);
+        }
+        node.ranges = allRanges.keySet().toArray(new Range[allRanges.size()]);
+    }
+
+    private static MatcherAction[] concat(MatcherAction[] first, MatcherAction[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        MatcherAction[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    // ==========================================================================================
+    // Using the trie
+
+    /**
+     * @param parentId The id of the parent path
+     * @param name The (lowercase) name of the step (i.e. "product").
+     * @param index The index of the step (i.e. the 2 in "(2)product"). For the first step this must be 0.
+     * @return The id of the child or NONE if nothing is registered under it.
+     */
+    public int getChild(int parentId, String name, long index) {
+        if (parentId == NONE) {
+            return NONE;
+        }
+        int[] ids = nodes.get(parentId).children.get(name);
+        if (ids == null || index >= ids.length) {
+            return NONE;
+        }
+        return ids[(int) index];
+    }
+
+    /**
+     * @param parentId The id of the parent path
+     * @param range The word range
+     * @return The id of the child or NONE if nothing is registered under it.
+     */
+    public int getRangeChild(int parentId, Range range) {
+        if (parentId == NONE) {
+            return NONE;
+        }
+        Integer id = nodes.get(parentId).rangeChildren.get(range);
+        return id == null ? NONE : id;
+    }
+
+    /**
+     * @param id The id of the path
+     * @return The word ranges of this path that are needed.
+     */
+    public Range[] getRanges(int id) {
+        return nodes.get(id).ranges;
+    }
+
+    /**
+     * @param id The id of the path
+     * @return The actions that must be informed about this path (regardless of the value)
+     */
+    public MatcherAction[] getActions(int id) {
+        return nodes.get(id).actions;
+    }
+
+    /**
+     * @param id The id of the path
+     * @return If there are actions for a specific value of this path.
+     */
+    public boolean hasValueActions(int id) {
+        return nodes.get(id).valueActions != null;
+    }
+
+    /**
+     * @param id The id of the path
+     * @param value The value (in any case)
+     * @return If with only other digits in the value other actions for a specific value could be triggered.
+     */
+    public boolean valueActionsDependOnDigits(int id, String value) {
+        Map<String, String> shapes = nodes.get(id).digitValueShapes;
+        return shapes != null && Digits.containsDigit(value) && shapes.containsKey(Digits.shapeOf(value));
+    }
+
+    /**
+     * @param id The id of the path
+     * @param value The value (in any case)
+     * @return The actions that must be informed about this path with this value.
+     */
+    public MatcherAction[] getValueActions(int id, String value) {
+        Map<String, MatcherAction[]> valueActions = nodes.get(id).valueActions;
+        if (valueActions == null) {
+            return NO_ACTIONS;
+        }
+        MatcherAction[] actions = valueActions.get(value);
+        return actions == null ? NO_ACTIONS : actions;
+    }
+
+    /**
+     * @param id The id of the path
+     * @return The path as a string (i.e. "agent.(1)product.(2)name[1-2]"). Only intended for debugging.
+     */
+    public String getPath(int id) {
+        if (id == NONE) {
+            return null;
+        }
+        Node node = nodes.get(id);
+        if (node.parent == null) {
+            return "";
+        }
+        if (node.parent.id == ROOT) {
+            return node.step;
+        }
+        String parentPath = getPath(node.parent.id);
+        return node.step.startsWith("[") ? parentPath + node.step : parentPath + '.' + node.step;
+    }
+
+    /**
+     * @return The number of paths in this trie (including the root).
+     */
+    public int size() {
+        return nodes.size();
+    }
+}
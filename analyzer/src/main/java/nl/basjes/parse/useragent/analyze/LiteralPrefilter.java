@@ -0,0 +1,133 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.utils.AhoCorasick;
+import nl.basjes.parse.useragent.utils.Digits;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Many matchers require a literal (like the "Chrome" in agent.product.name~"Chrome") that must be present
+ * somewhere in the useragent for them to ever produce a result.
+ * All these literals are found with a single pass over the useragent and the matchers of which a required
+ * literal is absent are rejected before any tree walking is done.
+ */
+public final class LiteralPrefilter implements Serializable {
+
+    private static final int[] NO_LITERALS = new int[0];
+
+    private final AhoCorasick automaton;
+    // Per matcher (by index) the ids of the literals it requires.
+    private final int[][] requiredLiterals;
+    // Per literal (by id) the shape (see Digits.shapeOf) if it contains a digit, else null.
+    private final String[] digitLiteralShapes;
+
+    /**
+     * @param matchers All matchers; the index of each matcher must already have been set.
+     */
+    public LiteralPrefilter(Matcher[] matchers) {
+        Map<String, Integer> literalIds = new LinkedHashMap<>();
+        requiredLiterals = new int[matchers.length][];
+        for (Matcher matcher : matchers) {
+            int[] ids = NO_LITERALS;
+            // These are also evaluated when nothing was informed (i.e. the verbose ones that log why they fail).
+            if (!matcher.mustAlwaysBeEvaluated()) {
+                ids = getRequiredLiteralIds(matcher, literalIds);
+            }
+            requiredLiterals[matcher.getIndex()] = ids;
+        }
+        automaton = new AhoCorasick(new ArrayList<>(literalIds.keySet()));
+        digitLiteralShapes = new String[literalIds.size()];
+        literalIds.forEach((literal, id) ->
+            digitLiteralShapes[id] = Digits.containsDigit(literal) ? Digits.shapeOf(literal) : null);
+    }
+
+    private static int[] getRequiredLiteralIds(Matcher matcher, Map<String, Integer> literalIds) {
+        BitSet ids = new BitSet();
+        for (MatcherAction action : matcher.dynamicActions) {
+            if (action.usesIsNull) {
+                continue;
+            }
+            for (String literal : action.walkList.getRequiredLiterals()) {
+                ids.set(literalIds.computeIfAbsent(literal, l -> literalIds.size()));
+            }
+        }
+        return ids.isEmpty() ? NO_LITERALS : ids.stream().toArray();
+    }
+
+    /**
+     * @param userAgent The useragent exactly as it is parsed (i.e. after the manual fixes).
+     * @param found The ids of all literals that occur in the useragent are set in here.
+     */
+    public void findLiterals(String userAgent, BitSet found) {
+        automaton.findAll(userAgent, found);
+    }
+
+    /**
+     * @param matcherIndex The index of the matcher.
+     * @param found The literals that were found in the useragent.
+     * @return false if the matcher can never produce a result because a literal it requires was not found.
+     */
+    public boolean canMatch(int matcherIndex, BitSet found) {
+        for (int id : requiredLiterals[matcherIndex]) {
+            if (!found.get(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param matcherIndex The index of a matcher that cannot match (see canMatch).
+     * @param found The literals that were found in the useragent.
+     * @return true if all the missing literals contain a digit (i.e. with other digits the matcher could match).
+     */
+    public boolean rejectionDependsOnDigits(int matcherIndex, BitSet found) {
+        for (int id : requiredLiterals[matcherIndex]) {
+            if (!found.get(id) && digitLiteralShapes[id] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param matcherIndex The index of a matcher of which the rejection depends on digits (see rejectionDependsOnDigits).
+     * @param found The literals that were found in the useragent.
+     * @return The shapes (see Digits.shapeOf) of the required literals that were not found.
+     */
+    public List<String> getMissingLiteralShapes(int matcherIndex, BitSet found) {
+        List<String> shapes = new ArrayList<>();
+        for (int id : requiredLiterals[matcherIndex]) {
+            if (!found.get(id)) {
+                shapes.add(digitLiteralShapes[id]);
+            }
+        }
+        return shapes;
+    }
+
+    public int getNumberOfLiterals() {
+        return automaton.getNumberOfNeedles();
+    }
+}
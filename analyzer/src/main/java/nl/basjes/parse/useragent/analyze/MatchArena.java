@@ -0,0 +1,311 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext;
+import nl.basjes.parse.useragent.utils.Digits;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * All the matches that were found during a single parse, stored per MatcherAction (using the dense action id).
+ * The intended use is to have one instance per thread that is reused (reset) for every parse so that
+ * collecting the matches does not allocate anything.
+ * This class is NOT threadsafe.
+ */
+public final class MatchArena {
+    public static final int NONE = -1;
+
+    // Per action id: the first and last slot with a match for that action (or NONE).
+    private final int[] firstSlot;
+    private final int[] lastSlot;
+
+    // Only needed to turn the path ids back into strings.
+    private final InformPathTrie informPathTrie;
+
+    // Per slot: the next slot for the same action (or NONE) and the match itself.
+    private int[]       nextSlot;
+    private int[]       pathIds;
+    private String[]    values;
+    private ParseTree[] results;
+    private int         usedSlots = 0;
+
+    // The actions that received at least one match (in the order in which they were first informed).
+    private MatcherAction[] informedActions;
+    private int             informedActionsCount = 0;
+
+    // The memoized results of the shared walkLists: open addressing on (memoId, tree, value).
+    private int[]       memoIds;
+    private ParseTree[] memoTrees;
+    private String[]    memoValues;
+    private String[]    memoResults;
+    private int[]       memoUsedSlots;
+    private int         memoUsed = 0;
+
+    // The ids of the literals (see LiteralPrefilter) that occur in the useragent.
+    private final BitSet foundLiterals = new BitSet();
+    // The indexes of the matchers that must be evaluated.
+    private final BitSet candidates = new BitSet();
+
+    // Needed to determine if the outcome of this parse can be reused for a useragent with other digits.
+    private ParseTree parseTree = null;
+    // The matchers that were only rejected by the LiteralPrefilter because of missing literals with a digit.
+    private final BitSet rejectedOnDigits = new BitSet();
+    // The extracted values (with a digit) that are constants (like the result of a LookUp).
+    private final List<String> fixedValues = new ArrayList<>();
+    // The extracted values (with a digit) of which it is unknown where they came from.
+    private final List<String> untraceableValues = new ArrayList<>();
+
+    public MatchArena(int numberOfActions, InformPathTrie informPathTrie) {
+        this.informPathTrie = informPathTrie;
+        firstSlot = new int[numberOfActions];
+        lastSlot = new int[numberOfActions];
+        Arrays.fill(firstSlot, NONE);
+        Arrays.fill(lastSlot, NONE);
+
+        int initialSlots = 256;
+        nextSlot = new int[initialSlots];
+        pathIds  = new int[initialSlots];
+        values   = new String[initialSlots];
+        results  = new ParseTree[initialSlots];
+        informedActions = new MatcherAction[64];
+
+        initializeMemo(1024);
+    }
+
+    private void initializeMemo(int capacity) {
+        memoIds       = new int[capacity];
+        memoTrees     = new ParseTree[capacity];
+        memoValues    = new String[capacity];
+        memoResults   = new String[capacity];
+        memoUsedSlots = new int[capacity / 2];
+        Arrays.fill(memoIds, NONE);
+        memoUsed = 0;
+    }
+
+    /**
+     * Forget all matches so this instance can be used for the next parse.
+     */
+    public void reset() {
+        for (int i = 0; i < informedActionsCount; i++) {
+            int actionId = informedActions[i].getId();
+            firstSlot[actionId] = NONE;
+            lastSlot[actionId] = NONE;
+            informedActions[i] = null;
+        }
+        informedActionsCount = 0;
+
+        // Do not retain the parse tree of the previous parse.
+        Arrays.fill(values, 0, usedSlots, null);
+        Arrays.fill(results, 0, usedSlots, null);
+        usedSlots = 0;
+
+        for (int i = 0; i < memoUsed; i++) {
+            int slot = memoUsedSlots[i];
+            memoIds[slot] = NONE;
+            memoTrees[slot] = null;
+            memoValues[slot] = null;
+            memoResults[slot] = null;
+        }
+        memoUsed = 0;
+
+        foundLiterals.clear();
+        candidates.clear();
+
+        parseTree = null;
+        rejectedOnDigits.clear();
+        fixedValues.clear();
+        untraceableValues.clear();
+    }
+
+    /**
+     * Walk the walkList starting at the tree with the value.
+     * If the walkList is shared by several actions (i.e. it has a memoId) the result is remembered
+     * for the rest of this parse so the same walk is done only once.
+     * @param walkList The walkList
+     * @param tree The node where the walk starts
+     * @param value The value at the start of the walk
+     * @return The result of walkList.walk(tree, value)
+     */
+    public String walk(WalkList walkList, ParseTree tree, String value) {
+        int memoId = walkList.getMemoId();
+        if (memoId == WalkList.NO_MEMO) {
+            return walkList.walk(tree, value);
+        }
+
+        int mask = memoIds.length - 1;
+        int hash = 31 * (31 * memoId + System.identityHashCode(tree)) + (value == null ? 0 : value.hashCode());
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (memoIds[slot] != NONE) {
+            // The values are the instances that were informed so comparing the references is enough.
+            if (memoIds[slot] == memoId && memoTrees[slot] == tree && memoValues[slot] == value) {
+                return memoResults[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String result = walkList.walk(tree, value);
+        if (memoUsed == memoUsedSlots.length) {
+            // Simply start over with a bigger table (only the memoized results of this parse are lost).
+            initializeMemo(memoIds.length * 2);
+            return result;
+        }
+        memoIds[slot]     = memoId;
+        memoTrees[slot]   = tree;
+        memoValues[slot]  = value;
+        memoResults[slot] = result;
+        memoUsedSlots[memoUsed++] = slot;
+        return result;
+    }
+
+    public void add(MatcherAction action, int pathId, String value, ParseTree result) {
+        if (usedSlots == nextSlot.length) {
+            int newSize = nextSlot.length * 2;
+            nextSlot = Arrays.copyOf(nextSlot, newSize);
+            pathIds  = Arrays.copyOf(pathIds, newSize);
+            values   = Arrays.copyOf(values, newSize);
+            results  = Arrays.copyOf(results, newSize);
+        }
+        int slot = usedSlots++;
+        nextSlot[slot] = NONE;
+        pathIds[slot]  = pathId;
+        values[slot]   = value;
+        results[slot]  = result;
+
+        int actionId = action.getId();
+        if (firstSlot[actionId] == NONE) {
+            firstSlot[actionId] = slot;
+            if (informedActionsCount == informedActions.length) {
+                informedActions = Arrays.copyOf(informedActions, informedActions.length * 2);
+            }
+            informedActions[informedActionsCount++] = action;
+        } else {
+            nextSlot[lastSlot[actionId]] = slot;
+        }
+        lastSlot[actionId] = slot;
+    }
+
+    public boolean isEmpty(MatcherAction action) {
+        return firstSlot[action.getId()] == NONE;
+    }
+
+    /**
+     * @return The first slot for this action or NONE if there are no matches.
+     */
+    public int firstSlot(MatcherAction action) {
+        return firstSlot[action.getId()];
+    }
+
+    /**
+     * @return The next slot for the same action or NONE if there are no more matches.
+     */
+    public int nextSlot(int slot) {
+        return nextSlot[slot];
+    }
+
+    public int getPathId(int slot) {
+        return pathIds[slot];
+    }
+
+    /**
+     * @return The path of the match as a string. This is relatively expensive and only intended for debugging.
+     */
+    public String getKey(int slot) {
+        return informPathTrie.getPath(pathIds[slot]);
+    }
+
+    public String getValue(int slot) {
+        return values[slot];
+    }
+
+    public ParseTree getResult(int slot) {
+        return results[slot];
+    }
+
+    public BitSet getFoundLiterals() {
+        return foundLiterals;
+    }
+
+    /**
+     * @return The (initially empty) set of the indexes of the matchers that must be evaluated during this parse.
+     */
+    public BitSet getCandidates() {
+        return candidates;
+    }
+
+    public int getNumberOfInformedActions() {
+        return informedActionsCount;
+    }
+
+    public MatcherAction getInformedAction(int index) {
+        return informedActions[index];
+    }
+
+    public void setParseTree(ParseTree newParseTree) {
+        parseTree = newParseTree;
+    }
+
+    /**
+     * @return The (start, stop) character ranges in the useragent with digits that could change the outcome
+     * of this parse (see CachingParserRuleContext.digitsInspected) or null if this is unknown.
+     */
+    public int[] getInspectedRanges() {
+        return parseTree instanceof CachingParserRuleContext ?
+            ((CachingParserRuleContext) parseTree).getInspectedRanges() : null;
+    }
+
+    /**
+     * @return The matchers that were only rejected because of missing literals with a digit.
+     */
+    public BitSet getRejectedOnDigits() {
+        return rejectedOnDigits;
+    }
+
+    /**
+     * Record an extracted value that is a constant (like the result of a LookUp or a fixed value).
+     * @param value The value (only the ones with a digit are retained)
+     */
+    public void addFixedValue(String value) {
+        if (Digits.containsDigit(value)) {
+            fixedValues.add(value);
+        }
+    }
+
+    public boolean isFixedValue(String value) {
+        return fixedValues.contains(value);
+    }
+
+    /**
+     * Record an extracted value of which it is unknown if it is a literal part of the useragent.
+     * @param value The value (only the ones with a digit are retained)
+     */
+    public void addUntraceableValue(String value) {
+        if (Digits.containsDigit(value)) {
+            untraceableValues.add(value);
+        }
+    }
+
+    public boolean isUntraceableValue(String value) {
+        return untraceableValues.contains(value);
+    }
+}
@@ -26,22 +26,16 @@ import org.yaml.snakeyaml.nodes.NodeTuple;
 
 import java.io.Serializable;
 import java.util.ArrayDeque;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
-import static java.util.Collections.emptyList;
 import static nl.basjes.parse.useragent.UserAgent.SET_ALL_FIELDS;
 import static nl.basjes.parse.useragent.utils.YamlUtils.getKeyAsString;
 
 public class Matcher implements Serializable {
     private static final Logger LOG = LogManager.getLogger(Matcher.class);
 
-    private static final Collection<MatcherAction.Match> EMPTY_FALLBACK = emptyList();
-
     public final MatcherAction[] dynamicActions;
     private final AgentField[] fixedValues;
 
@@ -50,6 +44,12 @@ public class Matcher implements Serializable {
 
     private final boolean verbose;
 
+    // The position of this matcher in the list of all matchers of the analyzer.
+    private int index = -1;
+
+    // Set when the analyzer is frozen; after that the matcher can no longer be changed.
+    private transient boolean frozen = false;
+
     private static class ConfigLine {
         String attribute;
         Long confidence;
@@ -164,9 +164,79 @@ public class Matcher implements Serializable {
 
         dynamicActions = tmpdynamicActions.toArray(new MatcherAction[tmpdynamicActions.size()]);
         fixedValues = tmpFixedValues.toArray(new AgentField[tmpFixedValues.size()]);
+        for (MatcherAction action : dynamicActions) {
+            action.setMatcher(this);
+        }
         if (verbose) LOG.info("---------------------------");
     }
 
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int newIndex) {
+        checkNotFrozen();
+        index = newIndex;
+    }
+
+    /**
+     * After this the index and the walkLists of this matcher can no longer be changed.
+     */
+    public void freeze() {
+        for (MatcherAction action : dynamicActions) {
+            action.walkList.freeze();
+        }
+        frozen = true;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Unable to change a frozen Matcher (" + filename + ")");
+        }
+    }
+
+    /**
+     * A matcher can only succeed if all of its actions that do not use IsNull have been informed.
+     * So a matcher that has none of those must be evaluated for every useragent; all others only need
+     * to be evaluated if at least one of their actions was informed.
+     * Verbose matchers are always evaluated to retain their logging.
+     * @return true if this matcher must always be evaluated.
+     */
+    public boolean mustAlwaysBeEvaluated() {
+        if (verbose) {
+            return true;
+        }
+        for (MatcherAction action : dynamicActions) {
+            if (!action.usesIsNull) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Give all dynamic actions of this matcher a dense id.
+     * @param firstActionId The id of the first action
+     * @return The id the first action of the next matcher must get.
+     */
+    public int assignActionIds(int firstActionId) {
+        int actionId = firstActionId;
+        for (MatcherAction action : dynamicActions) {
+            action.setId(actionId++);
+        }
+        return actionId;
+    }
+
+    /**
+     * @param compile Compile the walkLists of all actions (true) or interpret them (false).
+     */
+    public void setCompiledWalkLists(boolean compile) {
+        checkNotFrozen();
+        for (MatcherAction action : dynamicActions) {
+            action.walkList.setCompiled(compile);
+        }
+    }
+
     public Set<String> getAllPossibleFieldNames() {
         Set<String> results = new TreeSet<>();
         results.addAll(getAllPossibleFieldNames(dynamicActions));
@@ -194,27 +264,32 @@ public class Matcher implements Serializable {
      *
      * @param setter set matches will be set here.
      */
-    public final void analyze(FieldSetter setter, Map<MatcherAction, Collection<MatcherAction.Match>> matches) {
+    public final void analyze(FieldSetter setter, MatchArena matches) {
         if (isVerbose()) {
             analyzeWithLogging(setter, matches);
             return;
         }
 
         for (MatcherAction action : dynamicActions) {
-            if (action.notValid(matches.getOrDefault(action, EMPTY_FALLBACK))) return;
+            if (action.notValid(matches)) return;
         }
 
         ArrayDeque<AgentField> values = new ArrayDeque<>();
         for (MatcherAction action : dynamicActions) {
-            String value = action.obtainResult(matches.getOrDefault(action, EMPTY_FALLBACK));
+            String value = action.obtainResult(matches);
             if (value == null) return; // If one of them is bad we skip the rest
             if(action instanceof MatcherExtractAction) {
                 MatcherExtractAction me = (MatcherExtractAction) action;
                 values.add(new AgentField(me.attribute, value, me.confidence));
+                if (me.resultIsFixed) {
+                    matches.addFixedValue(value);
+                } else if (!me.resultIsSourceText) {
+                    matches.addUntraceableValue(value);
+                }
             }
         }
 
-        Collections.addAll(values, fixedValues);
+        addFixedValues(values, matches);
         setter.set(values);
     }
 
@@ -222,10 +297,10 @@ public class Matcher implements Serializable {
         return verbose || LOG.isDebugEnabled();
     }
 
-    private void analyzeWithLogging(FieldSetter setter, Map<MatcherAction, Collection<MatcherAction.Match>> matches) {
+    private void analyzeWithLogging(FieldSetter setter, MatchArena matches) {
         boolean failing = false;
         for (MatcherAction action : dynamicActions) {
-            if (action.notValid(matches.getOrDefault(action, EMPTY_FALLBACK))) {
+            if (action.notValid(matches)) {
                 failing = true;
                 LOG.error("CANNOT BE VALID : {}", action.matchExpression);
             }
@@ -233,7 +308,7 @@ public class Matcher implements Serializable {
 
         ArrayDeque<AgentField> values = new ArrayDeque<>();
         for (MatcherAction action : dynamicActions) {
-            String value = action.obtainResult(matches.getOrDefault(action, EMPTY_FALLBACK));
+            String value = action.obtainResult(matches);
             if (value == null) {
                 LOG.error("FAILED : {}", action.matchExpression);
                 failing = true;
@@ -241,17 +316,29 @@ public class Matcher implements Serializable {
             if (!failing && action instanceof MatcherExtractAction) {
                 MatcherExtractAction me = (MatcherExtractAction) action;
                 values.add(new AgentField(me.attribute, value, me.confidence));
+                if (me.resultIsFixed) {
+                    matches.addFixedValue(value);
+                } else if (!me.resultIsSourceText) {
+                    matches.addUntraceableValue(value);
+                }
             }
         }
         if (failing) {
             LOG.info("INCOMPLETE ----------------------------");
             return;
         }
-        Collections.addAll(values, fixedValues);
+        addFixedValues(values, matches);
         LOG.info("COMPLETE ----------------------------");
         setter.set(values);
     }
 
+    private void addFixedValues(ArrayDeque<AgentField> values, MatchArena matches) {
+        for (AgentField fixedValue : fixedValues) {
+            values.add(fixedValue);
+            matches.addFixedValue(fixedValue.value);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(512);
@@ -24,27 +24,16 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Serializable;
-import java.util.Collection;
 
 public abstract class MatcherAction implements Serializable {
 
     final String matchExpression;
     final WalkList walkList;
+    private Matcher matcher;
+    private int id = -1;
 
     private static final Logger LOG = LogManager.getLogger(MatcherAction.class);
 
-    public static class Match {
-        public final String key;
-        public final String value;
-        public final ParseTree result;
-
-        public Match(String key, String value, ParseTree result) {
-            this.key = key;
-            this.value = value;
-            this.result = result;
-        }
-    }
-
     final boolean usesIsNull;
 
     MatcherAction(String matchExpression, WalkList walkList) {
@@ -54,34 +43,55 @@ public abstract class MatcherAction implements Serializable {
     }
 
 
+    void setMatcher(Matcher newMatcher) {
+        this.matcher = newMatcher;
+    }
+
+    /**
+     * @return The matcher this action is a part of.
+     */
+    public Matcher getMatcher() {
+        return matcher;
+    }
+
+    void setId(int newId) {
+        this.id = newId;
+    }
+
+    /**
+     * @return The dense (0..number of actions) id of this action within the analyzer.
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * @return If it is impossible that this can be valid it returns true, else false.
      */
-    public abstract boolean notValid(Collection<Match> matches);
+    public abstract boolean notValid(MatchArena matches);
 
     /**
      * Called after all nodes have been notified.
      *
      * @return the value if the obtainResult result was valid. null will fail the entire matcher this belongs to.
      */
-    public abstract String obtainResult(Collection<Match> matches);
+    public abstract String obtainResult(MatchArena matches);
 
     /**
      * Optimization: Only if there is a possibility that all actions for this matcher CAN be valid do we
      * actually perform the analysis and do the (expensive) tree walking and matching.
      */
-    String processInformedMatches(Collection<Match> matches) {
-        for (Match match : matches) {
-            String matchedValue = evaluate(match.result, match.key, match.value);
+    String processInformedMatches(MatchArena matches) {
+        for (int slot = matches.firstSlot(this); slot != MatchArena.NONE; slot = matches.nextSlot(slot)) {
+            String matchedValue = LOG.isDebugEnabled()
+                ? evaluate(matches.getResult(slot), matches.getKey(slot), matches.getValue(slot))
+                : matches.walk(walkList, matches.getResult(slot), matches.getValue(slot));
             if (matchedValue != null) return matchedValue;
         }
         return null;
     }
 
     private String evaluate(ParseTree tree, String key, String value) {
-        if(!LOG.isDebugEnabled())
-            return walkList.walk(tree, value);
-
         LOG.debug("Evaluate: {} => {}", key, value);
         //LOG.debug("Pattern : {}", requiredPattern.getText());
         LOG.debug("WalkList: {}", walkList.toString());
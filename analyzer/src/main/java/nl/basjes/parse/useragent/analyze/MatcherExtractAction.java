@@ -19,13 +19,14 @@ package nl.basjes.parse.useragent.analyze;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList;
 
-import java.util.Collection;
-
 public final class MatcherExtractAction extends MatcherAction {
 
     final String attribute;
     final long confidence;
     final String fixedValue;
+    // Is the result always a constant or always a (cleaned up) literal part of the useragent?
+    final boolean resultIsFixed;
+    final boolean resultIsSourceText;
 
 
     MatcherExtractAction(String attribute, long confidence, String config, WalkList walkList, String fixedValue) {
@@ -33,16 +34,18 @@ public final class MatcherExtractAction extends MatcherAction {
         this.attribute = attribute;
         this.confidence = confidence;
         this.fixedValue = fixedValue;
+        this.resultIsFixed = fixedValue != null || walkList.resultIsFixed();
+        this.resultIsSourceText = !resultIsFixed && walkList.resultIsSourceText();
     }
 
     @Override
-    public final String obtainResult(Collection<Match> matches) {
+    public final String obtainResult(MatchArena matches) {
         return fixedValue == null ? processInformedMatches(matches) : fixedValue;
     }
 
     @Override
-    public boolean notValid(Collection<Match> matches) {
-        return !usesIsNull && fixedValue == null && matches.isEmpty();
+    public boolean notValid(MatchArena matches) {
+        return !usesIsNull && fixedValue == null && matches.isEmpty(this);
     }
 
     @Override
@@ -19,8 +19,6 @@ package nl.basjes.parse.useragent.analyze;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList;
 
-import java.util.Collection;
-
 public final class MatcherRequireAction extends MatcherAction {
 
     MatcherRequireAction(String matchExpression, WalkList walkList) {
@@ -28,13 +26,13 @@ public final class MatcherRequireAction extends MatcherAction {
     }
 
     @Override
-    public String obtainResult(Collection<Match> matches) {
-        return (usesIsNull && matches.isEmpty()) || processInformedMatches(matches) != null  ? "": null;
+    public String obtainResult(MatchArena matches) {
+        return (usesIsNull && matches.isEmpty(this)) || processInformedMatches(matches) != null  ? "": null;
     }
 
     @Override
-    public boolean notValid(Collection<Match> matches) {
-        return !usesIsNull && matches.isEmpty();
+    public boolean notValid(MatchArena matches) {
+        return !usesIsNull && matches.isEmpty(this);
     }
 
     @Override
@@ -0,0 +1,35 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze.treewalker.steps;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * A step together with all the steps after it compiled into a single closure.
+ * It behaves exactly like Step.walk but without the verbose checks, the logging
+ * and the virtual calls through the linked chain of Steps.
+ */
+@FunctionalInterface
+public interface CompiledStep {
+    /**
+     * @param tree  The tree to walk into.
+     * @param value The string representation of the previous step (null means getSourceText(tree) ).
+     * @return Either null or the actual value that was found.
+     */
+    String walk(ParseTree tree, String value);
+}
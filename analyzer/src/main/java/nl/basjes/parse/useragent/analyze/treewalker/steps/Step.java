@@ -115,6 +115,29 @@ public abstract class Step implements Serializable {
      */
     public abstract String walk(ParseTree tree, String value);
 
+    private static final CompiledStep IMPLICIT_FINAL_STEP =
+        (tree, value) -> value == null ? getSourceText((ParserRuleContext) tree) : value;
+
+    /**
+     * Compiles this step into a closure that directly calls the (already compiled) next step.
+     *
+     * @param next The compiled next step (null if this is the last step).
+     * @return The compiled version of this step that behaves exactly like walk(tree, value).
+     */
+    public abstract CompiledStep compile(CompiledStep next);
+
+    /**
+     * @param next The compiled next step (null if this is the last step).
+     * @return What a compiled step must call to continue the walk.
+     */
+    protected static CompiledStep orFinalStep(CompiledStep next) {
+        return next == null ? IMPLICIT_FINAL_STEP : next;
+    }
+
+    protected static String actualValue(ParseTree tree, String value) {
+        return value == null ? getSourceText((ParserRuleContext) tree) : value;
+    }
+
     public Step getNextStep() {
         return nextStep;
     }
@@ -62,8 +62,13 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import static nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherWordRangeContext;
 import static nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.StepWordRangeContext;
@@ -73,6 +78,25 @@ public class WalkList implements Serializable {
 
     private final List<Step> steps = new ArrayList<>();
 
+    // These nodes are informed with a value that is not (always) a literal part of the useragent.
+    private static final Set<String> NOT_SOURCE_TEXT_NAMES = new HashSet<>(Arrays.asList("email", "url", "keyvalue"));
+
+    // Is the value the first step receives a literal part of the useragent?
+    private boolean informedValueIsSourceText = true;
+
+    /**
+     * The memoId of a walkList of which the results are not memoized.
+     */
+    public static final int NO_MEMO = -1;
+    private int memoId = NO_MEMO;
+
+    // Set when the analyzer is frozen.
+    private transient boolean frozen = false;
+
+    private boolean compileSteps = false;
+    // Rebuilt after deserialization.
+    private transient CompiledStep compiledSteps = null;
+
     public WalkList(ParserRuleContext requiredPattern, Map<String, Map<String, String>> lookups) {
         // Generate the walkList from the requiredPattern
         new WalkListBuilder(lookups).visit(requiredPattern);
@@ -98,13 +122,50 @@ public class WalkList implements Serializable {
         }
     }
 
+    private void readObject(java.io.ObjectInputStream stream)
+        throws java.io.IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        setCompiled(compileSteps);
+    }
+
+    /**
+     * Optionally compile all steps into a single chain of closures so the walk does not go through
+     * all the virtual calls, verbose checks and logging of the Steps.
+     * When debug logging is enabled the Steps themselves are always used.
+     * @param compile Compile the steps (true) or interpret them (false).
+     */
+    public void setCompiled(boolean compile) {
+        checkNotFrozen();
+        if (compile && compiledSteps != null) {
+            return; // A shared walkList is already compiled.
+        }
+        compileSteps = compile;
+        compiledSteps = null;
+        if (!compile || steps.isEmpty()) {
+            return;
+        }
+        CompiledStep next = null;
+        for (int i = steps.size() - 1; i >= 0; i--) {
+            next = steps.get(i).compile(next);
+        }
+        compiledSteps = next;
+    }
+
+    public boolean isCompiled() {
+        return compiledSteps != null;
+    }
+
     public String walk(ParseTree tree, String value) {
         if (steps.isEmpty()) {
             return value;
         }
         Step firstStep = steps.get(0);
-        if(!LOG.isDebugEnabled())
+        if(!LOG.isDebugEnabled()) {
+            if (compiledSteps != null) {
+                return compiledSteps.walk(tree, value);
+            }
             return firstStep.walk(tree, value);
+        }
 
         Step.LOG.debug("Tree: >>>{}<<<", tree.getText());
         Step.LOG.debug("Enter step: {}", firstStep);
@@ -126,6 +187,124 @@ public class WalkList implements Serializable {
         return false;
     }
 
+    /**
+     * The literals that MUST occur in the useragent (ignoring case) for this walkList to ever produce a result.
+     * Only the compare steps that are done on a part of the useragent itself are used:
+     * after something like a LookUp nothing is known until the walk moves to a node again.
+     * @return The lowercase literals (the empty list if nothing is required).
+     */
+    public List<String> getRequiredLiterals() {
+        if (usesIsNull()) {
+            return Collections.emptyList();
+        }
+        List<String> literals = new ArrayList<>();
+        boolean valueIsSourceText = informedValueIsSourceText;
+        for (Step step : steps) {
+            if (step instanceof StepDown || step instanceof StepUp || step instanceof StepNext ||
+                step instanceof StepPrev || step instanceof StepBackToFull) {
+                valueIsSourceText = true;
+                continue;
+            }
+            if (step instanceof StepLookup || step instanceof StepCleanVersion ||
+                step instanceof StepNormalizeBrand || step instanceof StepFixedString) {
+                valueIsSourceText = false;
+                continue;
+            }
+            if (!valueIsSourceText) {
+                continue;
+            }
+            String literal = null;
+            if (step instanceof StepContains) {
+                literal = ((StepContains) step).getDesiredValue();
+            } else if (step instanceof StepStartsWith) {
+                literal = ((StepStartsWith) step).getDesiredValue();
+            } else if (step instanceof StepEndsWith) {
+                literal = ((StepEndsWith) step).getDesiredValue();
+            } else if (step instanceof StepEquals) {
+                literal = ((StepEquals) step).getDesiredValue();
+            }
+            if (literal != null && !literal.isEmpty()) {
+                literals.add(literal);
+            }
+        }
+        return literals;
+    }
+
+    /**
+     * @return If the result of this walkList is always a literal part of the useragent (possibly cleaned up
+     * with something like CleanVersion) as opposed to a value that comes from something like a LookUp.
+     */
+    public boolean resultIsSourceText() {
+        boolean valueIsSourceText = informedValueIsSourceText;
+        for (Step step : steps) {
+            if (step instanceof StepDown || step instanceof StepUp || step instanceof StepNext ||
+                step instanceof StepPrev || step instanceof StepBackToFull) {
+                valueIsSourceText = true;
+            } else if (step instanceof StepLookup || step instanceof StepFixedString) {
+                valueIsSourceText = false;
+            }
+        }
+        return valueIsSourceText;
+    }
+
+    /**
+     * @return If the result of this walkList is always a constant (i.e. it comes from something like a LookUp
+     * and not from the useragent).
+     */
+    public boolean resultIsFixed() {
+        boolean valueIsFixed = false;
+        for (Step step : steps) {
+            if (step instanceof StepDown || step instanceof StepUp || step instanceof StepNext ||
+                step instanceof StepPrev || step instanceof StepBackToFull) {
+                valueIsFixed = false;
+            } else if (step instanceof StepLookup || step instanceof StepFixedString) {
+                valueIsFixed = true;
+            }
+        }
+        return valueIsFixed;
+    }
+
+    /**
+     * @return A string that is the same for all walkLists that are interchangeable.
+     */
+    public String getCanonicalForm() {
+        return (informedValueIsSourceText ? "S" : "V") + toString();
+    }
+
+    /**
+     * @return If this walkList moves to other nodes in the tree (as opposed to only looking at the value).
+     */
+    public boolean walksTheTree() {
+        for (Step step : steps) {
+            if (step instanceof StepDown || step instanceof StepUp || step instanceof StepNext || step instanceof StepPrev) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getMemoId() {
+        return memoId;
+    }
+
+    public void setMemoId(int newMemoId) {
+        checkNotFrozen();
+        memoId = newMemoId;
+    }
+
+    /**
+     * After this the walkList can no longer be (un)compiled or get a different memoId.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Unable to change a frozen WalkList (" + this + ")");
+        }
+    }
+
     @Override
     public String toString() {
         if (steps.isEmpty()) {
@@ -237,6 +416,9 @@ public class WalkList implements Serializable {
 
         @Override
         public Void visitStepDown(StepDownContext ctx) {
+            if (!foundHashEntryPoint) {
+                informedValueIsSourceText = !NOT_SOURCE_TEXT_NAMES.contains(ctx.name.getText().toLowerCase(Locale.ENGLISH));
+            }
             add(new StepDown(ctx.numberRange(), ctx.name.getText()));
             visitNext(ctx.nextStep);
             return null; // Void
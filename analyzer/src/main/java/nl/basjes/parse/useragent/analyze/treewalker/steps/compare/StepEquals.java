@@ -17,27 +17,58 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.compare;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext;
+import nl.basjes.parse.useragent.utils.CaseInsensitive;
+import nl.basjes.parse.useragent.utils.Digits;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 public class StepEquals extends Step {
 
     private final String desiredValue;
+    // Only if the desired value has a digit (and the shapes fit) the outcome can depend on the digits
+    // of the actual value; null if the desired value does not contain a digit.
+    private final String desiredShape;
 
     public StepEquals(String desiredValue) {
         this.desiredValue = desiredValue.toLowerCase();
+        this.desiredShape = Digits.containsDigit(desiredValue) ? Digits.shapeOf(this.desiredValue) : null;
+    }
+
+    public String getDesiredValue() {
+        return desiredValue;
     }
 
     @Override
     public String walk(ParseTree tree, String value) {
         String actualValue = getActualValue(tree, value);
+        if (desiredShape != null && CachingParserRuleContext.tracksDigits(tree) &&
+            Digits.sameShape(actualValue, desiredShape)) {
+            CachingParserRuleContext.digitsInspected(tree, actualValue);
+        }
 
-        if (actualValue.toLowerCase().equals(desiredValue)) {
+        if (CaseInsensitive.equals(actualValue, desiredValue)) {
             return walkNextStep(tree, actualValue);
         }
         return null;
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        String desired = desiredValue;
+        String shape = desiredShape;
+        return (tree, value) -> {
+            String actualValue = actualValue(tree, value);
+            if (shape != null && CachingParserRuleContext.tracksDigits(tree) &&
+                Digits.sameShape(actualValue, shape)) {
+                CachingParserRuleContext.digitsInspected(tree, actualValue);
+            }
+            return CaseInsensitive.equals(actualValue, desired) ? nextStep.walk(tree, actualValue) : null;
+        };
+    }
+
     @Override
     public String toString() {
         return "Equals(" + desiredValue + ")";
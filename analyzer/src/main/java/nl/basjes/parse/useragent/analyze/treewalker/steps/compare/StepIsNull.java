@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.compare;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import org.antlr.v4.runtime.tree.ParseTree;
 
@@ -32,6 +33,12 @@ public class StepIsNull extends Step {
         return null;
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        return (tree, value) -> nextStep.walk(tree, value) == null ? "<<<Null Value>>>" : null;
+    }
+
     @Override
     public String toString() {
         return "IsNull()";
@@ -17,28 +17,46 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveLookup;
+import nl.basjes.parse.useragent.utils.Digits;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import java.util.Arrays;
 import java.util.Map;
 
 public class StepLookup extends Step {
 
     private final String lookupName;
-    private final Map<String, String> lookup;
+    private final CaseInsensitiveLookup<String> lookup;
     private final String defaultValue;
+    // Only if the input has the same shape as a key with a digit the outcome can depend on the digits of the input.
+    // The (sorted) hashes of these shapes (see Digits.shapeHashCode); an accidental equal hash only means
+    // that some digits are inspected needlessly.
+    private final int[] digitKeyShapeHashes;
 
     public StepLookup(String lookupName, Map<String, String> lookup, String defaultValue) {
         this.lookupName = lookupName;
-        this.lookup = lookup;
+        this.lookup = CaseInsensitiveLookup.of(lookup);
         this.defaultValue = defaultValue;
+        this.digitKeyShapeHashes = lookup.keySet().stream()
+            .filter(Digits::containsDigit)
+            .mapToInt(Digits::shapeHashCode)
+            .sorted()
+            .distinct()
+            .toArray();
     }
 
     @Override
     public String walk(ParseTree tree, String value) {
         String input = getActualValue(tree, value);
+        if (dependsOnDigits(digitKeyShapeHashes, tree, input)) {
+            CachingParserRuleContext.digitsInspected(tree, input);
+        }
 
-        String result = lookup.get(input.toLowerCase());
+        String result = lookup.get(input);
 
         if (result == null) {
             if (defaultValue == null) {
@@ -50,6 +68,31 @@ public class StepLookup extends Step {
         return walkNextStep(tree, result);
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        CaseInsensitiveLookup<String> theLookup = lookup;
+        String theDefaultValue = defaultValue;
+        int[] keyShapeHashes = digitKeyShapeHashes;
+        return (tree, value) -> {
+            String input = actualValue(tree, value);
+            if (dependsOnDigits(keyShapeHashes, tree, input)) {
+                CachingParserRuleContext.digitsInspected(tree, input);
+            }
+            String result = theLookup.get(input);
+            if (result == null) {
+                return theDefaultValue == null ? null : nextStep.walk(tree, theDefaultValue);
+            }
+            return nextStep.walk(tree, result);
+        };
+    }
+
+    private static boolean dependsOnDigits(int[] keyShapeHashes, ParseTree tree, String input) {
+        return keyShapeHashes.length != 0 &&
+            CachingParserRuleContext.tracksDigits(tree) &&
+            Arrays.binarySearch(keyShapeHashes, Digits.shapeHashCode(input)) >= 0;
+    }
+
     @Override
     public String toString() {
         return "Lookup(@" + lookupName + " ; default="+defaultValue+")";
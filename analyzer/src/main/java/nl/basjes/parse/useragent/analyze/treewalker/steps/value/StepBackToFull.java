@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.value;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import org.antlr.v4.runtime.tree.ParseTree;
 
@@ -27,6 +28,12 @@ public class StepBackToFull extends Step {
         return walkNextStep(tree, null);
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        return (tree, value) -> nextStep.walk(tree, null);
+    }
+
     @Override
     public String toString() {
         return "BackToFull()";
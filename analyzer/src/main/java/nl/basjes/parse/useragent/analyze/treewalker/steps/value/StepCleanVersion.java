@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.value;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.parse.EvilManualUseragentStringHacks;
 import org.antlr.v4.runtime.tree.ParseTree;
@@ -31,6 +32,12 @@ public class StepCleanVersion extends Step {
         return walkNextStep(tree, cleanedValue);
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        return (tree, value) -> nextStep.walk(tree, EvilManualUseragentStringHacks.replaceString(actualValue(tree, value), "_", "."));
+    }
+
     @Override
     public String toString() {
         return "CleanVersion()";
@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.value;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import org.antlr.v4.runtime.tree.ParseTree;
 
@@ -33,6 +34,12 @@ public class StepFixedString extends Step {
         return fixedString;
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        String theFixedString = fixedString;
+        return (tree, value) -> theFixedString;
+    }
+
     @Override
     public String toString() {
         return "FixedString(" + fixedString + ")";
@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.value;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.utils.Normalize;
 import org.antlr.v4.runtime.tree.ParseTree;
@@ -33,6 +34,12 @@ public class StepNormalizeBrand extends Step {
         return walkNextStep(tree, filteredValue);
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        return (tree, value) -> nextStep.walk(tree, Normalize.brand(actualValue(tree, value)));
+    }
+
     @Override
     public String toString() {
         return "StepNormalizeBrand()";
@@ -18,9 +18,12 @@
 package nl.basjes.parse.useragent.analyze.treewalker.steps.value;
 
 import nl.basjes.parse.useragent.analyze.WordRangeVisitor;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext;
 import nl.basjes.parse.useragent.parser.UserAgentParser.SingleVersionContext;
 import nl.basjes.parse.useragent.parser.UserAgentParser.SingleVersionWithCommasContext;
+import nl.basjes.parse.useragent.utils.Splitter;
 import nl.basjes.parse.useragent.utils.VersionSplitter;
 import nl.basjes.parse.useragent.utils.WordSplitter;
 import org.antlr.v4.runtime.tree.ParseTree;
@@ -38,18 +41,38 @@ public class StepWordRange extends Step {
     @Override
     public String walk(ParseTree tree, String value) {
         String actualValue = getActualValue(tree, value);
-        String filteredValue;
+        String filteredValue = getSplitRange(tree, actualValue, firstWord, lastWord);
+        if (filteredValue == null) {
+            return null;
+        }
+        return walkNextStep(tree, filteredValue);
+    }
+
+    private static String getSplitRange(ParseTree tree, String value, int first, int last) {
+        Splitter splitter;
         if (tree.getChildCount() == 1 && (
               tree.getChild(0) instanceof SingleVersionContext |
               tree.getChild(0) instanceof SingleVersionWithCommasContext)) {
-            filteredValue = VersionSplitter.getInstance().getSplitRange(actualValue, firstWord, lastWord);
+            splitter = VersionSplitter.getInstance();
         } else {
-            filteredValue = WordSplitter.getInstance().getSplitRange(actualValue, firstWord, lastWord);
+            splitter = WordSplitter.getInstance();
         }
-        if (filteredValue == null) {
-            return null;
+        if (tree instanceof CachingParserRuleContext) {
+            // The splits of the text of a node are determined only once per parse.
+            return ((CachingParserRuleContext) tree).getSplitRange(splitter, value, first, last);
         }
-        return walkNextStep(tree, filteredValue);
+        return splitter.getSplitRange(value, first, last);
+    }
+
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        int first = firstWord;
+        int last = lastWord;
+        return (tree, value) -> {
+            String filteredValue = getSplitRange(tree, actualValue(tree, value), first, last);
+            return filteredValue == null ? null : nextStep.walk(tree, filteredValue);
+        };
     }
 
     @Override
@@ -19,14 +19,13 @@ package nl.basjes.parse.useragent.analyze.treewalker.steps.walk;
 
 import nl.basjes.parse.useragent.analyze.NumberRangeList;
 import nl.basjes.parse.useragent.analyze.NumberRangeVisitor;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.Children;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.UserAgentGetChildrenVisitor;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.NumberRangeContext;
-import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
 
-import java.util.Iterator;
-
 public class StepDown extends Step {
 
     private final int start;
@@ -58,6 +57,25 @@ public class StepDown extends Step {
         setDefaultFieldValues();
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        UserAgentGetChildrenVisitor childrenVisitor = userAgentGetChildrenVisitor;
+        int first = start;
+        int last = end;
+        return (tree, value) -> {
+            Children children = childrenVisitor.visit(tree);
+            int to = children.to(last);
+            for (int index = children.from(first); index < to; index++) {
+                String childResult = nextStep.walk(children.get(index), null);
+                if (childResult != null) {
+                    return childResult;
+                }
+            }
+            return null;
+        };
+    }
+
     @Override
     public String toString() {
         return "Down([" + start + ":" + end + "]" + name + ")";
@@ -65,10 +83,10 @@ public class StepDown extends Step {
 
     @Override
     public String walk(ParseTree tree, String value) {
-        Iterator<? extends ParserRuleContext> children = userAgentGetChildrenVisitor.visit(tree);
-        while (children.hasNext()) {
-            ParserRuleContext child = children.next();
-            String childResult = walkNextStep(child, null);
+        Children children = userAgentGetChildrenVisitor.visit(tree);
+        int to = children.to(end);
+        for (int index = children.from(start); index < to; index++) {
+            String childResult = walkNextStep(children.get(index), null);
             if (childResult != null) {
                 return childResult;
             }
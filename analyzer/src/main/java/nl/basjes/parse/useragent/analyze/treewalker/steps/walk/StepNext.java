@@ -17,12 +17,26 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.walk;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 public class StepNext extends Step {
 
     private ParseTree next(ParseTree tree) {
+        // The result is the same for all matchers so it is only determined once per parse.
+        if (!(tree instanceof CachingParserRuleContext)) {
+            return findNext(tree);
+        }
+        CachingParserRuleContext cachingTree = (CachingParserRuleContext) tree;
+        if (!cachingTree.isNextKnown()) {
+            cachingTree.setNext(findNext(tree));
+        }
+        return cachingTree.getNext();
+    }
+
+    private ParseTree findNext(ParseTree tree) {
         ParseTree parent = up(tree);
         ParseTree child;
         boolean foundCurrent = false;
@@ -52,6 +66,15 @@ public class StepNext extends Step {
         return walkNextStep(nextTree, null);
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        return (tree, value) -> {
+            ParseTree nextTree = next(tree);
+            return nextTree == null ? null : nextStep.walk(nextTree, null);
+        };
+    }
+
     @Override
     public String toString() {
         return "Next()";
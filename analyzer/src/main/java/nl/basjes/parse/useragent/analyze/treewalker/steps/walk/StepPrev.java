@@ -17,12 +17,26 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.walk;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 public class StepPrev extends Step {
 
     private ParseTree prev(ParseTree tree) {
+        // The result is the same for all matchers so it is only determined once per parse.
+        if (!(tree instanceof CachingParserRuleContext)) {
+            return findPrev(tree);
+        }
+        CachingParserRuleContext cachingTree = (CachingParserRuleContext) tree;
+        if (!cachingTree.isPrevKnown()) {
+            cachingTree.setPrev(findPrev(tree));
+        }
+        return cachingTree.getPrev();
+    }
+
+    private ParseTree findPrev(ParseTree tree) {
         ParseTree parent = up(tree);
 
         ParseTree prevChild = null;
@@ -50,6 +64,15 @@ public class StepPrev extends Step {
         return walkNextStep(nextTree, null);
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        return (tree, value) -> {
+            ParseTree nextTree = prev(tree);
+            return nextTree == null ? null : nextStep.walk(nextTree, null);
+        };
+    }
+
     @Override
     public String toString() {
         return "Prev()";
@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.walk;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.CompiledStep;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import org.antlr.v4.runtime.tree.ParseTree;
 
@@ -32,6 +33,15 @@ public class StepUp extends Step {
         return walkNextStep(parent, null);
     }
 
+    @Override
+    public CompiledStep compile(CompiledStep next) {
+        CompiledStep nextStep = orFinalStep(next);
+        return (tree, value) -> {
+            ParseTree parent = up(tree);
+            return parent == null ? null : nextStep.walk(parent, null);
+        };
+    }
+
     @Override
     public String toString() {
         return "Up()";
@@ -0,0 +1,232 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown;
+
+import nl.basjes.parse.useragent.utils.AntlrUtils;
+import nl.basjes.parse.useragent.utils.Splitter;
+import nl.basjes.parse.useragent.utils.VersionSplitter;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.Arrays;
+
+/**
+ * The base class of all the nodes of the UserAgent parse tree (see the contextSuperClass in UserAgent.g4).
+ * A new tree is created for every parse so everything cached in here lives exactly as long as a single parse.
+ * This is used to do the work of StepDown, StepNext and StepPrev only once per node (instead of once per matcher).
+ * The same goes for the source text of the node and the splits of it that are needed for the word ranges.
+ * The root of the tree also records which parts of the useragent had digits that could change the outcome of the analysis.
+ */
+public class CachingParserRuleContext extends ParserRuleContext {
+
+    // Per name of the children (see UserAgentGetChildrenVisitor) the children of this node.
+    private Children[] childrenByName = null;
+
+    private boolean   nextKnown = false;
+    private ParseTree next = null;
+    private boolean   prevKnown = false;
+    private ParseTree prev = null;
+
+    private String sourceText = null;
+    private int[]  wordSplits = null;
+    private int[]  versionSplits = null;
+
+    // Only used in the root of the tree: if the digits that are inspected must be recorded (only for the ShapeCache)
+    // and the (start, stop) character ranges of the nodes of which the digits were inspected.
+    private boolean digitsTracked = false;
+    private int[] inspectedRanges = null;
+    private int   inspectedRangesUsed = 0;
+
+    public CachingParserRuleContext() {
+    }
+
+    public CachingParserRuleContext(ParserRuleContext parent, int invokingStateNumber) {
+        super(parent, invokingStateNumber);
+    }
+
+    Children getCachedChildren(int nameId) {
+        return childrenByName == null ? null : childrenByName[nameId];
+    }
+
+    void setCachedChildren(int nameId, Children children, int numberOfNames) {
+        if (childrenByName == null) {
+            childrenByName = new Children[numberOfNames];
+        }
+        childrenByName[nameId] = children;
+    }
+
+    public boolean isNextKnown() {
+        return nextKnown;
+    }
+
+    public ParseTree getNext() {
+        return next;
+    }
+
+    public void setNext(ParseTree newNext) {
+        next = newNext;
+        nextKnown = true;
+    }
+
+    public boolean isPrevKnown() {
+        return prevKnown;
+    }
+
+    public ParseTree getPrev() {
+        return prev;
+    }
+
+    public void setPrev(ParseTree newPrev) {
+        prev = newPrev;
+        prevKnown = true;
+    }
+
+    /**
+     * @return The source text of this node (always the same String instance).
+     */
+    public String getSourceText() {
+        if (sourceText == null) {
+            sourceText = AntlrUtils.readSourceText(this);
+        }
+        return sourceText;
+    }
+
+    /**
+     * @param splitter The splitter (a WordSplitter or a VersionSplitter)
+     * @param value The value of which the range is needed
+     * @param firstSplit The first split
+     * @param lastSplit The last split (-1 means up to the end)
+     * @return The requested range of splits or null if it does not exist.
+     * If the value is the source text of this node the splits are only determined once.
+     */
+    public String getSplitRange(Splitter splitter, String value, int firstSplit, int lastSplit) {
+        if (value == null || value != sourceText) {
+            return splitter.getSplitRange(value, firstSplit, lastSplit);
+        }
+        if (splitter instanceof VersionSplitter) {
+            if (versionSplits == null) {
+                versionSplits = splitter.findSplits(value);
+            }
+            return splitter.getSplitRange(value, versionSplits, firstSplit, lastSplit);
+        }
+        if (wordSplits == null) {
+            wordSplits = splitter.findSplits(value);
+        }
+        return splitter.getSplitRange(value, wordSplits, firstSplit, lastSplit);
+    }
+
+    /**
+     * (Only on the root of the tree) Record the digits that are inspected during this parse.
+     */
+    public void trackDigits() {
+        digitsTracked = true;
+    }
+
+    private static ParseTree rootOf(ParseTree tree) {
+        ParseTree root = tree;
+        while (root != null && root.getParent() != null) {
+            root = root.getParent();
+        }
+        return root;
+    }
+
+    /**
+     * @param tree Any node of the tree
+     * @return If the compares and lookups must call digitsInspected for this parse.
+     * This only needs a few parent pointers so a compare can check it before doing anything else.
+     */
+    public static boolean tracksDigits(ParseTree tree) {
+        ParseTree root = rootOf(tree);
+        return root instanceof CachingParserRuleContext && ((CachingParserRuleContext) root).digitsTracked;
+    }
+
+    /**
+     * Must be called by every compare (or lookup) that could have a different outcome if only the digits
+     * in the value it looked at were different (only if tracksDigits).
+     * @param tree The node the value belongs to
+     * @param value The value that was looked at
+     */
+    public static void digitsInspected(ParseTree tree, String value) {
+        ParseTree root = rootOf(tree);
+        if (!(root instanceof CachingParserRuleContext) || !((CachingParserRuleContext) root).digitsTracked) {
+            return;
+        }
+        CachingParserRuleContext rootContext = (CachingParserRuleContext) root;
+
+        if (tree instanceof TerminalNode) {
+            Token symbol = ((TerminalNode) tree).getSymbol();
+            rootContext.addInspectedRange(symbol.getStartIndex(), symbol.getStopIndex());
+            return;
+        }
+        if (!(tree instanceof ParserRuleContext) ||
+            ((ParserRuleContext) tree).getStart() == null || ((ParserRuleContext) tree).getStop() == null) {
+            // The exact range is unknown so the entire useragent is marked.
+            rootContext.addInspectedRange(0, Integer.MAX_VALUE);
+            return;
+        }
+
+        ParserRuleContext context = (ParserRuleContext) tree;
+        int start = context.getStart().getStartIndex();
+        int stop = context.getStop().getStopIndex();
+
+        // Usually the value is (a word range of) the text of the node so only the places where it occurs matter.
+        if (value != null && !value.isEmpty()) {
+            String text = AntlrUtils.getSourceText(context);
+            boolean found = false;
+            for (int offset = 0; offset + value.length() <= text.length(); offset++) {
+                if (text.regionMatches(true, offset, value, 0, value.length())) {
+                    rootContext.addInspectedRange(start + offset, start + offset + value.length() - 1);
+                    found = true;
+                }
+            }
+            if (found) {
+                return;
+            }
+        }
+        rootContext.addInspectedRange(start, stop);
+    }
+
+    private void addInspectedRange(int start, int stop) {
+        if (inspectedRanges == null) {
+            inspectedRanges = new int[16];
+        }
+        // Often the same node is inspected by several matchers.
+        if (inspectedRangesUsed > 0 &&
+            inspectedRanges[inspectedRangesUsed - 2] == start && inspectedRanges[inspectedRangesUsed - 1] == stop) {
+            return;
+        }
+        if (inspectedRangesUsed == inspectedRanges.length) {
+            inspectedRanges = Arrays.copyOf(inspectedRanges, inspectedRangesUsed * 2);
+        }
+        inspectedRanges[inspectedRangesUsed++] = start;
+        inspectedRanges[inspectedRangesUsed++] = stop;
+    }
+
+    /**
+     * @return (this being the root of the tree) The (start, stop) character ranges in the useragent of the nodes
+     * of which a compare or lookup could have had a different outcome with other digits
+     * or null if the digits were not tracked (see trackDigits).
+     */
+    public int[] getInspectedRanges() {
+        if (!digitsTracked) {
+            return null;
+        }
+        return inspectedRanges == null ? new int[0] : Arrays.copyOf(inspectedRanges, inspectedRangesUsed);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.util.List;
+
+/**
+ * The children of a node that StepDown can go to, together with the number of each child
+ * (the number that is used in the range like the 2 in ".(2)product").
+ */
+public final class Children {
+    public static final Children EMPTY = new Children(new ParserRuleContext[0], null);
+
+    private final ParserRuleContext[] nodes;
+    // Ascending. If null then all children are always in range.
+    private final int[] numbers;
+
+    Children(ParserRuleContext[] nodes, int[] numbers) {
+        this.nodes = nodes;
+        this.numbers = numbers;
+    }
+
+    /**
+     * @param nodes The nodes
+     * @return The children that are always in range regardless of the range asked for.
+     */
+    static Children of(List<? extends ParserRuleContext> nodes) {
+        return new Children(nodes.toArray(new ParserRuleContext[nodes.size()]), null);
+    }
+
+    public ParserRuleContext get(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @param start The first number of the range
+     * @return The index of the first child with a number that is at least start.
+     */
+    public int from(int start) {
+        if (numbers == null) {
+            return 0;
+        }
+        int index = 0;
+        while (index < numbers.length && numbers[index] < start) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @param end The last number of the range
+     * @return The index after the last child with a number that is at most end.
+     */
+    public int to(int end) {
+        if (numbers == null) {
+            return nodes.length;
+        }
+        int index = numbers.length;
+        while (index > 0 && numbers[index - 1] > end) {
+            index--;
+        }
+        return index;
+    }
+}
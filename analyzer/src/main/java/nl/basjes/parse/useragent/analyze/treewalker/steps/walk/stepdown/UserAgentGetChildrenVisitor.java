@@ -48,218 +48,258 @@ import nl.basjes.parse.useragent.parser.UserAgentParser.UserAgentContext;
 import nl.basjes.parse.useragent.parser.UserAgentParser.UuIdContext;
 import nl.basjes.parse.useragent.parser.UserAgentParser.VersionWordsContext;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
+import java.util.function.Predicate;
+
+import static nl.basjes.parse.useragent.analyze.treewalker.steps.Step.treeIsSeparator;
 
 
 /**
- * This visitor will return the list of requested child nodes
+ * This visitor will return the list of requested child nodes.
+ * The children of a node are determined only once per parse (they are cached in the node itself).
  */
-public class UserAgentGetChildrenVisitor extends UserAgentBaseVisitor<Iterator<? extends ParserRuleContext>> {
+public class UserAgentGetChildrenVisitor extends UserAgentBaseVisitor<Children> {
 
-    private final String name;
-    private final ChildIterable childIterable;
+    // The names of the children that can be asked for; the index is the id of the name.
+    private static final List<String> NAMES = Arrays.asList(
+        "keyvalue", "product", "uuid", "base64", "url", "email", "text", "name", "version", "comments", "key", "value", "entry");
 
-    public UserAgentGetChildrenVisitor(String name, int start, int end) {
-        this.name = name;
-        switch (name) {
-            case "keyvalue":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof KeyValueContext ||
-                    clazz instanceof KeyWithoutValueContext ||
-                    clazz instanceof ProductNameKeyValueContext));
-                break;
-
-            case "product":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof ProductContext ||
-                    clazz instanceof CommentProductContext ||
-                    clazz instanceof ProductNameNoVersionContext));
-                break;
-
-            case "uuid":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof UuIdContext ||
-                    clazz instanceof ProductNameUuidContext));
-                break;
-
-            case "base64":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof Base64Context));
-                break;
-
-            case "url":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof SiteUrlContext ||
-                    clazz instanceof ProductNameUrlContext));
-                break;
-
-            case "email":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof EmailAddressContext ||
-                    clazz instanceof ProductNameEmailContext));
-                break;
-
-            case "text":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof MultipleWordsContext ||
-                    clazz instanceof VersionWordsContext ||
-                    clazz instanceof EmptyWordContext ||
-                    clazz instanceof RootTextContext ||
-                    clazz instanceof KeyValueVersionNameContext));
-                break;
-
-            case "name":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof ProductNameContext));
-                break;
-
-            case "version":
-                childIterable = new ChildIterable(true, start, end, clazz -> (
-                    clazz instanceof ProductVersionContext ||
-                    clazz instanceof ProductVersionWithCommasContext ||
-                    clazz instanceof ProductVersionWordsContext ||
-                    clazz instanceof ProductVersionSingleWordContext));
-                break;
-
-            case "comments":
-                childIterable = new ChildIterable(true, start, end, clazz -> (
-                    clazz instanceof CommentBlockContext));
-                break;
+    // Per name id: Are the children with this name numbered among themselves or among all the children of the node.
+    private static final boolean[] PRIVATE_NUMBER_RANGE = new boolean[NAMES.size()];
 
-            case "key":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof KeyNameContext));
-                break;
+    // Per name id: Which children have this name.
+    private static final List<Predicate<ParserRuleContext>> IS_WANTED_CLASS = new ArrayList<>(Collections.nCopies(NAMES.size(), null));
 
-            case "value":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof UuIdContext ||
-                    clazz instanceof MultipleWordsContext ||
-                    clazz instanceof SiteUrlContext ||
-                    clazz instanceof EmailAddressContext ||
-                    clazz instanceof KeyValueVersionNameContext ||
-                    clazz instanceof KeyValueProductVersionNameContext));
-                break;
-
-            case "entry":
-                childIterable = new ChildIterable(false, start, end, clazz -> (
-                    clazz instanceof CommentEntryContext));
-                break;
+    private static void define(String name, boolean privateNumberRange, Predicate<ParserRuleContext> isWantedClass) {
+        int nameId = NAMES.indexOf(name);
+        PRIVATE_NUMBER_RANGE[nameId] = privateNumberRange;
+        IS_WANTED_CLASS.set(nameId, isWantedClass);
+    }
 
-            default:
-                childIterable = new ChildIterable(false, start, end,  clazz -> (false));
-        }
+    static {
+        define("keyvalue", false, clazz -> (
+            clazz instanceof KeyValueContext ||
+            clazz instanceof KeyWithoutValueContext ||
+            clazz instanceof ProductNameKeyValueContext));
+
+        define("product", false, clazz -> (
+            clazz instanceof ProductContext ||
+            clazz instanceof CommentProductContext ||
+            clazz instanceof ProductNameNoVersionContext));
+
+        define("uuid", false, clazz -> (
+            clazz instanceof UuIdContext ||
+            clazz instanceof ProductNameUuidContext));
+
+        define("base64", false, clazz -> (
+            clazz instanceof Base64Context));
+
+        define("url", false, clazz -> (
+            clazz instanceof SiteUrlContext ||
+            clazz instanceof ProductNameUrlContext));
+
+        define("email", false, clazz -> (
+            clazz instanceof EmailAddressContext ||
+            clazz instanceof ProductNameEmailContext));
+
+        define("text", false, clazz -> (
+            clazz instanceof MultipleWordsContext ||
+            clazz instanceof VersionWordsContext ||
+            clazz instanceof EmptyWordContext ||
+            clazz instanceof RootTextContext ||
+            clazz instanceof KeyValueVersionNameContext));
+
+        define("name", false, clazz -> (
+            clazz instanceof ProductNameContext));
+
+        define("version", true, clazz -> (
+            clazz instanceof ProductVersionContext ||
+            clazz instanceof ProductVersionWithCommasContext ||
+            clazz instanceof ProductVersionWordsContext ||
+            clazz instanceof ProductVersionSingleWordContext));
+
+        define("comments", true, clazz -> (
+            clazz instanceof CommentBlockContext));
+
+        define("key", false, clazz -> (
+            clazz instanceof KeyNameContext));
+
+        define("value", false, clazz -> (
+            clazz instanceof UuIdContext ||
+            clazz instanceof MultipleWordsContext ||
+            clazz instanceof SiteUrlContext ||
+            clazz instanceof EmailAddressContext ||
+            clazz instanceof KeyValueVersionNameContext ||
+            clazz instanceof KeyValueProductVersionNameContext));
+
+        define("entry", false, clazz -> (
+            clazz instanceof CommentEntryContext));
     }
 
+    private final String name;
+    private final int nameId;
+    private final int start;
+    private final int end;
 
-    private static final Iterator<ParserRuleContext> EMPTY = Collections.emptyListIterator();
+    public UserAgentGetChildrenVisitor(String name, int start, int end) {
+        this.name = name;
+        this.nameId = NAMES.indexOf(name);
+        this.start = start;
+        this.end = end;
+    }
 
     @Override
-    protected Iterator<? extends ParserRuleContext> defaultResult() {
-        return EMPTY;
+    protected Children defaultResult() {
+        return Children.EMPTY;
     }
 
-    Iterator<? extends ParserRuleContext> getChildrenByName(ParserRuleContext ctx) {
-        return childIterable.iterator(ctx);
+    Children getChildrenByName(ParserRuleContext ctx) {
+        if (nameId == -1) {
+            return Children.EMPTY;
+        }
+        if (!(ctx instanceof CachingParserRuleContext)) {
+            return findChildren(ctx);
+        }
+        CachingParserRuleContext cachingCtx = (CachingParserRuleContext) ctx;
+        Children children = cachingCtx.getCachedChildren(nameId);
+        if (children == null) {
+            children = findChildren(ctx);
+            cachingCtx.setCachedChildren(nameId, children, NAMES.size());
+        }
+        return children;
+    }
+
+    private Children findChildren(ParserRuleContext ctx) {
+        if (ctx.children == null) {
+            return Children.EMPTY;
+        }
+        boolean privateNumberRange = PRIVATE_NUMBER_RANGE[nameId];
+        Predicate<ParserRuleContext> isWantedClass = IS_WANTED_CLASS.get(nameId);
+
+        List<ParserRuleContext> nodes = new ArrayList<>(ctx.children.size());
+        int[] numbers = new int[ctx.children.size()];
+        int number = 0;
+        for (ParseTree child : ctx.children) {
+            if (treeIsSeparator(child) || !(child instanceof ParserRuleContext)) {
+                continue;
+            }
+            if (!privateNumberRange) {
+                number++;
+            }
+            if (!isWantedClass.test((ParserRuleContext) child)) {
+                continue;
+            }
+            if (privateNumberRange) {
+                number++;
+            }
+            numbers[nodes.size()] = number;
+            nodes.add((ParserRuleContext) child);
+        }
+        if (nodes.isEmpty()) {
+            return Children.EMPTY;
+        }
+        return new Children(nodes.toArray(new ParserRuleContext[nodes.size()]), Arrays.copyOf(numbers, nodes.size()));
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitUserAgent(UserAgentContext ctx) {
-        Iterator<? extends ParserRuleContext>  children = getChildrenByName(ctx);
-        if (children.hasNext()) {
+    public Children visitUserAgent(UserAgentContext ctx) {
+        Children children = getChildrenByName(ctx);
+        if (children.from(start) < children.to(end)) {
             return children;
         }
         return visitChildren(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitRootElements(RootElementsContext ctx) {
+    public Children visitRootElements(RootElementsContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitProduct(ProductContext ctx) {
+    public Children visitProduct(ProductContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitProductNameNoVersion(ProductNameNoVersionContext ctx) {
+    public Children visitProductNameNoVersion(ProductNameNoVersionContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitCommentProduct(CommentProductContext ctx) {
+    public Children visitCommentProduct(CommentProductContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitProductName(ProductNameContext ctx) {
+    public Children visitProductName(ProductNameContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitProductNameKeyValue(ProductNameKeyValueContext ctx) {
+    public Children visitProductNameKeyValue(ProductNameKeyValueContext ctx) {
         switch (name) {
             case "key":
-                return Collections.singletonList((ParserRuleContext) ctx.key).iterator();
+                return Children.of(Collections.singletonList((ParserRuleContext) ctx.key));
             case "value":
                 List<? extends ParserRuleContext> children = ctx.multipleWords();
                 if (!children.isEmpty()) {
-                    return children.iterator();
+                    return Children.of(children);
                 }
 
                 children = ctx.keyValueProductVersionName();
                 if (!children.isEmpty()) {
-                    return children.iterator();
+                    return Children.of(children);
                 }
 
                 children = ctx.siteUrl();
                 if (!children.isEmpty()) {
-                    return children.iterator();
+                    return Children.of(children);
                 }
 
                 children = ctx.emailAddress();
                 if (!children.isEmpty()) {
-                    return children.iterator();
+                    return Children.of(children);
                 }
 
                 children = ctx.uuId();
-                return children.iterator();
+                return Children.of(children);
             default:
                 return getChildrenByName(ctx);
         }
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitProductVersion(ProductVersionContext ctx) {
+    public Children visitProductVersion(ProductVersionContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitProductVersionWithCommas(ProductVersionWithCommasContext ctx) {
+    public Children visitProductVersionWithCommas(ProductVersionWithCommasContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitKeyValue(KeyValueContext ctx) {
+    public Children visitKeyValue(KeyValueContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitKeyWithoutValue(KeyWithoutValueContext ctx) {
+    public Children visitKeyWithoutValue(KeyWithoutValueContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitCommentBlock(CommentBlockContext ctx) {
+    public Children visitCommentBlock(CommentBlockContext ctx) {
         return getChildrenByName(ctx);
     }
 
     @Override
-    public Iterator<? extends ParserRuleContext> visitCommentEntry(CommentEntryContext ctx) {
+    public Children visitCommentEntry(CommentEntryContext ctx) {
         return getChildrenByName(ctx);
     }
 }
@@ -0,0 +1,56 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.calculate;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.analyze.FieldSetter.AgentField;
+import nl.basjes.parse.useragent.utils.Normalize;
+
+/**
+ * The email address is a mess so it is normalized.
+ */
+public class CalculateAgentEmail implements FieldCalculator {
+
+    private static final String AGENT_INFORMATION_EMAIL = "AgentInformationEmail";
+
+    @Override
+    public void calculate(UserAgent userAgent) {
+        AgentField email = userAgent.get(AGENT_INFORMATION_EMAIL);
+        if (email != null && email.nonNullConfidence() >= 0) {
+            userAgent.set(
+                AGENT_INFORMATION_EMAIL,
+                Normalize.email(email.value),
+                email.confidence + 1);
+        }
+    }
+
+    @Override
+    public String getCalculatedFieldName() {
+        return AGENT_INFORMATION_EMAIL;
+    }
+
+    @Override
+    public String[] getDependencies() {
+        return new String[0];
+    }
+
+    @Override
+    public String toString() {
+        return "Calculate " + AGENT_INFORMATION_EMAIL;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.calculate;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.analyze.FieldSetter.AgentField;
+import nl.basjes.parse.useragent.utils.Normalize;
+
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_BRAND;
+
+/**
+ * The device brand field is a mess so it is normalized.
+ */
+public class CalculateDeviceBrand implements FieldCalculator {
+
+    @Override
+    public void calculate(UserAgent userAgent) {
+        AgentField deviceBrand = userAgent.get(DEVICE_BRAND);
+        if (deviceBrand != null && deviceBrand.nonNullConfidence() >= 0) {
+            userAgent.set(
+                DEVICE_BRAND,
+                Normalize.brand(deviceBrand.value),
+                deviceBrand.confidence + 1);
+        }
+    }
+
+    @Override
+    public String getCalculatedFieldName() {
+        return DEVICE_BRAND;
+    }
+
+    @Override
+    public String[] getDependencies() {
+        return new String[0];
+    }
+
+    @Override
+    public String toString() {
+        return "Calculate " + DEVICE_BRAND;
+    }
+}
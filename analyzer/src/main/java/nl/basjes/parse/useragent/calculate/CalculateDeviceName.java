@@ -0,0 +1,65 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.calculate;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.analyze.FieldSetter.AgentField;
+import nl.basjes.parse.useragent.utils.Normalize;
+
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_BRAND;
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_NAME;
+
+/**
+ * Make sure the DeviceName always starts with the (already normalized) DeviceBrand.
+ */
+public class CalculateDeviceName implements FieldCalculator {
+
+    @Override
+    public void calculate(UserAgent userAgent) {
+        AgentField deviceName = userAgent.get(DEVICE_NAME);
+        if (deviceName == null || deviceName.nonNullConfidence() < 0) {
+            return;
+        }
+        AgentField deviceBrand = userAgent.get(DEVICE_BRAND);
+        String deviceNameValue = deviceName.value == null ? UserAgent.getDefaultValue(DEVICE_NAME) : deviceName.value;
+        // In some cases it does start with the brand but without a separator following the brand
+        deviceNameValue = (deviceBrand != null && deviceBrand.nonNullConfidence() >= 0 && !deviceBrand.value.equals("Unknown"))
+            ? Normalize.cleanupDeviceBrandName(deviceBrand.value, deviceNameValue)
+            : Normalize.brand(deviceNameValue);
+
+        userAgent.set(
+            DEVICE_NAME,
+            deviceNameValue,
+            deviceName.confidence + 1);
+    }
+
+    @Override
+    public String getCalculatedFieldName() {
+        return DEVICE_NAME;
+    }
+
+    @Override
+    public String[] getDependencies() {
+        return new String[]{DEVICE_BRAND};
+    }
+
+    @Override
+    public String toString() {
+        return "Calculate " + DEVICE_BRAND + " + " + DEVICE_NAME + " --> " + DEVICE_NAME;
+    }
+}
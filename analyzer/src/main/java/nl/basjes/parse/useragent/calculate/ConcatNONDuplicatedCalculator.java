@@ -0,0 +1,82 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.calculate;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.analyze.FieldSetter.AgentField;
+
+/**
+ * Combines two fields (like the name and the version) without repeating the first one if the second
+ * already contains it.
+ */
+public class ConcatNONDuplicatedCalculator implements FieldCalculator {
+
+    private final String targetName;
+    private final String firstName;
+    private final String secondName;
+
+    public ConcatNONDuplicatedCalculator(String targetName, String firstName, String secondName) {
+        this.targetName = targetName;
+        this.firstName = firstName;
+        this.secondName = secondName;
+    }
+
+    @Override
+    public void calculate(UserAgent userAgent) {
+        AgentField first = userAgent.get(firstName);
+        AgentField second = userAgent.get(secondName);
+        boolean firstIsNull = first == null || first.value == null;
+        boolean secondIsNull = second == null || second.value == null;
+        if (firstIsNull) {
+            if (!secondIsNull && second.confidence >= 0) {
+                userAgent.set(targetName, second.value, second.confidence);
+            } //else both null - nothing to do
+            return;
+        }
+        if (secondIsNull) {
+            if (first.confidence >= 0) {
+                userAgent.set(targetName, first.value, first.confidence);
+            }
+            return;
+        }
+        if (first.value.equals(second.value)) {
+            userAgent.set(targetName, first.value, first.confidence);
+            return;
+        }
+        if (second.value.startsWith(first.value)) {
+            userAgent.set(targetName, second.value, second.confidence);
+            return;
+        }
+        userAgent.set(targetName, first.value + " " + second.value, Math.max(first.confidence, second.confidence));
+    }
+
+    @Override
+    public String getCalculatedFieldName() {
+        return targetName;
+    }
+
+    @Override
+    public String[] getDependencies() {
+        return new String[]{firstName, secondName};
+    }
+
+    @Override
+    public String toString() {
+        return "Calculate " + firstName + " + " + secondName + " --> " + targetName;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.calculate;
+
+import nl.basjes.parse.useragent.UserAgent;
+
+import java.io.Serializable;
+
+/**
+ * Calculates (or cleans up) a field from the values of other fields after all matchers have been applied.
+ */
+public interface FieldCalculator extends Serializable {
+
+    /**
+     * Calculate the field and store it in the userAgent.
+     * @param userAgent The parse result so far.
+     */
+    void calculate(UserAgent userAgent);
+
+    /**
+     * @return The name of the field that is calculated.
+     */
+    String getCalculatedFieldName();
+
+    /**
+     * @return The names of the fields that are needed to calculate the field.
+     */
+    String[] getDependencies();
+
+}
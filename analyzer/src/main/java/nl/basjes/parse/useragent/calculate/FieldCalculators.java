@@ -0,0 +1,115 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.calculate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static nl.basjes.parse.useragent.UserAgent.AGENT_NAME;
+import static nl.basjes.parse.useragent.UserAgent.AGENT_VERSION;
+import static nl.basjes.parse.useragent.UserAgent.AGENT_VERSION_MAJOR;
+import static nl.basjes.parse.useragent.UserAgent.LAYOUT_ENGINE_NAME;
+import static nl.basjes.parse.useragent.UserAgent.LAYOUT_ENGINE_VERSION;
+import static nl.basjes.parse.useragent.UserAgent.LAYOUT_ENGINE_VERSION_MAJOR;
+import static nl.basjes.parse.useragent.UserAgent.OPERATING_SYSTEM_NAME;
+import static nl.basjes.parse.useragent.UserAgent.OPERATING_SYSTEM_VERSION;
+
+/**
+ * All fields that are calculated from other fields after all matchers have been applied.
+ * A calculator is only executed if the field it calculates is wanted and the fields it depends on are
+ * automatically wanted too.
+ */
+public final class FieldCalculators {
+    private FieldCalculators() {
+    }
+
+    // In the order in which they must be executed (i.e. a calculator comes after the ones it depends on).
+    private static final List<FieldCalculator> ALL_CALCULATORS = Collections.unmodifiableList(Arrays.asList(
+        new MajorVersionCalculator(AGENT_VERSION_MAJOR,                  AGENT_VERSION),
+        new MajorVersionCalculator(LAYOUT_ENGINE_VERSION_MAJOR,          LAYOUT_ENGINE_VERSION),
+        new MajorVersionCalculator("WebviewAppVersionMajor",             "WebviewAppVersion"),
+
+        new ConcatNONDuplicatedCalculator("AgentNameVersion",             AGENT_NAME,             AGENT_VERSION),
+        new ConcatNONDuplicatedCalculator("AgentNameVersionMajor",        AGENT_NAME,             AGENT_VERSION_MAJOR),
+        new ConcatNONDuplicatedCalculator("WebviewAppNameVersionMajor",   "WebviewAppName",       "WebviewAppVersionMajor"),
+        new ConcatNONDuplicatedCalculator("LayoutEngineNameVersion",      LAYOUT_ENGINE_NAME,     LAYOUT_ENGINE_VERSION),
+        new ConcatNONDuplicatedCalculator("LayoutEngineNameVersionMajor", LAYOUT_ENGINE_NAME,     LAYOUT_ENGINE_VERSION_MAJOR),
+        new ConcatNONDuplicatedCalculator("OperatingSystemNameVersion",   OPERATING_SYSTEM_NAME,  OPERATING_SYSTEM_VERSION),
+
+        new CalculateDeviceBrand(),
+        new CalculateAgentEmail(),
+        new CalculateDeviceName()
+    ));
+
+    /**
+     * @return All calculators in the order in which they must be executed.
+     */
+    public static List<FieldCalculator> getAllCalculators() {
+        return ALL_CALCULATORS;
+    }
+
+    /**
+     * Add all fields that are needed to calculate the wanted fields (recursively).
+     * @param wantedFieldNames The wanted fields; the needed fields are appended to this.
+     */
+    public static void addDependencies(Collection<String> wantedFieldNames) {
+        Deque<String> todo = new ArrayDeque<>(wantedFieldNames);
+        while (!todo.isEmpty()) {
+            String fieldName = todo.pop();
+            for (FieldCalculator calculator : ALL_CALCULATORS) {
+                if (!calculator.getCalculatedFieldName().equals(fieldName)) {
+                    continue;
+                }
+                for (String dependency : calculator.getDependencies()) {
+                    if (!wantedFieldNames.contains(dependency)) {
+                        wantedFieldNames.add(dependency);
+                        todo.push(dependency);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param wantedFieldNames The wanted fields (null = all fields)
+     * @return The calculators that are needed for these fields (in the order in which they must be executed).
+     */
+    public static FieldCalculator[] getCalculators(Collection<String> wantedFieldNames) {
+        if (wantedFieldNames == null) {
+            return ALL_CALCULATORS.toArray(new FieldCalculator[ALL_CALCULATORS.size()]);
+        }
+        Set<String> neededFieldNames = new LinkedHashSet<>(wantedFieldNames);
+        addDependencies(neededFieldNames);
+
+        List<FieldCalculator> calculators = new ArrayList<>();
+        for (FieldCalculator calculator : ALL_CALCULATORS) {
+            if (neededFieldNames.contains(calculator.getCalculatedFieldName())) {
+                calculators.add(calculator);
+            }
+        }
+        return calculators.toArray(new FieldCalculator[calculators.size()]);
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.calculate;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.analyze.FieldSetter.AgentField;
+import nl.basjes.parse.useragent.utils.VersionSplitter;
+
+/**
+ * The major version is the first part of the version (unless a matcher already determined it).
+ */
+public class MajorVersionCalculator implements FieldCalculator {
+
+    private final String majorVersionName;
+    private final String versionName;
+
+    public MajorVersionCalculator(String majorVersionName, String versionName) {
+        this.majorVersionName = majorVersionName;
+        this.versionName = versionName;
+    }
+
+    @Override
+    public void calculate(UserAgent userAgent) {
+        AgentField majorVersion = userAgent.get(majorVersionName);
+        if (majorVersion != null && majorVersion.value != null && majorVersion.confidence != -1) {
+            return;
+        }
+        AgentField version = userAgent.get(versionName);
+        if (version == null) {
+            return;
+        }
+        userAgent.set(
+            majorVersionName,
+            VersionSplitter.getInstance().getSingleSplit(version.value == null ? UserAgent.getDefaultValue(versionName) : version.value, 1),
+            version.value == null ? -1 : version.confidence);
+    }
+
+    @Override
+    public String getCalculatedFieldName() {
+        return majorVersionName;
+    }
+
+    @Override
+    public String[] getDependencies() {
+        return new String[]{versionName};
+    }
+
+    @Override
+    public String toString() {
+        return "Calculate " + versionName + " --> " + majorVersionName;
+    }
+}
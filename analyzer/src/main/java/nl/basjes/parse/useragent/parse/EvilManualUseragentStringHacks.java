@@ -19,16 +19,16 @@ package nl.basjes.parse.useragent.parse;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.util.regex.Pattern;
 
 public final class EvilManualUseragentStringHacks {
     private EvilManualUseragentStringHacks() {
     }
 
-    private static final Pattern MISSING_PRODUCT_AT_START =
-        Pattern.compile("^\\(( |;|null|compatible|windows|android|linux).*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern MISSING_SPACE =
-        Pattern.compile("(/[0-9]+\\.[0-9]+)([A-Z][a-z][a-z][a-z]+ )");
+    // The useragents that start with a '(' followed by one of these (case insensitive) are missing the product.
+    private static final String[] MISSING_PRODUCT_AT_START = {" ", ";", "null", "compatible", "windows", "android", "linux"};
+
+    private static final String MACINTOSH = " (Macintosh); ";
+    private static final String GZIP_GFE  = ",gzip(gfe)";
 
     /**
      * There are a few situations where in order to parse the useragent we need to 'fix it'.
@@ -41,6 +41,10 @@ public final class EvilManualUseragentStringHacks {
         if (useragent == null) {
             return null;
         }
+        if (!needsFixing(useragent)) {
+            return useragent; // 99.99% of the cases nothing will change.
+        }
+
         String result = useragent;
 
         if (result.startsWith(" ")) {
@@ -48,17 +52,15 @@ public final class EvilManualUseragentStringHacks {
         }
 
         // We have seen problems causes by " Version/4.0Mobile Safari/530.17"
-        if (MISSING_SPACE.matcher(result).find()) {
-            result = MISSING_SPACE.matcher(result).replaceAll("$1 $2");
-        }
+        result = addMissingSpaces(result);
 
         // This one is a single useragent that hold significant traffic
-        if (result.contains(" (Macintosh); ")){
-            result = replaceString(result, " (Macintosh); ", " (Macintosh; ");
+        if (result.contains(MACINTOSH)){
+            result = replaceString(result, MACINTOSH, " (Macintosh; ");
         }
 
         // Repair certain cases of broken useragents (like we see for the Facebook app a lot)
-        if (MISSING_PRODUCT_AT_START.matcher(result).matches()){
+        if (isMissingProductAtStart(result)){
             // We simply prefix a fake product name to continue parsing.
             result = "Mozilla/5.0 " + result;
         } else {
@@ -70,8 +72,8 @@ public final class EvilManualUseragentStringHacks {
         }
 
         // Kick some garbage that sometimes occurs.
-        if (useragent.endsWith(",gzip(gfe)")) {
-            result = replaceString(result, ",gzip(gfe)", "");
+        if (useragent.endsWith(GZIP_GFE)) {
+            result = replaceString(result, GZIP_GFE, "");
         }
 
         // The Weibo useragent This one is a single useragent that hold significant traffic
@@ -89,7 +91,165 @@ public final class EvilManualUseragentStringHacks {
             }
         }
 
-        return result; // 99.99% of the cases nothing will have changed.
+        return result;
+    }
+
+    /**
+     * A single pass over the useragent that finds if any of the fixes would change something.
+     * @param useragent The raw useragent
+     * @return true if fixIt would return something different.
+     */
+    private static boolean needsFixing(String useragent) {
+        if (useragent.isEmpty()) {
+            return false;
+        }
+        char first = useragent.charAt(0);
+        if (first == ' ' || first == '/' || (first == '(' && isMissingProductAtStart(useragent))) {
+            return true;
+        }
+        if (useragent.endsWith(GZIP_GFE)) {
+            return true;
+        }
+        int length = useragent.length();
+        for (int i = 0; i < length - 1; i++) {
+            switch (useragent.charAt(i)) {
+                case '/':
+                    if (missingSpaceAt(useragent, i) != -1) {
+                        return true;
+                    }
+                    break;
+                case ' ':
+                    if (useragent.startsWith(MACINTOSH, i)) {
+                        return true;
+                    }
+                    break;
+                case '_':
+                    if (useragent.charAt(i + 1) == '_') {
+                        return true;
+                    }
+                    break;
+                case '%':
+                    if (useragent.startsWith("%20", i)) {
+                        return true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks for "/1.2Abcd " (i.e. the regex "/[0-9]+\\.[0-9]+[A-Z][a-z][a-z][a-z]+ ") at the offset.
+     * @return The offset where the missing space must be inserted or -1 if this is not the case.
+     */
+    private static int missingSpaceAt(String value, int offset) {
+        int length = value.length();
+        int i = offset + 1; // Skip the '/'
+        int digits = i;
+        while (i < length && isDigit(value.charAt(i))) {
+            i++;
+        }
+        if (i == digits || i >= length || value.charAt(i) != '.') {
+            return -1;
+        }
+        i++;
+        digits = i;
+        while (i < length && isDigit(value.charAt(i))) {
+            i++;
+        }
+        if (i == digits || i >= length || !isUpper(value.charAt(i))) {
+            return -1;
+        }
+        int insertAt = i;
+        i++;
+        int lowers = i;
+        while (i < length && isLower(value.charAt(i))) {
+            i++;
+        }
+        if (i - lowers < 3 || i >= length || value.charAt(i) != ' ') {
+            return -1;
+        }
+        return insertAt;
+    }
+
+    private static String addMissingSpaces(String value) {
+        StringBuilder result = null;
+        int copied = 0;
+        int slash = value.indexOf('/');
+        while (slash != -1) {
+            int insertAt = missingSpaceAt(value, slash);
+            if (insertAt != -1) {
+                if (result == null) {
+                    result = new StringBuilder(value.length() + 8);
+                }
+                result.append(value, copied, insertAt).append(' ');
+                copied = insertAt;
+            }
+            slash = value.indexOf('/', slash + 1);
+        }
+        if (result == null) {
+            return value;
+        }
+        return result.append(value, copied, value.length()).toString();
+    }
+
+    /**
+     * Same as the regex "^\\(( |;|null|compatible|windows|android|linux).*" (CASE_INSENSITIVE) with matches().
+     */
+    private static boolean isMissingProductAtStart(String value) {
+        if (!value.startsWith("(")) {
+            return false;
+        }
+        for (String missingProduct : MISSING_PRODUCT_AT_START) {
+            if (startsWithIgnoreAsciiCase(value, 1, missingProduct)) {
+                // The '.' in a regex does not match any of the line terminators.
+                for (int i = 1 + missingProduct.length(); i < value.length(); i++) {
+                    switch (value.charAt(i)) {
+                        case '\n':
+                        case '\r':
+                        case '\u0085':
+                        case '\u2028':
+                        case '\u2029':
+                            return false;
+                        default:
+                            break;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Without UNICODE_CASE a regex only folds the case of the US-ASCII characters.
+    private static boolean startsWithIgnoreAsciiCase(String value, int offset, String lowerCasePrefix) {
+        if (value.length() - offset < lowerCasePrefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCasePrefix.length(); i++) {
+            char c = value.charAt(offset + i);
+            if (isUpper(c)) {
+                c = (char) (c + ('a' - 'A'));
+            }
+            if (c != lowerCasePrefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isUpper(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isLower(char c) {
+        return c >= 'a' && c <= 'z';
     }
 
     public static String replaceString(
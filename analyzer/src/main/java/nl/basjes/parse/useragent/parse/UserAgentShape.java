@@ -0,0 +1,329 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.parse;
+
+import nl.basjes.parse.useragent.parser.UserAgentLexer;
+import nl.basjes.parse.useragent.utils.CaseInsensitive;
+import nl.basjes.parse.useragent.utils.Digits;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The shape of a useragent is the useragent (after the manual fixes) in which every run of digits has been
+ * replaced by a single '0'. So "Chrome/61.0.3163.100" and "Chrome/61.0.3163.98" have the same shape "Chrome/0.0.0.0".
+ * If two useragents with the same shape also have the same tokens then they have the same parse tree
+ * and they only differ in the digits of the texts of the nodes.
+ */
+public final class UserAgentShape {
+
+    // Creating a lexer is relatively expensive so each thread gets its own.
+    private static final ThreadLocal<UserAgentLexer> LEXER = ThreadLocal.withInitial(() -> {
+        UserAgentLexer lexer = new UserAgentLexer(CharStreams.fromString(""));
+        lexer.removeErrorListeners();
+        return lexer;
+    });
+
+    private static final int[] NO_TOKENS = new int[0];
+
+    private final String userAgentString;
+    private final String parsedUserAgent;
+    private final String key;
+
+    // The start and end (exclusive) of each run of digits in the parsed useragent.
+    private final int[] runStarts;
+    private final int[] runEnds;
+
+    private int[] tokens = null;
+
+    /**
+     * @param userAgentString The useragent (as it is given to the analyzer).
+     */
+    public UserAgentShape(String userAgentString) {
+        this.userAgentString = userAgentString;
+        parsedUserAgent = EvilManualUseragentStringHacks.fixIt(userAgentString);
+
+        int length = parsedUserAgent.length();
+        StringBuilder keyBuilder = new StringBuilder(length);
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int runs = 0;
+        int i = 0;
+        while (i < length) {
+            if (!Digits.isDigit(parsedUserAgent.charAt(i))) {
+                keyBuilder.append(parsedUserAgent.charAt(i));
+                i++;
+                continue;
+            }
+            if (runs == starts.length) {
+                starts = Arrays.copyOf(starts, runs * 2);
+                ends = Arrays.copyOf(ends, runs * 2);
+            }
+            starts[runs] = i;
+            while (i < length && Digits.isDigit(parsedUserAgent.charAt(i))) {
+                i++;
+            }
+            ends[runs] = i;
+            runs++;
+            keyBuilder.append('0');
+        }
+        key = keyBuilder.toString();
+        runStarts = Arrays.copyOf(starts, runs);
+        runEnds = Arrays.copyOf(ends, runs);
+    }
+
+    public String getUserAgentString() {
+        return userAgentString;
+    }
+
+    /**
+     * @return The useragent exactly as it is parsed (i.e. after the manual fixes).
+     */
+    public String getParsedUserAgent() {
+        return parsedUserAgent;
+    }
+
+    /**
+     * @return The shape itself: the parsed useragent with each run of digits replaced by a single '0'.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public int getNumberOfDigitRuns() {
+        return runStarts.length;
+    }
+
+    public String getDigitRun(int run) {
+        return parsedUserAgent.substring(runStarts[run], runEnds[run]);
+    }
+
+    /**
+     * Mark the runs of digits that overlap a range of characters of the parsed useragent.
+     * @param start The first character of the range
+     * @param stop The last character of the range
+     * @param runs The runs (by index) are set in here
+     */
+    public void markRuns(int start, int stop, BitSet runs) {
+        for (int run = 0; run < runStarts.length; run++) {
+            if (runEnds[run] > start && runStarts[run] <= stop) {
+                runs.set(run);
+            }
+        }
+    }
+
+    /**
+     * Mark the runs of digits of all the places where something with the given shape can occur
+     * (i.e. the places where it could occur if only the digits of the useragent were different).
+     * @param lowerCaseShape The shape (see Digits.shapeOf) in lowercase
+     * @param runs The runs (by index) are set in here
+     */
+    public void markOccurrences(String lowerCaseShape, BitSet runs) {
+        for (int offset = 0; offset + lowerCaseShape.length() <= key.length(); offset++) {
+            if (!CaseInsensitive.regionMatches(key, offset, lowerCaseShape)) {
+                continue;
+            }
+            // Each '0' in the shape is a run of digits.
+            int run = 0;
+            for (int i = 0; i < offset + lowerCaseShape.length(); i++) {
+                if (key.charAt(i) == '0') {
+                    if (i >= offset) {
+                        runs.set(run);
+                    }
+                    run++;
+                }
+            }
+        }
+    }
+
+    /**
+     * The tokens of the parsed useragent as (type, start, stop) where start and stop are positions in the shape.
+     * Two useragents with the same shape and the same tokens produce the same parse tree.
+     * @return The tokens or an empty array if a token starts or ends inside a run of digits (or in some rare cases
+     * that are not supported).
+     */
+    public int[] getTokens() {
+        if (tokens != null) {
+            return tokens;
+        }
+
+        int length = parsedUserAgent.length();
+        if (parsedUserAgent.codePointCount(0, length) != length) {
+            // The lexer works with the positions of the code points instead of the chars; simply not supported.
+            tokens = NO_TOKENS;
+            return tokens;
+        }
+
+        // The position of each character of the parsed useragent in the shape
+        int[] shapePositions = new int[length];
+        int shapePosition = -1;
+        for (int i = 0; i < length; i++) {
+            if (!isInsideRun(i)) {
+                shapePosition++;
+            }
+            shapePositions[i] = shapePosition;
+        }
+
+        UserAgentLexer lexer = LEXER.get();
+        lexer.setInputStream(CharStreams.fromString(parsedUserAgent));
+        int[] result = new int[3 * 32];
+        int used = 0;
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            int start = token.getStartIndex();
+            int stop = token.getStopIndex();
+            if (isInsideRun(start) || (stop + 1 < length && isInsideRun(stop + 1))) {
+                tokens = NO_TOKENS;
+                return tokens;
+            }
+            if (used + 3 > result.length) {
+                result = Arrays.copyOf(result, result.length * 2);
+            }
+            result[used++] = token.getType();
+            result[used++] = shapePositions[start];
+            result[used++] = stop < 0 ? -1 : shapePositions[stop];
+        }
+        tokens = Arrays.copyOf(result, used);
+        return tokens;
+    }
+
+    // Is this a digit that is not the first one of its run?
+    private boolean isInsideRun(int index) {
+        return index > 0 &&
+            Digits.isDigit(parsedUserAgent.charAt(index)) &&
+            Digits.isDigit(parsedUserAgent.charAt(index - 1));
+    }
+
+    /**
+     * Find where a value (with at least one digit) could have come from in the parsed useragent.
+     * The value may have been cleaned up: the case of the letters may differ and a '_' may have become a '.'.
+     * @param value The value
+     * @return The first digit run of each place where the value occurs with all of its digit runs
+     * exactly matching the digit runs of the useragent.
+     */
+    public int[] findDigitRuns(String value) {
+        int[] valueRunStarts = new int[value.length()];
+        int[] valueRunEnds = new int[value.length()];
+        int valueRuns = findRuns(value, valueRunStarts, valueRunEnds);
+        if (valueRuns == 0) {
+            return new int[0];
+        }
+
+        int[] result = new int[runStarts.length];
+        int found = 0;
+        for (int first = 0; first + valueRuns <= runStarts.length; first++) {
+            if (occursAt(value, valueRunStarts, valueRunEnds, valueRuns, first)) {
+                result[found++] = first;
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    private boolean occursAt(String value, int[] valueRunStarts, int[] valueRunEnds, int valueRuns, int first) {
+        // The text before the first digit run
+        int prefixLength = valueRunStarts[0];
+        int prefixStart = runStarts[first] - prefixLength;
+        if (prefixStart < 0 || !sameText(prefixStart, value, 0, prefixLength)) {
+            return false;
+        }
+
+        for (int run = 0; run < valueRuns; run++) {
+            int runStart = runStarts[first + run];
+            int runLength = runEnds[first + run] - runStart;
+            if (valueRunEnds[run] - valueRunStarts[run] != runLength ||
+                !parsedUserAgent.regionMatches(runStart, value, valueRunStarts[run], runLength)) {
+                return false;
+            }
+            if (run + 1 < valueRuns) {
+                // The text between two digit runs must match completely
+                int betweenLength = valueRunStarts[run + 1] - valueRunEnds[run];
+                if (runStarts[first + run + 1] - runEnds[first + run] != betweenLength ||
+                    !sameText(runEnds[first + run], value, valueRunEnds[run], betweenLength)) {
+                    return false;
+                }
+            }
+        }
+
+        // The text after the last digit run
+        int suffixStart = runEnds[first + valueRuns - 1];
+        int suffixLength = value.length() - valueRunEnds[valueRuns - 1];
+        return suffixStart + suffixLength <= parsedUserAgent.length() &&
+            sameText(suffixStart, value, valueRunEnds[valueRuns - 1], suffixLength);
+    }
+
+    private boolean sameText(int offset, String value, int valueOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            char actual = parsedUserAgent.charAt(offset + i);
+            char cleaned = value.charAt(valueOffset + i);
+            if (actual != cleaned &&
+                !(actual == '_' && cleaned == '.') &&
+                Character.toLowerCase(actual) != Character.toLowerCase(cleaned) &&
+                Character.toUpperCase(actual) != Character.toUpperCase(cleaned)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace the digit runs of a value with the digit runs of this useragent.
+     * @param value The value (with at least one digit)
+     * @param firstRun The digit run of this useragent that replaces the first digit run of the value.
+     * @return The value with the digit runs replaced or null if this useragent does not have enough digit runs.
+     */
+    public String replaceDigitRuns(String value, int firstRun) {
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        int run = firstRun;
+        int i = 0;
+        while (i < value.length()) {
+            if (!Digits.isDigit(value.charAt(i))) {
+                sb.append(value.charAt(i));
+                i++;
+                continue;
+            }
+            if (run >= runStarts.length) {
+                return null;
+            }
+            sb.append(parsedUserAgent, runStarts[run], runEnds[run]);
+            run++;
+            while (i < value.length() && Digits.isDigit(value.charAt(i))) {
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int findRuns(String value, int[] starts, int[] ends) {
+        int runs = 0;
+        int i = 0;
+        while (i < value.length()) {
+            if (!Digits.isDigit(value.charAt(i))) {
+                i++;
+                continue;
+            }
+            starts[runs] = i;
+            while (i < value.length() && Digits.isDigit(value.charAt(i))) {
+                i++;
+            }
+            ends[runs] = i;
+            runs++;
+        }
+        return runs;
+    }
+}
@@ -18,7 +18,9 @@
 package nl.basjes.parse.useragent.parse;
 
 import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.analyze.InformPathTrie;
 import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext;
 import nl.basjes.parse.useragent.parser.UserAgentBaseListener;
 import nl.basjes.parse.useragent.parser.UserAgentLexer;
 import nl.basjes.parse.useragent.parser.UserAgentParser;
@@ -53,22 +55,35 @@ import nl.basjes.parse.useragent.parser.UserAgentParser.VersionWordsContext;
 import nl.basjes.parse.useragent.utils.Splitter;
 import nl.basjes.parse.useragent.utils.VersionSplitter;
 import nl.basjes.parse.useragent.utils.WordSplitter;
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.ANTLRErrorStrategy;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CodePointCharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.Parser;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.antlr.v4.runtime.tree.ParseTreeProperty;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
-import org.apache.commons.lang3.tuple.Pair;
+import org.antlr.v4.runtime.tree.RuleNode;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Serializable;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
@@ -84,8 +99,31 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
         void inform(String path, String value, ParseTree ctx);
     }
 
+    public interface PathIdAnalyzer {
+        void inform(int pathId, String value, ParseTree ctx);
+
+        /**
+         * Called before any of the paths with the useragent exactly as it is parsed (i.e. after the manual fixes).
+         * @param userAgent The useragent
+         */
+        default void informUserAgent(String userAgent) {
+        }
+
+        /**
+         * Called after the useragent has been parsed (before any of the paths).
+         * @param parseTree The root of the parse tree
+         */
+        default void informParseTree(ParseTree parseTree) {
+        }
+    }
+
+    // Either the analyzer (that receives the paths as strings) is present
+    // or the pathIdAnalyzer with the informPathTrie (that only receives the ids of the paths in the trie).
     private final Analyzer analyzer;
     private final Map<String, Set<Range>> informMatcherActionRanges;
+    private final PathIdAnalyzer pathIdAnalyzer;
+    private final InformPathTrie informPathTrie;
+    private final boolean twoStageParsing;
     private final ParseTreeProperty<State> states = new ParseTreeProperty<>();
 
     private enum PathType {
@@ -107,31 +145,70 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
         long version = 0;
         long comment = 0;
         final String name;
-        final String path;
+        // An optional extra step directly below name (i.e. the "email" of "name.(1)email").
+        final String childName;
+        // Without an informPathTrie we have the path, with an informPathTrie we have the id of the path.
+        String path = null;
+        int pathId = InformPathTrie.NONE;
+        // A pruned node is not in the informPathTrie (i.e. no matcher is interested in it or anything below it).
+        boolean pruned = false;
 
         private State(String name, UserAgentContext rootContext) {
             this.name = name;
-            this.path = name;
+            this.childName = null;
             states.put(rootContext, this);
+            setRootPath();
         }
 
         private State(String name, ParseTree ctx, boolean fakeChild) {
+            this(name, null, ctx, fakeChild);
+        }
+
+        private State(String name, String childName, ParseTree ctx, boolean fakeChild) {
             this.name = name;
+            this.childName = childName;
             if (!fakeChild) states.put(ctx, this);
-            path = calculatePath(ctx, fakeChild);
+            calculatePath(ctx, fakeChild);
         }
 
-        private String calculatePath(ParseTree ctx, boolean fakeChild) {
+        private void setRootPath() {
+            if (informPathTrie == null) {
+                path = name;
+            } else {
+                pathId = informPathTrie.getChild(InformPathTrie.ROOT, name.toLowerCase(Locale.ENGLISH), 0);
+                pruned = pathId == InformPathTrie.NONE;
+            }
+        }
+
+        private void setPath(State parentState, long counter) {
+            if (informPathTrie == null) {
+                path = parentState.path + ".(" + counter + ')' + name;
+                if (childName != null) {
+                    path = path + ".(1)" + childName;
+                }
+            } else {
+                // Nobody is interested in anything below a pruned node.
+                pathId = parentState.pruned ? InformPathTrie.NONE : informPathTrie.getChild(parentState.pathId, name, counter);
+                if (childName != null) {
+                    pathId = informPathTrie.getChild(pathId, childName, 1);
+                }
+                pruned = pathId == InformPathTrie.NONE;
+            }
+        }
+
+        private void calculatePath(ParseTree ctx, boolean fakeChild) {
             ParseTree node = ctx;
             if (node == null) {
-                return name;
+                setRootPath();
+                return;
             }
             State parentState = null;
 
             while (parentState == null) {
                 node = node.getParent();
                 if (node == null) {
-                    return name;
+                    setRootPath();
+                    return;
                 }
                 parentState = states.get(node);
             }
@@ -159,73 +236,229 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
                 default:
             }
 
-            return parentState.path + ".(" + counter + ')' + name;
+            setPath(parentState, counter);
         }
     }
 
+    /**
+     * Walks the tree yet does not descend into the subtrees that have been pruned.
+     */
+    private final class PruningTreeWalker extends ParseTreeWalker {
+        @Override
+        public void walk(ParseTreeListener listener, ParseTree tree) {
+            if (!(tree instanceof RuleNode)) {
+                super.walk(listener, tree);
+                return;
+            }
+            RuleNode ruleNode = (RuleNode) tree;
+            enterRule(listener, ruleNode);
+            State state = states.get(ruleNode);
+            if (state == null || !state.pruned) {
+                for (int i = 0; i < ruleNode.getChildCount(); i++) {
+                    walk(listener, ruleNode.getChild(i));
+                }
+            }
+            exitRule(listener, ruleNode);
+        }
+    }
 
-    private UserAgentTreeFlattener(Analyzer analyzer, Map<String, Set<Range>> informMatcherActionRanges) {
+    private UserAgentTreeFlattener(Analyzer analyzer, Map<String, Set<Range>> informMatcherActionRanges,
+                                   PathIdAnalyzer pathIdAnalyzer, InformPathTrie informPathTrie, boolean twoStageParsing) {
         this.analyzer = analyzer;
         this.informMatcherActionRanges = informMatcherActionRanges;
+        this.pathIdAnalyzer = pathIdAnalyzer;
+        this.informPathTrie = informPathTrie;
+        this.twoStageParsing = twoStageParsing;
     }
 
     public static void parse(UserAgent userAgent, Map<String, Set<Range>> informMatcherActionRanges, Analyzer analyzer) {
+        parse(userAgent, informMatcherActionRanges, analyzer, false);
+    }
+
+    /**
+     * Parse the useragent and inform the analyzer about all the nodes found in the parse tree.
+     * @param userAgent The useragent to parse
+     * @param informMatcherActionRanges The word ranges that must be informed
+     * @param analyzer The receiver of all the paths and values
+     * @param twoStageParsing First try the faster SLL prediction mode and only fall back to full LL if that fails.
+     *                        NOTE: For ambiguous input SLL can pick a different alternative than LL would
+     *                        and ambiguities are only reported if the fallback is used.
+     */
+    public static void parse(UserAgent userAgent, Map<String, Set<Range>> informMatcherActionRanges, Analyzer analyzer,
+                             boolean twoStageParsing) {
+        if (userAgent.getUserAgentString() == null) {
+            userAgent.set(SYNTAX_ERROR, "true", 1);
+        } else {
+            new UserAgentTreeFlattener(analyzer, informMatcherActionRanges, null, null, twoStageParsing).parse(userAgent);
+        }
+    }
+
+    /**
+     * Parse the useragent and inform the analyzer about the nodes found in the parse tree that are in the informPathTrie.
+     * Subtrees that are not in the informPathTrie are skipped entirely and no path strings are created at all.
+     * @param userAgent The useragent to parse
+     * @param informPathTrie The paths (and word ranges) that must be informed.
+     * @param pathIdAnalyzer The receiver of the ids of the paths and the values
+     * @param twoStageParsing First try the faster SLL prediction mode and only fall back to full LL if that fails.
+     */
+    public static void parse(UserAgent userAgent, InformPathTrie informPathTrie, PathIdAnalyzer pathIdAnalyzer,
+                             boolean twoStageParsing) {
         if (userAgent.getUserAgentString() == null) {
             userAgent.set(SYNTAX_ERROR, "true", 1);
         } else {
-            new UserAgentTreeFlattener(analyzer, informMatcherActionRanges).parse(userAgent);
+            new UserAgentTreeFlattener(null, Collections.emptyMap(), pathIdAnalyzer, informPathTrie, twoStageParsing).parse(userAgent);
         }
     }
 
     private void parse(UserAgent userAgent) {
         // Parse the userAgent into tree
         UserAgentContext userAgentContext = parseUserAgent(userAgent);
+        if (pathIdAnalyzer != null) {
+            pathIdAnalyzer.informParseTree(userAgentContext);
+        }
 
         // Walk the tree an inform the calling analyzer about all the nodes found
         new State("agent", userAgentContext);
         inform(null, SYNTAX_ERROR, Boolean.toString(userAgent.hasSyntaxError()));
-        ParseTreeWalker.DEFAULT.walk(this, userAgentContext);
+        if (informPathTrie == null) {
+            ParseTreeWalker.DEFAULT.walk(this, userAgentContext);
+        } else {
+            new PruningTreeWalker().walk(this, userAgentContext);
+        }
     }
 
     // =================================================================================
 
-    private String inform(ParseTree ctx, String path) {
-        return inform(ctx, path, getSourceText((ParserRuleContext)ctx));
+    private void inform(ParseTree ctx, String name) {
+        State state = new State(name, ctx, false);
+        if (!state.pruned) {
+            inform(state, getSourceText((ParserRuleContext)ctx), ctx);
+        }
     }
 
-    private String inform(ParseTree ctx, String name, String value) {
-        return inform(ctx, ctx, name, value, false);
+    private void inform(ParseTree ctx, String name, String value) {
+        inform(ctx, ctx, name, value, false);
     }
 
-    private String inform(ParseTree ctx, String name, String value, boolean fakeChild) {
-        return inform(ctx, ctx, name, value, fakeChild);
+    private void inform(ParseTree ctx, String name, String value, boolean fakeChild) {
+        inform(ctx, ctx, name, value, fakeChild);
     }
 
-    private String inform(ParseTree stateCtx, ParseTree ctx, String name, String value, boolean fakeChild) {
-        String path = new State(name, stateCtx, fakeChild).path;
-        analyzer.inform(path, value, ctx);
-        return path;
+    private void inform(ParseTree stateCtx, ParseTree ctx, String name, String value, boolean fakeChild) {
+        State state = new State(name, stateCtx, fakeChild);
+        if (!state.pruned) {
+            inform(state, value, ctx);
+        }
+    }
+
+    // Informs the path "name.(1)childName"
+    private void informChild(ParseTree ctx, String name, String childName, String value, boolean fakeChild) {
+        State state = new State(name, childName, ctx, fakeChild);
+        if (!state.pruned) {
+            inform(state, value, ctx);
+        }
+    }
+
+    private void inform(State state, String value, ParseTree ctx) {
+        if (informPathTrie == null) {
+            analyzer.inform(state.path, value, ctx);
+        } else {
+            pathIdAnalyzer.inform(state.pathId, value, ctx);
+        }
     }
 //  =================================================================================
 
     private UserAgentContext parseUserAgent(UserAgent userAgent) {
         String userAgentString = EvilManualUseragentStringHacks.fixIt(userAgent.getUserAgentString());
+        if (pathIdAnalyzer != null) {
+            pathIdAnalyzer.informUserAgent(userAgentString);
+        }
+        return PARSER_CONTEXT.get().parse(userAgentString, userAgent, twoStageParsing);
+    }
+
+    // Creating the lexer, parser and all related objects is relatively expensive.
+    // So each thread gets its own set which is reused for all parses done by that thread.
+    private static final ThreadLocal<ParserContext> PARSER_CONTEXT = ThreadLocal.withInitial(ParserContext::new);
+
+    private static final class ParserContext implements ANTLRErrorListener {
+        private final ANTLRErrorStrategy bailErrorStrategy = new BailErrorStrategy();
+        private final ANTLRErrorStrategy defaultErrorStrategy = new DefaultErrorStrategy();
 
-        CodePointCharStream input = CharStreams.fromString(userAgentString);
-        UserAgentLexer lexer = new UserAgentLexer(input);
+        private final UserAgentLexer lexer;
+        private final CommonTokenStream tokens;
+        private final UserAgentParser parser;
 
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        // All errors are forwarded to the useragent that is currently being parsed.
+        private ANTLRErrorListener currentListener;
 
-        UserAgentParser parser = new UserAgentParser(tokens);
+        private ParserContext() {
+            lexer = new UserAgentLexer(CharStreams.fromString(""));
+            tokens = new CommonTokenStream(lexer);
+            parser = new UserAgentParser(tokens);
 
-        if (!LOG.isDebugEnabled()) {
             lexer.removeErrorListeners();
             parser.removeErrorListeners();
+            lexer.addErrorListener(this);
+            parser.addErrorListener(this);
+        }
+
+        UserAgentContext parse(String userAgentString, UserAgent userAgent, boolean twoStageParsing) {
+            currentListener = userAgent;
+            try {
+                lexer.setInputStream(CharStreams.fromString(userAgentString));
+                tokens.setTokenSource(lexer);
+                parser.setTokenStream(tokens);
+
+                if (twoStageParsing) {
+                    // Stage 1: SLL without any error reporting. The first problem aborts the parse.
+                    parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+                    parser.setErrorHandler(bailErrorStrategy);
+                    parser.removeErrorListeners();
+                    try {
+                        return parser.userAgent();
+                    } catch (ParseCancellationException pce) {
+                        // Stage 2: Rewind and do it again with full LL and the normal error handling.
+                        // The lexer errors (if any) have already been reported during the first stage.
+                        tokens.seek(0);
+                        parser.reset();
+                    } finally {
+                        parser.addErrorListener(this);
+                    }
+                }
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                parser.setErrorHandler(defaultErrorStrategy);
+                return parser.userAgent();
+            } finally {
+                currentListener = null;
+            }
         }
-        lexer.addErrorListener(userAgent);
-        parser.addErrorListener(userAgent);
 
-        return parser.userAgent();
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                                String msg, RecognitionException e) {
+            if (LOG.isDebugEnabled()) {
+                ConsoleErrorListener.INSTANCE.syntaxError(recognizer, offendingSymbol, line, charPositionInLine, msg, e);
+            }
+            currentListener.syntaxError(recognizer, offendingSymbol, line, charPositionInLine, msg, e);
+        }
+
+        @Override
+        public void reportAmbiguity(Parser recognizer, DFA dfa, int startIndex, int stopIndex, boolean exact,
+                                    BitSet ambigAlts, ATNConfigSet configs) {
+            currentListener.reportAmbiguity(recognizer, dfa, startIndex, stopIndex, exact, ambigAlts, configs);
+        }
+
+        @Override
+        public void reportAttemptingFullContext(Parser recognizer, DFA dfa, int startIndex, int stopIndex,
+                                                BitSet conflictingAlts, ATNConfigSet configs) {
+            currentListener.reportAttemptingFullContext(recognizer, dfa, startIndex, stopIndex, conflictingAlts, configs);
+        }
+
+        @Override
+        public void reportContextSensitivity(Parser recognizer, DFA dfa, int startIndex, int stopIndex,
+                                             int prediction, ATNConfigSet configs) {
+            currentListener.reportContextSensitivity(recognizer, dfa, startIndex, stopIndex, prediction, configs);
+        }
     }
 
     private Set<Range> getRequiredInformRanges(String treeName) {
@@ -240,7 +473,8 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
         // TODO: Remove this workaround for the Antlr 4.7 bug described here https://github.com/antlr/antlr4/issues/1949
 //        String input = ctx.start.getTokenSource().getInputStream().toString();
         String input = "";
-        CharStream inputCharStream = ctx.start.getTokenSource().getInputStream();
+        // NOTE: The lexer (i.e. the token source) is reused so we must use the input of the token itself.
+        CharStream inputCharStream = ctx.start.getInputStream();
         if (inputCharStream.size() > 0) {
             input = inputCharStream.toString();
         }
@@ -270,13 +504,13 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
     @Override
     public void enterProductNameEmail(ProductNameEmailContext ctx) {
         inform(ctx, "name");
-        inform(ctx, "name.(1)email", ctx.getText(), true);
+        informChild(ctx, "name", "email", ctx.getText(), true);
     }
 
     @Override
     public void enterProductNameUrl(ProductNameUrlContext ctx) {
         inform(ctx, "name");
-        inform(ctx, "name.(1)url", ctx.getText(), true);
+        informChild(ctx, "name", "url", ctx.getText(), true);
     }
 
     @Override
@@ -286,7 +520,7 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
 
     @Override
     public void enterProductNameKeyValue(ProductNameKeyValueContext ctx) {
-        inform(ctx, "name.(1)keyvalue", ctx.getText(), false);
+        informChild(ctx, "name", "keyvalue", ctx.getText(), false);
         informSubstrings(ctx, "name", true);
     }
 
@@ -375,32 +609,62 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
     }
 
     private void informSubstrings(ParserRuleContext ctx, String name, boolean fakeChild, Splitter splitter) {
+        State state = new State(name, ctx, fakeChild);
+        if (state.pruned) {
+            return;
+        }
         String text = getSourceText(ctx);
-        String path = inform(ctx, name, text, fakeChild);
+        inform(state, text, ctx);
+        if (informPathTrie != null) {
+            informSubstringRanges(ctx, name, text, informPathTrie.getRanges(state.pathId), splitter);
+            return;
+        }
+
+        String path = state.path;
         Set<Range> ranges = getRequiredInformRanges(path);
 
-        if (ranges.size() > 4) { // Benchmarks showed this to be the breakeven point. (see below)
-            List<Pair<Integer, Integer>> splitList = splitter.createSplitList(text);
-            for (Range range : ranges) {
-                inform(ctx, ctx, name + "[" + range.getFirst() + "-" + range.getLast() + "]", splitter.getSplitRange(text, splitList, range), true);
+        for (Range range : ranges) {
+            inform(ctx, ctx, name + "[" + range.getFirst() + "-" + range.getLast() + "]", getSplitRange(ctx, splitter, text, range), true);
+        }
+    }
+
+    private void informSubstringRanges(ParserRuleContext ctx, String name, String text, Range[] ranges, Splitter splitter) {
+        if (ranges.length == 0) {
+            return;
+        }
+        // Just like the fake child "name[first-last]" above these are always counted as a 'child' of the parent.
+        int rangeBaseId = getFakeChildId(ctx, name);
+        if (rangeBaseId == InformPathTrie.NONE) {
+            return;
+        }
+
+        for (Range range : ranges) {
+            int rangeId = informPathTrie.getRangeChild(rangeBaseId, range);
+            if (rangeId == InformPathTrie.NONE) {
+                continue;
             }
-        } else {
-            for (Range range : ranges) {
-                inform(ctx, ctx, name + "[" + range.getFirst() + "-" + range.getLast() + "]", splitter.getSplitRange(text, range), true);
+            String value = getSplitRange(ctx, splitter, text, range);
+            pathIdAnalyzer.inform(rangeId, value, ctx);
+        }
+    }
+
+    private int getFakeChildId(ParseTree ctx, String name) {
+        for (ParseTree node = ctx.getParent(); node != null; node = node.getParent()) {
+            State parentState = states.get(node);
+            if (parentState != null) {
+                return parentState.pruned ? InformPathTrie.NONE : informPathTrie.getChild(parentState.pathId, name, parentState.child);
             }
         }
+        return informPathTrie.getChild(InformPathTrie.ROOT, name, 0);
     }
 
-    // # Ranges | Direct                   |  SplitList
-    // 1        |    1.664 ± 0.010  ns/op  |    99.378 ± 1.548  ns/op
-    // 2        |   38.103 ± 0.479  ns/op  |   115.808 ± 1.055  ns/op
-    // 3        |  109.023 ± 0.849  ns/op  |   141.473 ± 6.702  ns/op
-    // 4        |  162.917 ± 1.842  ns/op  |   166.120 ± 7.166  ns/op  <-- Break even
-    // 5        |  264.877 ± 6.264  ns/op  |   176.334 ± 3.999  ns/op
-    // 6        |  356.914 ± 2.573  ns/op  |   196.640 ± 1.306  ns/op
-    // 7        |  446.930 ± 3.329  ns/op  |   215.499 ± 3.410  ns/op
-    // 8        |  533.153 ± 2.250  ns/op  |   233.241 ± 5.311  ns/op
-    // 9        |  519.130 ± 3.495  ns/op  |   250.921 ± 6.107  ns/op
+    // The splits of the text of a node are determined only once per parse and shared with StepWordRange.
+    private static String getSplitRange(ParserRuleContext ctx, Splitter splitter, String text, Range range) {
+        if (ctx instanceof CachingParserRuleContext) {
+            return ((CachingParserRuleContext) ctx).getSplitRange(splitter, text, range.getFirst(), range.getLast());
+        }
+        return splitter.getSplitRange(text, range);
+    }
 
     @Override
     public void enterMultipleWords(MultipleWordsContext ctx) {
@@ -0,0 +1,153 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds all occurrences of a (large) set of needles in a single pass over the input (Aho-Corasick).
+ * The input is compared case insensitive: each character is folded with Character.toLowerCase(char)
+ * (just like CaseInsensitive does) so the needles must already be in lowercase.
+ */
+public final class AhoCorasick implements Serializable {
+
+    private static final int   ROOT       = 0;
+    private static final int   NO_STATE   = -1;
+    private static final int[] NO_NEEDLES = new int[0];
+
+    // Per state: the sorted characters of the outgoing transitions and the states they lead to.
+    private final char[][] transitionChars;
+    private final int[][]  transitionStates;
+    // Per state: the state of the longest proper suffix that is also in the trie.
+    private final int[]    failure;
+    // Per state: the ids of all needles that end in this state (including the ones that are a suffix of it).
+    private final int[][]  needleIds;
+    private final int      numberOfNeedles;
+
+    /**
+     * @param needles The lowercase needles. The id of a needle is its index in this list.
+     */
+    public AhoCorasick(List<String> needles) {
+        numberOfNeedles = needles.size();
+
+        // Build the trie
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<BitSet> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(new BitSet());
+        for (int id = 0; id < needles.size(); id++) {
+            int state = ROOT;
+            for (char c : needles.get(id).toCharArray()) {
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    ends.add(new BitSet());
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            ends.get(state).set(id);
+        }
+
+        int states = trie.size();
+        transitionChars = new char[states][];
+        transitionStates = new int[states][];
+        for (int state = 0; state < states; state++) {
+            Map<Character, Integer> transitions = trie.get(state);
+            transitionChars[state] = new char[transitions.size()];
+            transitionStates[state] = new int[transitions.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                transitionChars[state][i] = transition.getKey();
+                transitionStates[state][i] = transition.getValue();
+                i++;
+            }
+        }
+
+        // Breadth first so the failure state of the parent (and its needles) are always complete.
+        failure = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : transitionStates[ROOT]) {
+            failure[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                char c = transitionChars[state][i];
+                int child = transitionStates[state][i];
+                failure[child] = next(failure[state], c);
+                ends.get(child).or(ends.get(failure[child]));
+                queue.add(child);
+            }
+        }
+
+        needleIds = new int[states][];
+        for (int state = 0; state < states; state++) {
+            BitSet stateEnds = ends.get(state);
+            needleIds[state] = stateEnds.isEmpty() ? NO_NEEDLES : stateEnds.stream().toArray();
+        }
+    }
+
+    private int transition(int state, char c) {
+        int index = Arrays.binarySearch(transitionChars[state], c);
+        return index < 0 ? NO_STATE : transitionStates[state][index];
+    }
+
+    private int next(int fromState, char c) {
+        int state = fromState;
+        while (true) {
+            int next = transition(state, c);
+            if (next != NO_STATE) {
+                return next;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+
+    /**
+     * Find all needles that occur in the input (ignoring case).
+     * @param input The string to search in
+     * @param found For each needle that occurs in the input the bit of its id is set.
+     */
+    public void findAll(String input, BitSet found) {
+        int state = ROOT;
+        for (int i = 0; i < input.length(); i++) {
+            state = next(state, Character.toLowerCase(input.charAt(i)));
+            for (int id : needleIds[state]) {
+                found.set(id);
+            }
+        }
+    }
+
+    public int getNumberOfNeedles() {
+        return numberOfNeedles;
+    }
+}
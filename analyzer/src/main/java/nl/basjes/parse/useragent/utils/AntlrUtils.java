@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.utils;
 
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.stepdown.CachingParserRuleContext;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.misc.Interval;
@@ -26,6 +27,13 @@ public final class AntlrUtils {
     }
 
     public static String getSourceText(ParserRuleContext ctx){
+        if (ctx instanceof CachingParserRuleContext) {
+            return ((CachingParserRuleContext) ctx).getSourceText();
+        }
+        return readSourceText(ctx);
+    }
+
+    public static String readSourceText(ParserRuleContext ctx){
         int startIndex = ctx.start.getStartIndex();
         int stopIndex = ctx.stop.getStopIndex();
         if (stopIndex < startIndex) {
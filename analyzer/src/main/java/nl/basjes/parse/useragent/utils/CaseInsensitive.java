@@ -0,0 +1,109 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+/**
+ * Case insensitive string operations that do not create a lowercase copy of the input.
+ * All characters are compared after Character.toLowerCase(char).
+ * The 'lowerCase' arguments must already be in lowercase.
+ */
+public final class CaseInsensitive {
+    private CaseInsensitive() {
+    }
+
+    private static boolean sameChar(char actual, char lowerCase) {
+        return actual == lowerCase || Character.toLowerCase(actual) == lowerCase;
+    }
+
+    /**
+     * Compares a region of the value with the entire lowercase string.
+     * @param value The value to look in
+     * @param offset The offset in the value where the region starts
+     * @param lowerCase The lowercase string
+     * @return true if the region matches.
+     */
+    public static boolean regionMatches(String value, int offset, String lowerCase) {
+        if (offset < 0 || offset + lowerCase.length() > value.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length(); i++) {
+            if (!sameChar(value.charAt(offset + i), lowerCase.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean equals(String value, String lowerCase) {
+        return value.length() == lowerCase.length() && regionMatches(value, 0, lowerCase);
+    }
+
+    public static boolean startsWith(String value, String lowerCase) {
+        return regionMatches(value, 0, lowerCase);
+    }
+
+    public static boolean endsWith(String value, String lowerCase) {
+        return regionMatches(value, value.length() - lowerCase.length(), lowerCase);
+    }
+
+    public static boolean contains(String value, String lowerCase) {
+        if (lowerCase.isEmpty()) {
+            return true;
+        }
+        char first = lowerCase.charAt(0);
+        int lastStart = value.length() - lowerCase.length();
+        for (int offset = 0; offset <= lastStart; offset++) {
+            if (sameChar(value.charAt(offset), first) && regionMatches(value, offset, lowerCase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares two strings (both in any case).
+     * @param value1 The first string
+     * @param value2 The second string
+     * @return true if both are the same after folding them to lowercase.
+     */
+    public static boolean equalsIgnoreCase(String value1, String value2) {
+        if (value1.length() != value2.length()) {
+            return false;
+        }
+        for (int i = 0; i < value1.length(); i++) {
+            char char1 = value1.charAt(i);
+            char char2 = value2.charAt(i);
+            if (char1 != char2 && Character.toLowerCase(char1) != Character.toLowerCase(char2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param value The string
+     * @return The hashCode of the string after folding it to lowercase.
+     */
+    public static int hashCode(String value) {
+        int hash = 0;
+        for (int i = 0; i < value.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(value.charAt(i));
+        }
+        return hash;
+    }
+}
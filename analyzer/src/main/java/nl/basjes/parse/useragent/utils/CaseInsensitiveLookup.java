@@ -0,0 +1,146 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map with String keys where the get is case insensitive and does not create a lowercase copy of the key.
+ * NOTE: Because of the case insensitive get this does not fully follow the contract of a Map.
+ * @param <V> The type of the values.
+ */
+public final class CaseInsensitiveLookup<V> extends AbstractMap<String, V> implements Serializable {
+
+    // Open addressing with linear probing.
+    private final String[] keys;
+    private final Object[] values;
+    private final int      mask;
+    private final int      size;
+
+    public CaseInsensitiveLookup(Map<String, V> map) {
+        int capacity = 2;
+        while (capacity < map.size() * 2) {
+            capacity *= 2;
+        }
+        keys = new String[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+
+        int count = 0;
+        for (Map.Entry<String, V> entry : map.entrySet()) {
+            int slot = findSlot(entry.getKey());
+            if (keys[slot] == null) {
+                keys[slot] = entry.getKey();
+                count++;
+            }
+            // Same as with a HashMap with lowercase keys: the last one wins.
+            values[slot] = entry.getValue();
+        }
+        size = count;
+    }
+
+    /**
+     * @param map The map
+     * @param <V> The type of the values.
+     * @return The map itself if it already is a CaseInsensitiveLookup, else a CaseInsensitiveLookup with the same content.
+     */
+    public static <V> CaseInsensitiveLookup<V> of(Map<String, V> map) {
+        if (map instanceof CaseInsensitiveLookup) {
+            return (CaseInsensitiveLookup<V>) map;
+        }
+        return new CaseInsensitiveLookup<>(map);
+    }
+
+    private int findSlot(String key) {
+        int slot = spread(CaseInsensitive.hashCode(key)) & mask;
+        while (keys[slot] != null && !CaseInsensitive.equalsIgnoreCase(keys[slot], key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        return (V) values[findSlot((String) key)];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && keys[findSlot((String) key)] != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new Iterator<Entry<String, V>>() {
+                    private int slot = nextUsedSlot(0);
+
+                    private int nextUsedSlot(int start) {
+                        int next = start;
+                        while (next < keys.length && keys[next] == null) {
+                            next++;
+                        }
+                        return next;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < keys.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Entry<String, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, V> entry = new SimpleImmutableEntry<>(keys[slot], (V) values[slot]);
+                        slot = nextUsedSlot(slot + 1);
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache that can be used by many threads at the same time.
+ * Retrieving is lock free (a ConcurrentHashMap); once it is full the CLOCK algorithm evicts an entry that has
+ * not been retrieved recently (an approximation of least recently used).
+ * Only storing (which is only done after an expensive cache miss) takes a lock.
+ * The null key is never stored.
+ * @param <K> The type of the keys
+ * @param <V> The type of the values
+ */
+public final class ClockCache<K, V> {
+
+    private static final class Entry<K, V> {
+        final K key;
+        final V value;
+        // Set when retrieved; cleared when the clock hand passes by.
+        volatile boolean referenced = false;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<K, Entry<K, V>> entries;
+
+    // The ring grows as it is filled so a big but little used cache does not take all its memory up front.
+    private static final int INITIAL_RING_SIZE = 1024;
+
+    private final Object lock = new Object();
+    // Guarded by the lock.
+    private Entry<K, V>[] ring;
+    private int used = 0;
+    private int hand = 0;
+
+    public ClockCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("A cache must be able to hold at least 1 entry");
+        }
+        this.maxEntries = maxEntries;
+        entries = new ConcurrentHashMap<>(Math.min(maxEntries, INITIAL_RING_SIZE));
+        ring = newRing(Math.min(maxEntries, INITIAL_RING_SIZE));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Entry<K, V>[] newRing(int size) {
+        return (Entry<K, V>[]) new Entry<?, ?>[size];
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        Entry<K, V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        // Only write if needed so the hot entries do not keep invalidating the cache line between the cores.
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        if (key == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (entries.containsKey(key)) {
+                return; // Another thread stored the same in the mean time.
+            }
+            if (used < maxEntries) {
+                // Not full yet: nothing needs to be evicted.
+                if (used == ring.length) {
+                    ring = Arrays.copyOf(ring, (int) Math.min((long) maxEntries, 2L * ring.length));
+                }
+                Entry<K, V> entry = new Entry<>(key, value);
+                ring[used++] = entry;
+                entries.put(key, entry);
+                return;
+            }
+            // Full: evict the first entry that was not retrieved since the previous pass of the hand.
+            while (ring[hand].referenced) {
+                ring[hand].referenced = false;
+                hand = (hand + 1) % maxEntries;
+            }
+            entries.remove(ring[hand].key);
+            Entry<K, V> entry = new Entry<>(key, value);
+            ring[hand] = entry;
+            entries.put(key, entry);
+            hand = (hand + 1) % maxEntries;
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            ring = newRing(Math.min(maxEntries, INITIAL_RING_SIZE));
+            used = 0;
+            hand = 0;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+/**
+ * The digits of a useragent are the ASCII digits '0'-'9' (other unicode digits are treated as any other letter).
+ */
+public final class Digits {
+    private Digits() {
+    }
+
+    public static boolean isDigit(char letter) {
+        return letter >= '0' && letter <= '9';
+    }
+
+    public static boolean containsDigit(String value) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (isDigit(value.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The shape of a value is the value in which every run of digits has been replaced by a single '0'.
+     * If the shapes of two values differ then no change in only the digits can make them equal.
+     * @param value The value
+     * @return The shape of the value (which is the value itself if it does not contain a digit).
+     */
+    public static String shapeOf(String value) {
+        if (!containsDigit(value)) {
+            return value;
+        }
+        StringBuilder shape = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char letter = value.charAt(i++);
+            if (!isDigit(letter)) {
+                shape.append(letter);
+                continue;
+            }
+            while (i < value.length() && isDigit(value.charAt(i))) {
+                i++;
+            }
+            shape.append('0');
+        }
+        return shape.toString();
+    }
+
+    /**
+     * @param value The value
+     * @param lowerCaseShape The shape (see shapeOf) in lowercase
+     * @return The same as CaseInsensitive.equals(shapeOf(value), lowerCaseShape) without creating the shape.
+     */
+    public static boolean sameShape(String value, String lowerCaseShape) {
+        return matchShape(value, 0, lowerCaseShape) == value.length();
+    }
+
+    /**
+     * @param value The value
+     * @param lowerCaseShape The shape (see shapeOf) in lowercase
+     * @return The same as CaseInsensitive.startsWith(shapeOf(value), lowerCaseShape) without creating the shape.
+     */
+    public static boolean shapeStartsWith(String value, String lowerCaseShape) {
+        return matchShape(value, 0, lowerCaseShape) != -1;
+    }
+
+    /**
+     * @param value The value
+     * @param lowerCaseShape The shape (see shapeOf) in lowercase
+     * @return The same as CaseInsensitive.endsWith(shapeOf(value), lowerCaseShape) without creating the shape.
+     */
+    public static boolean shapeEndsWith(String value, String lowerCaseShape) {
+        for (int offset = 0; offset <= value.length(); offset++) {
+            if (!isInsideRun(value, offset) && matchShape(value, offset, lowerCaseShape) == value.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param value The value
+     * @param lowerCaseShape The shape (see shapeOf) in lowercase
+     * @return The same as CaseInsensitive.contains(shapeOf(value), lowerCaseShape) without creating the shape.
+     */
+    public static boolean shapeContains(String value, String lowerCaseShape) {
+        for (int offset = 0; offset <= value.length(); offset++) {
+            if (!isInsideRun(value, offset) && matchShape(value, offset, lowerCaseShape) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param value The value (may be null)
+     * @return The same as CaseInsensitive.hashCode(shapeOf(value)) without creating the shape.
+     */
+    public static int shapeHashCode(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int hash = 0;
+        int i = 0;
+        while (i < value.length()) {
+            char letter = value.charAt(i++);
+            if (!isDigit(letter)) {
+                hash = 31 * hash + Character.toLowerCase(letter);
+                continue;
+            }
+            while (i < value.length() && isDigit(value.charAt(i))) {
+                i++;
+            }
+            hash = 31 * hash + '0';
+        }
+        return hash;
+    }
+
+    // Is this a digit that is not the first one of its run?
+    private static boolean isInsideRun(String value, int offset) {
+        return offset > 0 && offset < value.length() && isDigit(value.charAt(offset)) && isDigit(value.charAt(offset - 1));
+    }
+
+    // Matches the shape against the shape of the value from the offset (which must not be inside a run of digits).
+    // Returns the offset in the value right after the match or -1 if it does not match.
+    private static int matchShape(String value, int offset, String lowerCaseShape) {
+        int position = offset;
+        for (int i = 0; i < lowerCaseShape.length(); i++) {
+            if (position >= value.length()) {
+                return -1;
+            }
+            char expected = lowerCaseShape.charAt(i);
+            char actual = value.charAt(position);
+            if (expected == '0') {
+                if (!isDigit(actual)) {
+                    return -1;
+                }
+                while (position < value.length() && isDigit(value.charAt(position))) {
+                    position++;
+                }
+                continue;
+            }
+            if (isDigit(actual) || (actual != expected && Character.toLowerCase(actual) != expected)) {
+                return -1;
+            }
+            position++;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+/**
+ * A fast (non cryptographic) 64 bit hash of a String: FNV-1a over the chars followed by a final avalanche mix.
+ * Unlike String.hashCode() the outcome is wide enough to be used as the key of a (persistent) hash table
+ * and it is the same on all JVMs.
+ */
+public final class Hash64 {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME        = 0x100000001b3L;
+
+    private Hash64() {
+    }
+
+    public static long hash(String value) {
+        return hash(OFFSET_BASIS, value);
+    }
+
+    /**
+     * @param seed The hash of the preceding data (to hash several values as one)
+     * @param value The value
+     * @return The hash
+     */
+    public static long hash(long seed, String value) {
+        long hash = seed;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= PRIME;
+        }
+        return mix(hash ^ value.length());
+    }
+
+    // The finalizer of MurmurHash3: every bit of the input affects every bit of the output.
+    private static long mix(long value) {
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -17,9 +17,9 @@
 
 package nl.basjes.parse.useragent.utils;
 
+import nl.basjes.parse.useragent.parse.EvilManualUseragentStringHacks;
+
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public final class Normalize {
     private Normalize() {
@@ -98,49 +98,267 @@ public final class Normalize {
         return sb.toString();
     }
 
-    public static String cleanupDeviceBrandName(String deviceBrand, String deviceName) {
-        String lowerDeviceBrand = deviceBrand.toLowerCase(Locale.ENGLISH);
+    // A small (lossy) memo of the cleaned device names because the same brand/name combinations occur all the time.
+    // The entries are immutable so the array can be shared by all threads without any locking.
+    private static final int CLEANUP_MEMO_SIZE = 1024; // Must be a power of 2
+    private static final CleanupMemoEntry[] CLEANUP_MEMO = new CleanupMemoEntry[CLEANUP_MEMO_SIZE];
+
+    private static final class CleanupMemoEntry {
+        private final String deviceBrand;
+        private final String deviceName;
+        private final String result;
 
-        deviceName = deviceName.replaceAll("_", " ");
-        deviceName = deviceName.replaceAll("- +", "-");
-        deviceName = deviceName.replaceAll(" +-", "-");
-        deviceName = deviceName.replaceAll(" +", " ");
+        private CleanupMemoEntry(String deviceBrand, String deviceName, String result) {
+            this.deviceBrand = deviceBrand;
+            this.deviceName = deviceName;
+            this.result = result;
+        }
+    }
+
+    public static String cleanupDeviceBrandName(String deviceBrand, String deviceName) {
+        int hash = deviceBrand.hashCode() * 31 + deviceName.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (CLEANUP_MEMO_SIZE - 1);
+        CleanupMemoEntry entry = CLEANUP_MEMO[slot];
+        if (entry != null && entry.deviceBrand.equals(deviceBrand) && entry.deviceName.equals(deviceName)) {
+            return entry.result;
+        }
+        String result = calculateCleanupDeviceBrandName(deviceBrand, deviceName);
+        CLEANUP_MEMO[slot] = new CleanupMemoEntry(deviceBrand, deviceName, result);
+        return result;
+    }
 
-        String lowerDeviceName = deviceName.toLowerCase(Locale.ENGLISH);
+    private static String calculateCleanupDeviceBrandName(String deviceBrand, String deviceName) {
+        String name = cleanupSeparators(deviceName);
 
         // In some cases it does start with the brand but without a separator following the brand
-        if (lowerDeviceName.startsWith(lowerDeviceBrand)) {
-            deviceName = deviceName.replaceAll("_", " ");
-            // (?i) means: case insensitive
-            deviceName = deviceName.replaceAll("(?i)^" + Pattern.quote(deviceBrand) + "([^ ].*)$", Matcher.quoteReplacement(deviceBrand)+" $1");
-            deviceName = deviceName.replaceAll("( -| )+", " ");
+        if (startsWithIgnoreCase(name, deviceBrand)) {
+            if (startsWithBrandWithoutSpace(name, deviceBrand)) {
+                name = deviceBrand + ' ' + name.substring(deviceBrand.length());
+            }
+            name = collapseSpaces(name);
         } else {
-            deviceName = deviceBrand + ' ' + deviceName;
+            name = deviceBrand + ' ' + name;
         }
-        String result = Normalize.brand(deviceName);
+        return fixAppleNames(Normalize.brand(name));
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '_';
+    }
 
-        if (result.contains("I")) {
-            result = result
-                .replace("Ipad", "iPad")
-                .replace("Ipod", "iPod")
-                .replace("Iphone", "iPhone")
-                .replace("IOS ", "iOS ");
+    /**
+     * The '_' becomes a space, the spaces around a '-' are removed and multiple spaces become one.
+     */
+    private static String cleanupSeparators(String deviceName) {
+        int length = deviceName.length();
+        StringBuilder result = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = deviceName.charAt(i);
+            if (!isSpace(c)) {
+                result.append(c);
+                i++;
+                continue;
+            }
+            int endOfSpaces = i;
+            while (endOfSpaces < length && isSpace(deviceName.charAt(endOfSpaces))) {
+                endOfSpaces++;
+            }
+            boolean afterDash  = i > 0 && deviceName.charAt(i - 1) == '-';
+            boolean beforeDash = endOfSpaces < length && deviceName.charAt(endOfSpaces) == '-';
+            if (!afterDash && !beforeDash) {
+                result.append(' ');
+            }
+            i = endOfSpaces;
         }
-        return result;
+        return result.toString();
+    }
+
+    /**
+     * All sequences of " " and " -" become a single space.
+     */
+    private static String collapseSpaces(String deviceName) {
+        int length = deviceName.length();
+        StringBuilder result = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = deviceName.charAt(i);
+            if (c != ' ') {
+                result.append(c);
+                i++;
+                continue;
+            }
+            while (i < length && deviceName.charAt(i) == ' ') {
+                i += (i + 1 < length && deviceName.charAt(i + 1) == '-') ? 2 : 1;
+            }
+            result.append(' ');
+        }
+        return result.toString();
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerAscii(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static boolean startsWithIgnoreAsciiCase(String value, String prefix) {
+        if (value.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (toLowerAscii(value.charAt(i)) != toLowerAscii(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
+    private static boolean startsWithIgnoreCase(String value, String prefix) {
+        if (isAscii(value) && isAscii(prefix)) {
+            return startsWithIgnoreAsciiCase(value, prefix);
+        }
+        // The full lowercase conversion can change the length and depends on the context of a character.
+        return value.toLowerCase(Locale.ENGLISH).startsWith(prefix.toLowerCase(Locale.ENGLISH));
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Does the same as matching the regex "(?i)^" + Pattern.quote(deviceBrand) + "([^ ].*)$"
+     * (i.e. the brand in any US-ASCII case directly followed by something that is not a space).
+     */
+    private static boolean startsWithBrandWithoutSpace(String deviceName, String deviceBrand) {
+        int length = deviceName.length();
+        int brandLength = deviceBrand.length();
+        if (brandLength >= length || deviceName.charAt(brandLength) == ' ' ||
+            !startsWithIgnoreAsciiCase(deviceName, deviceBrand)) {
+            return false;
+        }
+        // The '.*' stops at the first line terminator and the '$' only matches at the end or before a final line terminator.
+        int end = brandLength + Character.charCount(deviceName.codePointAt(brandLength));
+        while (end < length && !isLineTerminator(deviceName.charAt(end))) {
+            end++;
+        }
+        if (end == length) {
+            return true;
+        }
+        if (end < length - 2) {
+            return false;
+        }
+        if (end == length - 2) {
+            return deviceName.charAt(end) == '\r' && deviceName.charAt(end + 1) == '\n';
+        }
+        return deviceName.charAt(end) != '\n' || deviceName.charAt(end - 1) != '\r';
+    }
+
+    private static String fixAppleNames(String deviceName) {
+        if (deviceName.indexOf('I') == -1) {
+            return deviceName;
+        }
+        int length = deviceName.length();
+        StringBuilder result = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = deviceName.charAt(i);
+            if (c == 'I') {
+                if (deviceName.startsWith("Ipad", i)) {
+                    result.append("iPad");
+                    i += 4;
+                    continue;
+                }
+                if (deviceName.startsWith("Ipod", i)) {
+                    result.append("iPod");
+                    i += 4;
+                    continue;
+                }
+                if (deviceName.startsWith("Iphone", i)) {
+                    result.append("iPhone");
+                    i += 6;
+                    continue;
+                }
+                if (deviceName.startsWith("IOS ", i)) {
+                    result.append("iOS ");
+                    i += 4;
+                    continue;
+                }
+            }
+            result.append(c);
+            i++;
+        }
+        return result.toString();
+    }
+
+    private static final String EMAIL_AT_UTF8 = "[\\xc3\\xa07]";
+
     public static String email(String email) {
-        String cleaned = email;
-        cleaned = cleaned.replaceAll("\\[at]", "@");
-
-        cleaned = cleaned.replaceAll("\\[\\\\xc3\\\\xa07]", "@");
-        cleaned = cleaned.replaceAll("\\[dot]", ".");
-        cleaned = cleaned.replaceAll("\\\\", " ");
-        cleaned = cleaned.replaceAll(" at ", "@");
-        cleaned = cleaned.replaceAll("dot", ".");
-        cleaned = cleaned.replaceAll(" dash ", "-");
-        cleaned = cleaned.replaceAll(" ", "");
-        return cleaned;
+        // In the same order as they were originally done with a series of replaceAll calls.
+        // First the bracketed [at], [\xc3\xa07] and [dot] and the '\' becomes a space.
+        int length = email.length();
+        StringBuilder result = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = email.charAt(i);
+            if (c == '[') {
+                if (email.startsWith("[at]", i)) {
+                    result.append('@');
+                    i += 4;
+                    continue;
+                }
+                if (email.startsWith(EMAIL_AT_UTF8, i)) {
+                    result.append('@');
+                    i += EMAIL_AT_UTF8.length();
+                    continue;
+                }
+                if (email.startsWith("[dot]", i)) {
+                    result.append('.');
+                    i += 5;
+                    continue;
+                }
+            }
+            result.append(c == '\\' ? ' ' : c);
+            i++;
+        }
+
+        // Then all " at " (which can use the spaces that were a '\' before)
+        String cleaned = result.toString();
+        if (cleaned.contains(" at ")) {
+            cleaned = EvilManualUseragentStringHacks.replaceString(cleaned, " at ", "@");
+        }
+
+        // And finally the "dot", " dash " and all remaining spaces.
+        length = cleaned.length();
+        result.setLength(0);
+        i = 0;
+        while (i < length) {
+            char c = cleaned.charAt(i);
+            if (c == 'd' && cleaned.startsWith("dot", i)) {
+                result.append('.');
+                i += 3;
+                continue;
+            }
+            if (c == ' ') {
+                if (cleaned.startsWith(" dash ", i)) {
+                    result.append('-');
+                    i += 6;
+                } else {
+                    i++; // Spaces are dropped
+                }
+                continue;
+            }
+            result.append(c);
+            i++;
+        }
+        return result.toString();
     }
 
 }
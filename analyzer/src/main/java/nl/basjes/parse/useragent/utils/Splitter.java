@@ -22,6 +22,7 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public abstract class Splitter {
@@ -213,4 +214,84 @@ public abstract class Splitter {
         return result;
     }
 
+    // The layout of the int[] with all splits of a value:
+    // [0] = the number of splits, [1] = the end of the string (for the open ended ranges like [2-])
+    // followed by the start and end offset of each split.
+    private static final int SPLITS_COUNT = 0;
+    private static final int SPLITS_END_OF_STRING = 1;
+    private static final int SPLITS_HEADER = 2;
+
+    /**
+     * Determine the offsets of all splits in a single pass.
+     * The result is intended to be retained and used for all ranges that are needed from the same value.
+     *
+     * @param value The value to split
+     * @return The offsets of all splits as expected by getSplitRange(String, int[], int, int)
+     */
+    public int[] findSplits(String value) {
+        int length = value.length();
+        int[] splits = new int[SPLITS_HEADER + 16];
+        int count = 0;
+        int endOfString = length;
+        int charNr = 0;
+        while (charNr < length) {
+            char theChar = value.charAt(charNr);
+            if (isEndOfStringSeparator(theChar)) {
+                endOfString = charNr;
+                break;
+            }
+            if (isSeparator(theChar)) {
+                charNr++;
+                continue;
+            }
+            int start = charNr;
+            while (charNr < length && !isSeparator(value.charAt(charNr))) {
+                if (endOfString == length && isEndOfStringSeparator(value.charAt(charNr))) {
+                    endOfString = charNr;
+                }
+                charNr++;
+            }
+            int slot = SPLITS_HEADER + 2 * count;
+            if (slot + 2 > splits.length) {
+                splits = Arrays.copyOf(splits, splits.length * 2);
+            }
+            splits[slot]     = start;
+            splits[slot + 1] = charNr;
+            count++;
+            if (endOfString != length) {
+                break; // Nothing after an end of string separator can be a split.
+            }
+        }
+        splits[SPLITS_COUNT] = count;
+        splits[SPLITS_END_OF_STRING] = endOfString;
+        return splits;
+    }
+
+    /**
+     * Same as getSplitRange(String, int, int) but with the splits already determined.
+     *
+     * @param value The value
+     * @param splits The result of findSplits(value)
+     * @param firstSplit The first split
+     * @param lastSplit The last split (-1 means up to the end)
+     * @return The requested range of splits or null if it does not exist
+     */
+    public String getSplitRange(String value, int[] splits, int firstSplit, int lastSplit) {
+        if (value == null || (lastSplit > 0 && lastSplit < firstSplit)) {
+            return null;
+        }
+        int count = splits[SPLITS_COUNT];
+        if (firstSplit <= 0 || firstSplit > count) {
+            return null;
+        }
+        int start = splits[SPLITS_HEADER + 2 * (firstSplit - 1)];
+        if (lastSplit == -1) {
+            return value.substring(start, splits[SPLITS_END_OF_STRING]);
+        }
+        if (lastSplit <= 0 || lastSplit > count) {
+            return null;
+        }
+        return value.substring(start, splits[SPLITS_HEADER + 2 * (lastSplit - 1) + 1]);
+    }
+
 }
@@ -21,12 +21,11 @@ public final class VersionSplitter extends Splitter {
     private VersionSplitter() {
     }
 
-    private static VersionSplitter instance;
+    // Created when the class is initialized so all threads get the same instance (it has no state).
+    private static final VersionSplitter INSTANCE = new VersionSplitter();
+
     public static VersionSplitter getInstance() {
-        if (instance == null) {
-            instance = new VersionSplitter();
-        }
-        return instance;
+        return INSTANCE;
     }
 
     public boolean isSeparator(char c) {
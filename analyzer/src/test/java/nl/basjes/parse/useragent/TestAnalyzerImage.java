@@ -0,0 +1,142 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestAnalyzerImage {
+
+    private static final String[] USERAGENTS = {
+        "Mozilla/5.0 (Linux; Android 6.0; Nexus 6 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/46.0.2490.76 Mobile Safari/537.36",
+        "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/46.0.2486.0 Safari/537.36 Edge/13.10586",
+    };
+
+    private static UserAgentAnalyzer uaa;
+    private static File imageFile;
+
+    @BeforeClass
+    public static void writeImage() throws IOException {
+        uaa = UserAgentAnalyzer.newBuilder().hideMatcherLoadStats().withoutCache().build();
+        imageFile = File.createTempFile("yauaa-", ".image");
+        AnalyzerImage.write(uaa, null, imageFile);
+    }
+
+    @AfterClass
+    public static void removeImage() {
+        assertTrue(imageFile.delete());
+    }
+
+    @Test
+    public void testLoadImageFile() {
+        UserAgentAnalyzer loaded = UserAgentAnalyzer
+            .newBuilder()
+            .withImageFile(imageFile.getAbsolutePath())
+            .withCache(100)
+            .build();
+
+        assertEquals(100, loaded.getCacheSize());
+        for (String useragent : USERAGENTS) {
+            UserAgent expected = uaa.parse(useragent);
+            UserAgent actual = loaded.parse(useragent);
+            assertEquals(expected.getAvailableFieldNamesSorted(), actual.getAvailableFieldNamesSorted());
+            for (String fieldName : expected.getAvailableFieldNamesSorted()) {
+                assertEquals(fieldName, expected.getValue(fieldName), actual.getValue(fieldName));
+                assertEquals(fieldName, expected.getConfidence(fieldName), actual.getConfidence(fieldName));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectImageForOtherFields() {
+        assertNotNull(AnalyzerImage.loadFromFile(imageFile, null));
+        assertNull(AnalyzerImage.loadFromFile(imageFile, Collections.singletonList("DeviceClass")));
+    }
+
+    @Test
+    public void testMain() throws IOException {
+        // Like the 'analyzerImage' profile in the pom.xml does: into a directory that does not exist yet.
+        File directory = new File(imageFile.getAbsolutePath() + ".dir");
+        File mainImageFile = new File(directory, "UserAgentAnalyzer.image");
+        try {
+            AnalyzerImage.main(new String[]{mainImageFile.getAbsolutePath()});
+            UserAgentAnalyzer loaded = AnalyzerImage.loadFromFile(mainImageFile, null);
+            assertNotNull(loaded);
+            assertEquals(uaa.parse(USERAGENTS[0]).toYamlTestCase(true), loaded.parse(USERAGENTS[0]).toYamlTestCase(true));
+        } finally {
+            assertTrue(mainImageFile.delete());
+            assertTrue(directory.delete());
+        }
+    }
+
+    @Test
+    public void testMissingImages() {
+        assertNull(AnalyzerImage.loadFromFile(new File(imageFile.getAbsolutePath() + ".doesNotExist"), null));
+        assertNull(AnalyzerImage.loadFromClasspath("UserAgents/DoesNotExist.image", null));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTesterRejectsImage() {
+        UserAgentAnalyzerTester.newBuilder().withImage();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTesterRejectsImageFile() {
+        UserAgentAnalyzerTester.newBuilder().withImageFile(imageFile.getAbsolutePath());
+    }
+
+    @Test
+    public void testRejectImageWithOtherClasses() throws IOException {
+        // A valid header followed by something that is not part of an analyzer.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        DataOutputStream header = new DataOutputStream(gzip);
+        header.writeUTF(AnalyzerImage.MAGIC);
+        header.writeInt(AnalyzerImage.FORMAT_VERSION);
+        header.writeUTF(UserAgentAnalyzer.getVersion());
+        header.writeInt(-1);
+        header.flush();
+        ObjectOutputStream body = new ObjectOutputStream(gzip);
+        body.writeObject(new Date());
+        body.flush();
+        gzip.finish();
+
+        assertNull(AnalyzerImage.read(new ByteArrayInputStream(bytes.toByteArray()), null));
+    }
+
+}
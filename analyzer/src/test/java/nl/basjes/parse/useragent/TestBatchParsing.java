@@ -0,0 +1,187 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBatchParsing {
+
+    private static final String CHROME =
+        "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+        "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36";
+    private static final String EDGE =
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+        "Chrome/46.0.2486.0 Safari/537.36 Edge/13.10586";
+    private static final String BOT =
+        "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)";
+
+    private static final String[] BATCH = {CHROME, EDGE, CHROME, null, BOT, "", EDGE, null, CHROME, ""};
+
+    private static UserAgentAnalyzer uaa;
+
+    @BeforeClass
+    public static void createAnalyzer() {
+        uaa = UserAgentAnalyzer.newBuilder().hideMatcherLoadStats().withoutCache().build();
+    }
+
+    @Test
+    public void testParseAllArray() {
+        UserAgent[] results = uaa.parseAll(BATCH);
+        assertEquals(BATCH.length, results.length);
+        for (int index = 0; index < BATCH.length; index++) {
+            assertEquals(BATCH[index], results[index].getUserAgentString());
+            assertEquals(uaa.parse(BATCH[index]).toYamlTestCase(true), results[index].toYamlTestCase(true));
+        }
+    }
+
+    @Test
+    public void testParseAllList() {
+        List<UserAgent> results = uaa.parseAll(Arrays.asList(BATCH));
+        assertEquals(BATCH.length, results.size());
+        for (int index = 0; index < BATCH.length; index++) {
+            assertEquals(BATCH[index], results.get(index).getUserAgentString());
+            assertEquals(uaa.parse(BATCH[index]).toYamlTestCase(true), results.get(index).toYamlTestCase(true));
+        }
+    }
+
+    @Test
+    public void testDuplicatesAreCopies() {
+        UserAgent[] results = uaa.parseAll(BATCH);
+        String agentName = results[2].getValue("AgentName");
+
+        // Changing one result must not affect the results of the same useragent.
+        results[0].set("AgentName", "Something else", 1000000);
+        assertNotSame(results[0], results[2]);
+        assertNotSame(results[2], results[8]);
+        assertEquals(agentName, results[2].getValue("AgentName"));
+        assertEquals(agentName, results[8].getValue("AgentName"));
+    }
+
+    // All test useragents (a few times) so all workers are busy at the same time with different useragents.
+    private static List<String> manyUserAgents() {
+        ResourceLoader loader = new ResourceLoader("classpath*:UserAgents/**/*.yaml", null, false);
+        List<String> userAgents = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            for (Map<String, Map<String, String>> test : loader.testCases) {
+                userAgents.add(test.get("input").get("user_agent_string"));
+            }
+        }
+        return userAgents;
+    }
+
+    private static List<String> toYaml(List<UserAgent> userAgents) {
+        List<String> result = new ArrayList<>(userAgents.size());
+        for (UserAgent userAgent : userAgents) {
+            result.add(userAgent.toYamlTestCase(true));
+        }
+        return result;
+    }
+
+    @Test
+    public void testParallelParse() {
+        List<String> userAgents = manyUserAgents();
+        List<String> expected = new ArrayList<>();
+        for (String userAgent : userAgents) {
+            expected.add(uaa.parse(userAgent).toYamlTestCase(true));
+        }
+
+        assertEquals(expected, toYaml(uaa.parallelParse(userAgents.stream())));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertEquals(expected, toYaml(uaa.parallelParse(userAgents.stream(), executor)));
+
+            ConcurrentLinkedQueue<UserAgent> unordered = new ConcurrentLinkedQueue<>();
+            uaa.parallelParseUnordered(userAgents.stream(), executor, unordered::add);
+            List<String> actual = toYaml(new ArrayList<>(unordered));
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Many chunks (of 256) yet only a few distinct useragents per chunk so it is fast.
+    private static final int MANY = 5000;
+
+    @Test
+    public void testParallelParseReadsInputWhileParsing() {
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger readAtFirstResult = new AtomicInteger(-1);
+        AtomicInteger results = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            uaa.parallelParseUnordered(
+                Stream.generate(() -> CHROME).limit(MANY).peek(useragent -> read.incrementAndGet()),
+                pool,
+                userAgent -> {
+                    readAtFirstResult.compareAndSet(-1, read.get());
+                    results.incrementAndGet();
+                });
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(MANY, results.get());
+        // Only a few chunks are in flight so the first results arrive long before all input has been read.
+        assertTrue(readAtFirstResult.get() < MANY);
+    }
+
+    @Test
+    public void testParallelParseStopsOnFailure() {
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger failedChunks = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            uaa.parallelParseUnordered(
+                Stream.generate(() -> CHROME).limit(MANY).peek(useragent -> read.incrementAndGet()),
+                pool,
+                userAgent -> {
+                    failedChunks.incrementAndGet();
+                    throw new IllegalStateException("Consumer failed");
+                });
+            fail("The exception of the consumer must be rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals("Consumer failed", e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        // Reading the input stopped and the chunks that were not yet started have been cancelled.
+        assertTrue(read.get() < MANY);
+        assertTrue(failedChunks.get() < (MANY + 255) / 256);
+    }
+
+}
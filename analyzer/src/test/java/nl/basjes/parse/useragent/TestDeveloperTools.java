@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent;
 
+import nl.basjes.parse.useragent.analyze.MatchArena;
 import nl.basjes.parse.useragent.analyze.MatcherAction;
 import nl.basjes.parse.useragent.debug.DebugUserAgent;
 import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
@@ -25,11 +26,10 @@ import org.apache.logging.log4j.Logger;
 import org.junit.Test;
 
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class TestDeveloperTools {
@@ -51,13 +51,21 @@ public class TestDeveloperTools {
         assertTrue(uaa.runTests(false, true));
     }
 
+    @Test
+    public void validateDroppingTheTestcases() {
+        ResourceLoader withTests = new ResourceLoader("classpath*:**/CheckNewTestcaseOutput.yaml", null, false, true);
+        assertFalse(withTests.testCases.isEmpty());
+
+        ResourceLoader withoutTests = new ResourceLoader("classpath*:**/CheckNewTestcaseOutput.yaml", null, false, false);
+        assertTrue(withoutTests.testCases.isEmpty());
+    }
 
     @Test
     public void validateStringOutputsAndMatches() {
         UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester.newBuilder().withField("DeviceName").build();
         //- parse, broken down to save matches
         DebugUserAgent useragent = (DebugUserAgent) uaa.createUserAgent("Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36");
-        Map<MatcherAction, Collection<MatcherAction.Match>> matches = uaa._matches(useragent);
+        MatchArena matches = uaa._matches(useragent);
         uaa._parse(useragent, matches);
         // ---
         assertTrue(useragent.toString().contains("'Google Nexus 6'"));
@@ -66,18 +74,23 @@ public class TestDeveloperTools {
 
         final String path = "agent.(1)product.(1)comments.(3)entry[3-3]";
 
-        MatcherAction action = matches.entrySet().stream()
-            .filter(e->e.getValue().stream().anyMatch(m->m.key.equals(path)))
-            .map(Map.Entry::getKey).findFirst()
-            .orElseThrow(()->new NullPointerException("No action for path"));
-
-        MatcherAction.Match match = matches.get(action).stream()
-            .filter(m -> m.key.equals(path)).findFirst()
-            .orElseThrow(()->new NullPointerException("No match for path"));
-
+        MatcherAction action = null;
+        int matchSlot = MatchArena.NONE;
+        for (int i = 0; i < matches.getNumberOfInformedActions() && action == null; i++) {
+            MatcherAction informedAction = matches.getInformedAction(i);
+            for (int slot = matches.firstSlot(informedAction); slot != MatchArena.NONE; slot = matches.nextSlot(slot)) {
+                if (matches.getKey(slot).equals(path)) {
+                    action = informedAction;
+                    matchSlot = slot;
+                    break;
+                }
+            }
+        }
+        assertNotNull("No action for path", action);
 
-        assertEquals("Build", match.value);
+        assertEquals("Build", matches.getValue(matchSlot));
+        final MatcherAction finalAction = action;
         assertTrue("Did not see the expected matcher.",
-            useragent.usedMatchers().anyMatch( m->Arrays.stream(m.dynamicActions).anyMatch(action::equals)));
+            useragent.usedMatchers().anyMatch( m->Arrays.stream(m.dynamicActions).anyMatch(finalAction::equals)));
     }
 }
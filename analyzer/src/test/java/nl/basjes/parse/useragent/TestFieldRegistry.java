@@ -0,0 +1,130 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.analyze.FieldSetter.AgentField;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static nl.basjes.parse.useragent.UserAgent.AGENT_NAME;
+import static nl.basjes.parse.useragent.UserAgent.AGENT_VERSION;
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_CLASS;
+import static nl.basjes.parse.useragent.UserAgent.NULL_VALUE;
+import static nl.basjes.parse.useragent.UserAgent.STANDARD_FIELDS;
+import static nl.basjes.parse.useragent.UserAgent.UNKNOWN_VALUE;
+import static nl.basjes.parse.useragent.UserAgent.UNKNOWN_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestFieldRegistry {
+
+    private final FieldRegistry registry = new FieldRegistry(Arrays.asList("AgentLanguage", DEVICE_CLASS));
+
+    @Test
+    public void testStandardFieldsComeFirst() {
+        for (int index = 0; index < STANDARD_FIELDS.length; index++) {
+            assertEquals(STANDARD_FIELDS[index], registry.getName(index));
+            assertEquals(index, registry.getIndex(STANDARD_FIELDS[index]));
+        }
+        assertTrue(registry.getIndex("AgentLanguage") >= STANDARD_FIELDS.length);
+        assertEquals(-1, registry.getIndex("SomethingElse"));
+    }
+
+    @Test
+    public void testDefaults() {
+        UserAgent userAgent = new UserAgent("Dummy", registry);
+        assertEquals(UNKNOWN_VALUE, userAgent.getValue(DEVICE_CLASS));
+        assertEquals(UNKNOWN_VERSION, userAgent.getValue(AGENT_VERSION));
+        assertEquals(-1, (long) userAgent.getConfidence(AGENT_NAME));
+        assertNull(userAgent.get("AgentLanguage"));
+        assertFalse(userAgent.getAvailableFieldNames().contains("AgentLanguage"));
+    }
+
+    @Test
+    public void testSetAndGet() {
+        UserAgent userAgent = new UserAgent("Dummy", registry);
+        userAgent.set("AgentLanguage", "Dutch", 5);
+        userAgent.set("AgentLanguage", "English", 3);
+        userAgent.set("SomethingElse", "Value", 1);
+        userAgent.set(AGENT_NAME, "Foo", 10);
+        userAgent.set(AGENT_NAME, NULL_VALUE, 20);
+
+        assertEquals("Dutch", userAgent.getValue("AgentLanguage"));
+        assertEquals(5, (long) userAgent.getConfidence("AgentLanguage"));
+        assertEquals("Value", userAgent.getValue("SomethingElse"));
+        assertEquals(1, (long) userAgent.getConfidence("SomethingElse"));
+        assertEquals(UNKNOWN_VALUE, userAgent.getValue(AGENT_NAME));
+        assertEquals(20, (long) userAgent.getConfidence(AGENT_NAME));
+        assertTrue(userAgent.getAvailableFieldNames().contains("AgentLanguage"));
+        assertTrue(userAgent.getAvailableFieldNames().contains("SomethingElse"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedAllFields() {
+        UserAgent userAgent = new UserAgent("Dummy", registry);
+        userAgent.set("AgentLanguage", "Dutch", 5);
+        userAgent.set("SomethingElse", "Value", 1);
+
+        assertEquals("Dutch", userAgent.allFields.get("AgentLanguage").value);
+        assertEquals(5, userAgent.allFields.get("AgentLanguage").confidence);
+        assertEquals("Value", userAgent.allFields.get("SomethingElse").value);
+        assertTrue(userAgent.allFields.containsKey("AgentLanguage"));
+        assertFalse(userAgent.allFields.containsKey("Third"));
+        int size = userAgent.allFields.size();
+
+        // It is a view: it follows the changes.
+        userAgent.set("Third", "Phone", 3);
+        assertEquals("Phone", userAgent.allFields.get("Third").value);
+        assertEquals(size + 1, userAgent.allFields.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedAllFieldsIsReadOnly() {
+        new UserAgent("Dummy", registry).allFields.put(AGENT_NAME, new AgentField(AGENT_NAME, "Foo", 1));
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        UserAgent original = new UserAgent("Dummy", registry);
+        original.set("AgentLanguage", "Dutch", 5);
+        original.set("SomethingElse", "Value", 1);
+
+        UserAgent copy = new UserAgent(original);
+        copy.set("AgentLanguage", "English", 10);
+        copy.set("SomethingElse", "Other", 10);
+
+        assertEquals("Dutch", original.getValue("AgentLanguage"));
+        assertEquals("Value", original.getValue("SomethingElse"));
+        assertEquals("English", copy.getValue("AgentLanguage"));
+        assertEquals("Other", copy.getValue("SomethingElse"));
+    }
+
+    @Test
+    public void testAnalyzerUsesItsRegistry() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer.newBuilder().hideMatcherLoadStats().withoutCache().build();
+        for (String fieldName : uaa.getAllPossibleFieldNamesSorted()) {
+            assertTrue(fieldName, uaa.getFieldRegistry().getIndex(fieldName) >= 0);
+        }
+    }
+
+}
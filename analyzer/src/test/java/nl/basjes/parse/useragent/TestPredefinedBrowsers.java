@@ -49,6 +49,40 @@ public class TestPredefinedBrowsers {
         assertTrue(uaa.runTests(false, true));
     }
 
+    @Test
+    public void validateAllPredefinedBrowsersTwoStageParsing() {
+        LOG.info("==============================================================");
+        LOG.info("Validating when using two stage (SLL then LL) parsing");
+        LOG.info("--------------------------------------------------------------");
+        UserAgentAnalyzerTester userAgentAnalyzer =
+            UserAgentAnalyzerTester
+                .newBuilder()
+                .withTwoStageParsing()
+                .hideMatcherLoadStats()
+                .build();
+
+        assertNotNull(userAgentAnalyzer);
+        assertTrue(userAgentAnalyzer.isTwoStageParsing());
+        assertTrue(userAgentAnalyzer.runTests(false, true));
+    }
+
+    @Test
+    public void validateAllPredefinedBrowsersCompiledWalkLists() {
+        LOG.info("==============================================================");
+        LOG.info("Validating when using compiled walkLists");
+        LOG.info("--------------------------------------------------------------");
+        UserAgentAnalyzerTester userAgentAnalyzer =
+            UserAgentAnalyzerTester
+                .newBuilder()
+                .withCompiledWalkLists()
+                .hideMatcherLoadStats()
+                .build();
+
+        assertNotNull(userAgentAnalyzer);
+        assertTrue(userAgentAnalyzer.isCompiledWalkLists());
+        assertTrue(userAgentAnalyzer.runTests(false, true));
+    }
+
     private void validateAllPredefinedBrowsersMultipleFields(Collection<String> fields) {
         LOG.info("==============================================================");
         LOG.info("Validating when ONLY asking for {}", fields.toString());
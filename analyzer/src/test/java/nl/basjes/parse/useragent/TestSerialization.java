@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent;
 
+import nl.basjes.parse.useragent.analyze.Matcher;
 import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -32,6 +33,7 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestSerialization {
 
@@ -88,4 +90,23 @@ public class TestSerialization {
         assertTrue(uaa.runTests(false, true));
     }
 
+    @Test
+    public void testDeserializedAnalyzerIsFrozen() {
+        assertTrue(uaa.isFrozen());
+        try {
+            uaa.setCompiledWalkLists(true);
+            fail("A deserialized analyzer must be frozen");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        for (Matcher matcher : ((UserAgentAnalyzer) uaa).matchers) {
+            try {
+                matcher.setIndex(0);
+                fail("The matchers of a deserialized analyzer must be frozen");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+    }
+
 }
@@ -0,0 +1,330 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.analyze.MatchArena;
+import nl.basjes.parse.useragent.parse.UserAgentShape;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestShapeCache {
+
+    private static final Logger LOG = LogManager.getLogger(TestShapeCache.class);
+
+    private static UserAgentAnalyzer uaa;
+    // Only the rules of ShapeCache.yaml so each case only has the values it is about.
+    private static UserAgentAnalyzer rulesUaa;
+
+    @BeforeClass
+    public static void createAnalyzer() {
+        uaa = UserAgentAnalyzer.newBuilder().hideMatcherLoadStats().withoutCache().withShapeCache(100000).build();
+        rulesUaa = new UserAgentAnalyzer("classpath*:ShapeCache.yaml", false);
+        rulesUaa.setCacheSize(0);
+    }
+
+    private static UserAgent fullAnalysis(String userAgentString) {
+        return fullAnalysis(uaa, userAgentString);
+    }
+
+    private static UserAgent fullAnalysis(UserAgentAnalyzer analyzer, String userAgentString) {
+        UserAgent userAgent = analyzer.createUserAgent(userAgentString);
+        analyzer._parse(userAgent, analyzer._matches(userAgent));
+        return userAgent;
+    }
+
+    private static ShapeCache emptyShapeCache() {
+        rulesUaa.setShapeCacheSize(100);
+        return rulesUaa.shapeCache;
+    }
+
+    // Parse with the shape cache and check that it is the same as a full analysis.
+    private static UserAgent parse(String userAgentString) {
+        UserAgent userAgent = rulesUaa.parse(userAgentString);
+        assertEquals(fullAnalysis(rulesUaa, userAgentString).toYamlTestCase(true), userAgent.toYamlTestCase(true));
+        return userAgent;
+    }
+
+    @Test
+    public void testShape() {
+        UserAgentShape shape = new UserAgentShape("Foo/61.0.3163.100 Bar/3163_100 (Baz 3)");
+        assertEquals("Foo/0.0.0.0 Bar/0_0 (Baz 0)", shape.getKey());
+        assertEquals(7, shape.getNumberOfDigitRuns());
+        assertEquals("3163", shape.getDigitRun(2));
+
+        assertArrayEquals(new int[]{0}, shape.findDigitRuns("61.0.3163.100"));
+        assertArrayEquals(new int[]{2, 4}, shape.findDigitRuns("3163.100"));
+        assertArrayEquals(new int[]{6}, shape.findDigitRuns("BAZ 3"));
+        assertArrayEquals(new int[]{}, shape.findDigitRuns("163.100"));
+        assertArrayEquals(new int[]{}, shape.findDigitRuns("3163.10"));
+
+        UserAgentShape other = new UserAgentShape("Foo/62.0.3202.9 Bar/3202_9 (Baz 4)");
+        assertEquals(shape.getKey(), other.getKey());
+        assertArrayEquals(shape.getTokens(), other.getTokens());
+        assertEquals("62.0.3202.9", other.replaceDigitRuns("61.0.3163.100", 0));
+        assertEquals("3202.9", other.replaceDigitRuns("3163.100", 2));
+        assertEquals("3202.9", other.replaceDigitRuns("3163.100", 4));
+        assertEquals("BAZ 4", other.replaceDigitRuns("BAZ 3", 6));
+    }
+
+    @Test
+    public void testOnlyDigitsDiffer() {
+        String chrome61 = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/61.0.3163.100 Safari/537.36";
+        String chrome61b = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/61.0.3163.98 Safari/537.36";
+        String linux61 = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/61.0.3163.100 Safari/537.36";
+        String linux62 = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/62.0.3202.62 Safari/537.36";
+        long hitsBefore = uaa.shapeCache.getHits();
+        for (String userAgent : new String[]{chrome61, chrome61b, linux61, linux62}) {
+            assertEquals(fullAnalysis(userAgent).toYamlTestCase(true), uaa.parse(userAgent).toYamlTestCase(true));
+        }
+        assertEquals("62.0.3202.62", uaa.parse(linux62).getValue("AgentVersion"));
+        assertTrue(uaa.shapeCache.getHits() > hitsBefore);
+    }
+
+    // Every run of digits replaced by other digits (of the same length).
+    private static String otherDigits(String userAgent) {
+        StringBuilder sb = new StringBuilder(userAgent.length());
+        for (char c : userAgent.toCharArray()) {
+            sb.append(c >= '0' && c <= '9' ? (char) ('0' + (c - '0' + 7) % 10) : c);
+        }
+        return sb.toString();
+    }
+
+    // Every run of digits made longer.
+    private static String longerDigits(String userAgent) {
+        StringBuilder sb = new StringBuilder(userAgent.length() + 16);
+        for (int i = 0; i < userAgent.length(); i++) {
+            char c = userAgent.charAt(i);
+            sb.append(c);
+            boolean lastDigit = i + 1 == userAgent.length() || userAgent.charAt(i + 1) < '0' || userAgent.charAt(i + 1) > '9';
+            if (c >= '0' && c <= '9' && lastDigit) {
+                sb.append('1');
+            }
+        }
+        return sb.toString();
+    }
+
+    // Only the digits of the last run of digits changed (like a new build number).
+    private static String otherLastDigits(String userAgent) {
+        int end = userAgent.length();
+        while (end > 0 && (userAgent.charAt(end - 1) < '0' || userAgent.charAt(end - 1) > '9')) {
+            end--;
+        }
+        if (end == 0) {
+            return userAgent;
+        }
+        int start = end;
+        while (start > 0 && userAgent.charAt(start - 1) >= '0' && userAgent.charAt(start - 1) <= '9') {
+            start--;
+        }
+        return userAgent.substring(0, start) + otherDigits(userAgent.substring(start, end)) + userAgent.substring(end);
+    }
+
+    @Test
+    public void testSameAsFullAnalysisOnAllTestCases() {
+        ResourceLoader loader = new ResourceLoader("classpath*:UserAgents/**/*.yaml", null, false);
+        assertFalse(loader.testCases.isEmpty());
+
+        List<String> userAgents = new ArrayList<>();
+        for (Map<String, Map<String, String>> test : loader.testCases) {
+            userAgents.add(test.get("input").get("user_agent_string"));
+        }
+
+        long hitsBefore = uaa.shapeCache.getHits();
+        int checked = 0;
+        for (String userAgent : userAgents) {
+            uaa.parse(userAgent);
+            for (String changed : new String[]{otherDigits(userAgent), longerDigits(userAgent), otherLastDigits(userAgent)}) {
+                assertEquals(userAgent + " --> " + changed,
+                    fullAnalysis(changed).toYamlTestCase(true),
+                    uaa.parse(changed).toYamlTestCase(true));
+                checked++;
+            }
+        }
+        long hits = uaa.shapeCache.getHits() - hitsBefore;
+        LOG.info("Shape cache: {} of {} changed useragents reused an earlier analysis ({} shapes stored)",
+            hits, checked, uaa.shapeCache.size());
+        assertTrue(hits > 0);
+    }
+
+    @Test
+    public void testDigitsOnlyTrackedWithShapeCache() {
+        UserAgentAnalyzer withoutShapeCache = new UserAgentAnalyzer("classpath*:ShapeCache.yaml", false);
+        UserAgent userAgent = withoutShapeCache.createUserAgent("Windows/1 (Win32)");
+        assertNull(withoutShapeCache._matches(userAgent).getInspectedRanges());
+
+        emptyShapeCache();
+        userAgent = rulesUaa.createUserAgent("Windows/1 (Win32)");
+        assertNotNull(rulesUaa._matches(userAgent).getInspectedRanges());
+    }
+
+    // ---------------------------------------------
+    // The cases in which ShapeCache.put stores nothing.
+
+    @Test
+    public void testPutWithoutInspectedRanges() {
+        ShapeCache shapes = emptyShapeCache();
+        // Without the parse tree it is unknown which digits were looked at.
+        shapes.put(new UserAgentShape("Plain/1.2"), new UserAgent("Plain/1.2"), new MatchArena(0, null), null);
+        assertEquals(0, shapes.size());
+    }
+
+    @Test
+    public void testPutWithoutTokens() {
+        ShapeCache shapes = emptyShapeCache();
+        // The lexer positions of characters outside the BMP differ from the positions in the String.
+        String userAgent = "Plain/1.2 (😀)";
+        assertArrayEquals(new int[]{}, new UserAgentShape(userAgent).getTokens());
+        parse(userAgent);
+        assertEquals(0, shapes.size());
+    }
+
+    @Test
+    public void testPutUntraceableValue() {
+        ShapeCache shapes = emptyShapeCache();
+        // The value of a url is not (always) a literal part of the useragent.
+        assertEquals("http://www.example1.nl", parse("Url/1 (http://www.example1.nl)").getValue("UrlValue"));
+        assertEquals(0, shapes.size());
+    }
+
+    @Test
+    public void testPutConstantThatIsAlsoInTheUseragent() {
+        ShapeCache shapes = emptyShapeCache();
+        // The "7" could also have come from the useragent.
+        assertEquals("7", parse("Inside/7").getValue("LookupValue"));
+        assertEquals(0, shapes.size());
+    }
+
+    @Test
+    public void testPutValueNotInTheUseragent() {
+        ShapeCache shapes = emptyShapeCache();
+        UserAgent userAgent = rulesUaa.createUserAgent("Plain/1.2");
+        MatchArena matches = rulesUaa._matches(userAgent);
+        userAgent.set("Other", "Something 3", 10);
+        shapes.put(new UserAgentShape("Plain/1.2"), userAgent, matches, null);
+        assertEquals(0, shapes.size());
+
+        // Without that value it is stored.
+        userAgent = rulesUaa.createUserAgent("Plain/1.2");
+        shapes.put(new UserAgentShape("Plain/1.2"), userAgent, rulesUaa._matches(userAgent), null);
+        assertEquals(1, shapes.size());
+    }
+
+    // ---------------------------------------------
+    // The cases in which the result is stored and reused (or not).
+
+    @Test
+    public void testDigitsDiffer() {
+        ShapeCache shapes = emptyShapeCache();
+        parse("Plain/1.2");
+        assertEquals(1, shapes.size());
+        assertEquals("3.45", parse("Plain/3.45").getValue("PlainVersion"));
+        assertEquals(1, shapes.getHits());
+    }
+
+    @Test
+    public void testValueCleanedUnderscore() {
+        ShapeCache shapes = emptyShapeCache();
+        assertEquals("1.2", parse("Cleaned/1_2").getValue("CleanedVersion"));
+        assertEquals(1, shapes.size());
+        assertEquals("3.45", parse("Cleaned/3_45").getValue("CleanedVersion"));
+        assertEquals(1, shapes.getHits());
+    }
+
+    @Test
+    public void testValueCleanedCase() {
+        ShapeCache shapes = emptyShapeCache();
+        assertEquals("ABC12X", parse("Cased/1 (abc12x)").getValue("CasedEntry"));
+        assertEquals(1, shapes.size());
+        assertEquals("ABC345X", parse("Cased/1 (abc345x)").getValue("CasedEntry"));
+        assertEquals(1, shapes.getHits());
+    }
+
+    @Test
+    public void testConstantWithDigits() {
+        ShapeCache shapes = emptyShapeCache();
+        assertEquals("Constant 42", parse("Lookup/1").getValue("LookupValue"));
+        assertEquals(1, shapes.size());
+        // The constant is retained as it is.
+        assertEquals("Constant 42", parse("Lookup/2").getValue("LookupValue"));
+        assertEquals(1, shapes.getHits());
+    }
+
+    @Test
+    public void testValueWithSeveralDigitRuns() {
+        ShapeCache shapes = emptyShapeCache();
+        // The "3" can have come from both versions.
+        parse("Twice/3 Other/3");
+        assertEquals(1, shapes.size());
+        assertEquals("4", parse("Twice/4 Other/4").getValue("TwiceVersion"));
+        assertEquals(1, shapes.getHits());
+
+        // Now which one it came from makes a difference.
+        assertNull(shapes.get(new UserAgentShape("Twice/5 Other/6")));
+        assertEquals("5", parse("Twice/5 Other/6").getValue("TwiceVersion"));
+        assertEquals(1, shapes.getHits());
+    }
+
+    @Test
+    public void testPinnedByRejectedOnDigits() {
+        ShapeCache shapes = emptyShapeCache();
+        // The matcher that needs "Win64" is rejected because of the digits of "Win32".
+        assertEquals("Unknown", parse("Windows/1 (Win32)").getValue("Bits"));
+        assertEquals(1, shapes.size());
+        parse("Windows/2 (Win32)");
+        assertEquals(1, shapes.getHits());
+
+        assertNull(shapes.get(new UserAgentShape("Windows/2 (Win64)")));
+        assertEquals("64", parse("Windows/2 (Win64)").getValue("Bits"));
+        assertEquals(1, shapes.getHits());
+    }
+
+    @Test
+    public void testOtherTokens() {
+        ShapeCache shapes = emptyShapeCache();
+        String uuid = "Plain/1 (12345678-1234-1234-1234-123456789012)";
+        String notUuid = "Plain/1 (1-1-1-1-1)";
+        UserAgentShape uuidShape = new UserAgentShape(uuid);
+        UserAgentShape notUuidShape = new UserAgentShape(notUuid);
+        assertEquals(uuidShape.getKey(), notUuidShape.getKey());
+        assertFalse(Arrays.equals(uuidShape.getTokens(), notUuidShape.getTokens()));
+
+        parse(uuid);
+        assertEquals(1, shapes.size());
+        assertNull(shapes.get(notUuidShape));
+        parse(notUuid);
+        assertEquals(0, shapes.getHits());
+    }
+}
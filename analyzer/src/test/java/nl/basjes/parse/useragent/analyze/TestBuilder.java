@@ -51,7 +51,12 @@ public class TestBuilder {
         Assert.assertEquals("Chrome",                   parsedAgent.getValue("AgentName"                )); // Chrome
         Assert.assertEquals("53.0.2785.124",            parsedAgent.getValue("AgentVersion"             )); // 53.0.2785.124
         Assert.assertEquals("53",                       parsedAgent.getValue("AgentVersionMajor"        )); // 53
-        Assert.assertEquals("Chrome 53.0.2785.124",     parsedAgent.getValue("AgentNameVersion"         )); // Chrome 53.0.2785.124
+
+        // The calculated fields that are not needed are not calculated at all
+        Assert.assertNull(parsedAgent.get("AgentNameVersion"                 )); // Chrome 53.0.2785.124
+        Assert.assertNull(parsedAgent.get("OperatingSystemNameVersion"       )); // Android 7.0
+        Assert.assertNull(parsedAgent.get("LayoutEngineNameVersion"          )); // Blink 53.0
+        Assert.assertNull(parsedAgent.get("LayoutEngineNameVersionMajor"     )); // Blink 53
 
         // The rest must be at confidence -1 (i.e. no rules fired)
         Assert.assertEquals(-1, parsedAgent.get("DeviceName"                   ).confidence); // Nexus 6
@@ -59,14 +64,11 @@ public class TestBuilder {
         Assert.assertEquals(-1, parsedAgent.get("OperatingSystemClass"         ).confidence); // Mobile
         Assert.assertEquals(-1, parsedAgent.get("OperatingSystemName"          ).confidence); // Android
         Assert.assertEquals(-1, parsedAgent.get("OperatingSystemVersion"       ).confidence); // 7.0
-        Assert.assertEquals(-1, parsedAgent.get("OperatingSystemNameVersion"   ).confidence); // Android 7.0
 //        Assert.assertEquals(-1, parsedAgent.get("OperatingSystemVersionBuild"  ).getConfidence()); // NBD90Z
         Assert.assertEquals(-1, parsedAgent.get("LayoutEngineClass"            ).confidence); // Browser
         Assert.assertEquals(-1, parsedAgent.get("LayoutEngineName"             ).confidence); // Blink
         Assert.assertEquals(-1, parsedAgent.get("LayoutEngineVersion"          ).confidence); // 53.0
         Assert.assertEquals(-1, parsedAgent.get("LayoutEngineVersionMajor"     ).confidence); // 53
-        Assert.assertEquals(-1, parsedAgent.get("LayoutEngineNameVersion"      ).confidence); // Blink 53.0
-        Assert.assertEquals(-1, parsedAgent.get("LayoutEngineNameVersionMajor" ).confidence); // Blink 53
         Assert.assertEquals(-1, parsedAgent.get("AgentClass"                   ).confidence); // Browser
     }
 
@@ -87,4 +89,24 @@ public class TestBuilder {
             .build();
     }
 
+    @Test
+    public void testBuiltAnalyzerIsFrozen() {
+        UserAgentAnalyzer userAgentAnalyzer =
+            UserAgentAnalyzer
+                .newBuilder()
+                .hideMatcherLoadStats()
+                .withField("AgentName")
+                .withTwoStageParsing()
+                .build();
+        Assert.assertTrue(userAgentAnalyzer.isFrozen());
+        Assert.assertTrue(userAgentAnalyzer.isTwoStageParsing());
+
+        // The caches are threadsafe so these can still be changed.
+        userAgentAnalyzer.setCacheSize(42);
+        Assert.assertEquals(42, userAgentAnalyzer.getCacheSize());
+
+        expectedEx.expect(IllegalStateException.class);
+        userAgentAnalyzer.setTwoStageParsing(false);
+    }
+
 }
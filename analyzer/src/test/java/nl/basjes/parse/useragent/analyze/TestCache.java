@@ -0,0 +1,206 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.MappedFileUserAgentCache;
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCache {
+
+    @Test
+    public void testCacheSetter() {
+        UserAgentAnalyzer userAgentAnalyzer = new UserAgentAnalyzer("classpath*:AllFields-tests.yaml", false);
+
+        assertEquals("Incorrect default cache size", 10000, userAgentAnalyzer.getCacheSize());
+
+        userAgentAnalyzer.setCacheSize(50);
+        assertEquals("Incorrect cache size", 50, userAgentAnalyzer.getCacheSize());
+
+        userAgentAnalyzer.setCacheSize(50000);
+        assertEquals("Incorrect cache size", 50000, userAgentAnalyzer.getCacheSize());
+
+        userAgentAnalyzer.setCacheSize(-5);
+        assertEquals("Incorrect cache size", 0, userAgentAnalyzer.getCacheSize());
+
+        userAgentAnalyzer.setCacheSize(50);
+        assertEquals("Incorrect cache size", 50, userAgentAnalyzer.getCacheSize());
+
+        userAgentAnalyzer.setCacheSize(50000);
+        assertEquals("Incorrect cache size", 50000, userAgentAnalyzer.getCacheSize());
+
+        userAgentAnalyzer.disableCaching();
+        assertEquals("Incorrect cache size", 0, userAgentAnalyzer.getCacheSize());
+    }
+
+    @Test
+    public void testBuilderCacheSize() {
+        UserAgentAnalyzer userAgentAnalyzer = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .withField("AgentName")
+            .withCache(42)
+            .build();
+        assertEquals("Incorrect cache size", 42, userAgentAnalyzer.getCacheSize());
+    }
+
+    @Test
+    public void testCachedResultIsACopy() {
+        UserAgentAnalyzer userAgentAnalyzer = new UserAgentAnalyzer("classpath*:AllFields-tests.yaml", false);
+        String userAgentString = "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+            "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36";
+
+        UserAgent first = userAgentAnalyzer.parse(userAgentString);
+        String agentName = first.getValue("AgentName");
+
+        // Changing a returned instance must not affect the cached value.
+        first.set("AgentName", "Something else", 1000000);
+
+        UserAgent second = userAgentAnalyzer.parse(userAgentString);
+        UserAgent third = userAgentAnalyzer.parse(userAgentString);
+        assertNotSame(second, third);
+        assertEquals(agentName, second.getValue("AgentName"));
+        assertEquals(agentName, third.getValue("AgentName"));
+        assertEquals(first.getUserAgentString(), third.getUserAgentString());
+        assertEquals(first.hasSyntaxError(), third.hasSyntaxError());
+    }
+
+    private static final String[] USERAGENTS = {
+        "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+            "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36",
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/46.0.2486.0 Safari/537.36 Edge/13.10586",
+        "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+        "",
+    };
+
+    @Test
+    public void testPersistentCache() throws IOException {
+        File cacheFile = File.createTempFile("yauaa-", ".cache");
+        assertTrue(cacheFile.delete());
+        try {
+            UserAgentAnalyzer writer = UserAgentAnalyzer
+                .newBuilder()
+                .hideMatcherLoadStats()
+                .withPersistentCache(cacheFile.getAbsolutePath(), 100)
+                .build();
+            assertTrue(writer.getCache() instanceof MappedFileUserAgentCache);
+            for (String useragent : USERAGENTS) {
+                writer.parse(useragent);
+            }
+            MappedFileUserAgentCache writerCache = (MappedFileUserAgentCache) writer.getCache();
+            assertEquals(USERAGENTS.length, writerCache.size());
+            // This closes the persistent cache.
+            writer.setCacheSize(10);
+            writerCache.put("Mozilla/5.0 Something after closing", writer.parse(USERAGENTS[0]));
+            assertEquals(USERAGENTS.length, writerCache.size());
+
+            // Opening the file again (i.e. after a restart) gives the results that were stored before.
+            MappedFileUserAgentCache cache =
+                new MappedFileUserAgentCache(cacheFile, 100, writer.getRulesFingerprint(), writer.getFieldRegistry());
+            assertEquals(USERAGENTS.length, cache.size());
+            for (String useragent : USERAGENTS) {
+                UserAgent cached = cache.get(useragent);
+                assertNotNull(useragent, cached);
+                assertNotSame(cached, cache.get(useragent));
+                assertEquals(writer.parse(useragent).toYamlTestCase(true), cached.toYamlTestCase(true));
+            }
+            assertNull(cache.get("Mozilla/5.0 Something that was never stored"));
+            cache.close();
+
+            // Different rules: the file is replaced by an empty one.
+            cache = new MappedFileUserAgentCache(cacheFile, 100, writer.getRulesFingerprint() + 1, writer.getFieldRegistry());
+            assertEquals(0, cache.size());
+            assertNull(cache.get(USERAGENTS[0]));
+            cache.close();
+        } finally {
+            assertTrue(cacheFile.delete());
+        }
+    }
+
+    @Test
+    public void testFullPersistentCache() throws IOException {
+        File cacheFile = File.createTempFile("yauaa-", ".cache");
+        assertTrue(cacheFile.delete());
+        try {
+            UserAgentAnalyzer userAgentAnalyzer = UserAgentAnalyzer
+                .newBuilder()
+                .hideMatcherLoadStats()
+                .withPersistentCache(cacheFile.getAbsolutePath(), 2)
+                .build();
+            MappedFileUserAgentCache cache = (MappedFileUserAgentCache) userAgentAnalyzer.getCache();
+            UserAgent[] results = new UserAgent[USERAGENTS.length];
+            for (int i = 0; i < USERAGENTS.length; i++) {
+                results[i] = userAgentAnalyzer.parse(USERAGENTS[i]);
+            }
+            // Full: the rest is not stored and nothing is evicted, yet the results remain correct.
+            assertEquals(2, cache.size());
+            assertNotNull(cache.get(USERAGENTS[0]));
+            assertNull(cache.get(USERAGENTS[USERAGENTS.length - 1]));
+            for (int i = 0; i < USERAGENTS.length; i++) {
+                assertEquals(results[i].toYamlTestCase(true), userAgentAnalyzer.parse(USERAGENTS[i]).toYamlTestCase(true));
+            }
+            userAgentAnalyzer.close();
+        } finally {
+            assertTrue(cacheFile.delete());
+        }
+    }
+
+    @Test
+    public void testPersistentCacheDamagedRecord() throws IOException {
+        UserAgentAnalyzer userAgentAnalyzer = new UserAgentAnalyzer("classpath*:AllFields-tests.yaml", false);
+        File cacheFile = File.createTempFile("yauaa-", ".cache");
+        assertTrue(cacheFile.delete());
+        try {
+            MappedFileUserAgentCache cache = new MappedFileUserAgentCache(
+                cacheFile, 10, userAgentAnalyzer.getRulesFingerprint(), userAgentAnalyzer.getFieldRegistry());
+            userAgentAnalyzer.setCache(cache);
+            UserAgent userAgent = userAgentAnalyzer.parse(USERAGENTS[0]);
+            assertNotNull(cache.get(USERAGENTS[0]));
+
+            // Change a byte of the only record: header (64) + 32 slots (of 16 bytes) + something in the record.
+            try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+                file.seek(64 + 32 * 16 + 20);
+                int value = file.read();
+                file.seek(64 + 32 * 16 + 20);
+                file.write(value ^ 0xFF);
+            }
+            assertNull(cache.get(USERAGENTS[0]));
+
+            // Still the correct result (just not from the cache).
+            assertEquals(userAgent.toYamlTestCase(true), userAgentAnalyzer.parse(USERAGENTS[0]).toYamlTestCase(true));
+            cache.clear();
+            assertEquals(0, cache.size());
+            cache.close();
+        } finally {
+            assertTrue(cacheFile.delete());
+        }
+    }
+
+}
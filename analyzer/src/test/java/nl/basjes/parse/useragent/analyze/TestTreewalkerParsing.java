@@ -281,6 +281,22 @@ public class TestTreewalkerParsing {
         checkPath(path, expectedHashEntries, expectedWalkList);
     }
 
+    @Test
+    public void testSharedWalkLists() {
+        ActionBuilder actionBuilder = new ActionBuilder();
+        ActionBuilder child = actionBuilder.newChild();
+        WalkList walkList1 = actionBuilder.requireAction("agent.(1)product.(1)name=\"Foo\"^.(1)comments.entry.text~\"Bar\"").walkList;
+        WalkList walkList2 = child.requireAction("agent.(2)product.(1)name=\"Foo\"^.(1)comments.entry.text~\"Bar\"").walkList;
+        WalkList walkList3 = actionBuilder.requireAction("agent.(1)product.(1)name=\"Foo\"^.(1)comments.entry.text~\"Baz\"").walkList;
+
+        // Only the part after the hash entry point is in the walkList
+        assertTrue(walkList1 == walkList2);
+        assertTrue(walkList1 != walkList3);
+        assertTrue(walkList1.walksTheTree());
+        assertEquals(WalkList.NO_MEMO, walkList1.getMemoId());
+        assertEquals(2, actionBuilder.getWalkListsSize());
+    }
+
     private void checkPath(String path, String[] expectedHashEntries, String[] expectedWalkList) {
         List<String> reveicedValues = new ArrayList<>(128);
         ActionBuilder actionBuilder = new ActionBuilder() {
@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze;
 
+import nl.basjes.parse.useragent.utils.Splitter;
 import nl.basjes.parse.useragent.utils.VersionSplitter;
 import nl.basjes.parse.useragent.utils.WordSplitter;
 import org.apache.commons.lang3.tuple.Pair;
@@ -310,4 +311,24 @@ public class TestWordSplitter {
         assertEquals(null                    , splitter.getSplitRange(value, splitList,-1, -1));
     }
 
+    @Test
+    public void testSplitsSameAsDirect(){
+        String[] values = {
+            "", " ", "one", "one two/3 four-4 five(some more)", "  one  two  ", "(one two)", "one(two", "one two)three",
+            "1.2.3", "1_2.3_", ".1..2__3.", "www.example.com", "Mozilla/5.0 (Linux; U; Android 4.4.2; nl-nl)"
+        };
+        for (String value: values) {
+            for (Splitter splitter: new Splitter[]{WordSplitter.getInstance(), VersionSplitter.getInstance()}) {
+                int[] splits = splitter.findSplits(value);
+                for (int first = -2; first < 9; first++) {
+                    for (int last = -2; last < 9; last++) {
+                        assertEquals("\"" + value + "\" [" + first + "-" + last + "]",
+                            splitter.getSplitRange(value, first, last),
+                            splitter.getSplitRange(value, splits, first, last));
+                    }
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,77 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.calculate;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static nl.basjes.parse.useragent.UserAgent.AGENT_NAME;
+import static nl.basjes.parse.useragent.UserAgent.AGENT_VERSION;
+import static nl.basjes.parse.useragent.UserAgent.AGENT_VERSION_MAJOR;
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_BRAND;
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_CLASS;
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_NAME;
+import static org.junit.Assert.assertEquals;
+
+public class TestFieldCalculators {
+
+    @Test
+    public void testDependencies() {
+        List<String> wanted = new ArrayList<>(Arrays.asList("AgentNameVersionMajor", DEVICE_NAME, DEVICE_CLASS));
+        FieldCalculators.addDependencies(wanted);
+        assertEquals(Arrays.asList("AgentNameVersionMajor", DEVICE_NAME, DEVICE_CLASS,
+                                   AGENT_NAME, AGENT_VERSION_MAJOR, AGENT_VERSION, DEVICE_BRAND), wanted);
+
+        wanted = new ArrayList<>(Collections.singletonList(DEVICE_CLASS));
+        FieldCalculators.addDependencies(wanted);
+        assertEquals(Collections.singletonList(DEVICE_CLASS), wanted);
+    }
+
+    @Test
+    public void testOnlyTheNeededCalculators() {
+        assertEquals(0, FieldCalculators.getCalculators(Collections.singletonList(DEVICE_CLASS)).length);
+        assertEquals(FieldCalculators.getAllCalculators().size(), FieldCalculators.getCalculators(null).length);
+
+        List<String> calculated = new ArrayList<>();
+        for (FieldCalculator calculator: FieldCalculators.getCalculators(Arrays.asList(DEVICE_NAME, "AgentNameVersionMajor"))) {
+            calculated.add(calculator.getCalculatedFieldName());
+        }
+        // In the order of execution
+        assertEquals(Arrays.asList(AGENT_VERSION_MAJOR, "AgentNameVersionMajor", DEVICE_BRAND, DEVICE_NAME), calculated);
+    }
+
+    @Test
+    public void testCalculatedFieldsWithLimitedFields() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer.newBuilder()
+            .withField("AgentNameVersionMajor")
+            .withField(DEVICE_NAME)
+            .hideMatcherLoadStats()
+            .build();
+        UserAgent userAgent = uaa.parse("Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+            "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36");
+        assertEquals("Chrome 53",     userAgent.getValue("AgentNameVersionMajor"));
+        assertEquals("Google Nexus 6", userAgent.getValue(DEVICE_NAME));
+    }
+
+}
@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.debug;
 
+import nl.basjes.parse.useragent.FieldRegistry;
 import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.analyze.Matcher;
 import nl.basjes.parse.useragent.analyze.FieldSetter;
@@ -37,6 +38,10 @@ public class DebugUserAgent extends UserAgent {
         super(userAgentString);
     }
 
+    public DebugUserAgent(String userAgentString, FieldRegistry fieldRegistry) {
+        super(userAgentString, fieldRegistry);
+    }
+
     @Override
     public FieldSetter withMatcher(Matcher matcher) {
         return values -> {
@@ -59,11 +59,13 @@ public class UserAgentAnalyzerTester extends UserAgentAnalyzer {
     }
 
     public UserAgentAnalyzerTester() {
-        super();
+        this(true);
     }
 
     public UserAgentAnalyzerTester(String resourceString, List<String> wantedFields, boolean showMatcherStats) {
         super(resourceString, wantedFields, showMatcherStats);
+        // The tests need the DebugUserAgent instances which we will never get from a cache.
+        disableCaching();
     }
 
     public UserAgentAnalyzerTester(String resourceString) {
@@ -80,8 +82,9 @@ public class UserAgentAnalyzerTester extends UserAgentAnalyzer {
 
 
     @Override
-    protected ResourceLoader load(String resourceString, List<String> wantedFields, boolean showMatcherStats) {
-        ResourceLoader loader = super.load(resourceString, wantedFields, showMatcherStats);
+    protected ResourceLoader load(String resourceString, List<String> wantedFields, boolean showMatcherStats, boolean keepTests) {
+        // The tester always needs the test cases.
+        ResourceLoader loader = super.load(resourceString, wantedFields, showMatcherStats, true);
         initTests(loader);
         return loader;
     }
@@ -115,7 +118,7 @@ public class UserAgentAnalyzerTester extends UserAgentAnalyzer {
 
     @Override
     public UserAgent createUserAgent(String userAgentString) {
-        return new DebugUserAgent((userAgentString));
+        return new DebugUserAgent(userAgentString, getFieldRegistry());
     }
 
 
@@ -543,6 +546,7 @@ public class UserAgentAnalyzerTester extends UserAgentAnalyzer {
 
         public Builder() {
             super(builder -> new UserAgentAnalyzerTester("classpath*:UserAgents/**/*.yaml", builder.wantedFieldNames, builder.showMatcherLoadStats));
+            withoutCache();
         }
 
         @Override
@@ -589,6 +593,65 @@ public class UserAgentAnalyzerTester extends UserAgentAnalyzer {
             super.hideMatcherLoadStats();
             return this;
         }
+
+        @Override
+        public UserAgentAnalyzerTester.Builder withCache(int newCacheSize) {
+            super.withCache(newCacheSize);
+            return this;
+        }
+
+        @Override
+        public UserAgentAnalyzerTester.Builder withoutCache() {
+            super.withoutCache();
+            return this;
+        }
+
+        @Override
+        public UserAgentAnalyzerTester.Builder keepTests() {
+            super.keepTests();
+            return this;
+        }
+
+        @Override
+        public UserAgentAnalyzerTester.Builder dropTests() {
+            super.dropTests();
+            return this;
+        }
+
+        @Override
+        public UserAgentAnalyzerTester.Builder withTwoStageParsing() {
+            super.withTwoStageParsing();
+            return this;
+        }
+
+        @Override
+        public UserAgentAnalyzerTester.Builder withoutTwoStageParsing() {
+            super.withoutTwoStageParsing();
+            return this;
+        }
+
+        @Override
+        public UserAgentAnalyzerTester.Builder withCompiledWalkLists() {
+            super.withCompiledWalkLists();
+            return this;
+        }
+
+        @Override
+        public UserAgentAnalyzerTester.Builder withoutCompiledWalkLists() {
+            super.withoutCompiledWalkLists();
+            return this;
+        }
+
+        // An image only contains a plain UserAgentAnalyzer; a tester is always built from the yaml files.
+        @Override
+        public UserAgentAnalyzerTester.Builder withImage(String resourceName) {
+            throw new UnsupportedOperationException("A UserAgentAnalyzerTester cannot be loaded from an analyzer image");
+        }
+
+        @Override
+        public UserAgentAnalyzerTester.Builder withImageFile(String fileName) {
+            throw new UnsupportedOperationException("A UserAgentAnalyzerTester cannot be loaded from an analyzer image");
+        }
     }
 
 
@@ -0,0 +1,152 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.parse;
+
+import nl.basjes.parse.useragent.ResourceLoader;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static nl.basjes.parse.useragent.parse.EvilManualUseragentStringHacks.replaceString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class TestEvilManualUseragentStringHacks {
+
+    // ==========================================================================================
+    // The original regex based implementation of fixIt as a reference.
+
+    private static final Pattern MISSING_PRODUCT_AT_START =
+        Pattern.compile("^\\(( |;|null|compatible|windows|android|linux).*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MISSING_SPACE =
+        Pattern.compile("(/[0-9]+\\.[0-9]+)([A-Z][a-z][a-z][a-z]+ )");
+
+    private static String regexFixIt(String useragent) {
+        if (useragent == null) {
+            return null;
+        }
+        String result = useragent;
+
+        if (result.startsWith(" ")) {
+            result = result.trim();
+        }
+
+        if (MISSING_SPACE.matcher(result).find()) {
+            result = MISSING_SPACE.matcher(result).replaceAll("$1 $2");
+        }
+
+        if (result.contains(" (Macintosh); ")){
+            result = replaceString(result, " (Macintosh); ", " (Macintosh; ");
+        }
+
+        if (MISSING_PRODUCT_AT_START.matcher(result).matches()){
+            result = "Mozilla/5.0 " + result;
+        } else {
+            if (result.startsWith("/")) {
+                result = "Mozilla" + result;
+            }
+        }
+
+        if (useragent.endsWith(",gzip(gfe)")) {
+            result = replaceString(result, ",gzip(gfe)", "");
+        }
+
+        if (useragent.contains("__")){
+            result = replaceString(result, "__", " ");
+        }
+
+        if (result.contains("%20")) {
+            try {
+                result = URLDecoder.decode(result, "UTF-8");
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                // Ignore and continue.
+            }
+        }
+
+        return result;
+    }
+
+    // ==========================================================================================
+
+    private static final String[] EDGE_CASES = {
+        "",
+        " ",
+        "   Mozilla/5.0 ",
+        "Mozilla/5.0",
+        " Version/4.0Mobile Safari/530.17",
+        "Version/4.0Mobile Safari/530.17 Foo/1.2Abcdefg Bar/3.4Abc Baz/5.6Abcd",
+        "Version/4.0Mobile",
+        "Version/4.Mobile Safari",
+        "Version/.0Mobile Safari",
+        "Version/4.0MOBILE Safari",
+        "//4.0Mobile Safari",
+        "Mozilla/5.0 (Macintosh); U; Intel Mac OS X) (Macintosh); (Macintosh); foo",
+        "(Linux; Android 4.4.2)",
+        "(LINUX; Android 4.4.2)",
+        "(lınux; Android 4.4.2)",
+        "(windows NT 6.1)",
+        "(windowſ NT 6.1)",
+        "( Something",
+        "(; Something",
+        "(NULL)",
+        "(Compatible; MSIE)",
+        "(linux\nfoo)",
+        "(linux foo bar)",
+        "(Mozilla)",
+        "(",
+        "/5.0 Foo",
+        "Mozilla/5.0 Foo,gzip(gfe)",
+        "Mozilla/5.0 ,gzip(gfe) Foo,gzip(gfe)",
+        "Mozilla/5.0 ,gzip(gfe) Foo",
+        "Mozilla/5.0 _,gzip(gfe)_ Foo__,gzip(gfe)",
+        "Mozilla/5.0 %2,gzip(gfe)0Foo,gzip(gfe)",
+        "Weibo__5.0__Android",
+        "Mozilla/5.0%20(Linux;%20Android)",
+        "Mozilla/5.0%20(Linux;%20Android %ZZ)",
+        "Mozilla/5.0 (Linux) 100%",
+    };
+
+    @Test
+    public void testEdgeCases() {
+        for (String useragent : EDGE_CASES) {
+            assertEquals(useragent, regexFixIt(useragent), EvilManualUseragentStringHacks.fixIt(useragent));
+        }
+    }
+
+    @Test
+    public void testNothingToFix() {
+        String useragent = "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) AppleWebKit/537.36 " +
+            "(KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36";
+        assertSame(useragent, EvilManualUseragentStringHacks.fixIt(useragent));
+    }
+
+    @Test
+    public void testSameAsRegexOnAllTestCases() {
+        ResourceLoader loader = new ResourceLoader("classpath*:UserAgents/**/*.yaml", null, false);
+        assertFalse(loader.testCases.isEmpty());
+        for (Map<String, Map<String, String>> test : loader.testCases) {
+            String useragent = test.get("input").get("user_agent_string");
+            assertEquals(useragent, regexFixIt(useragent), EvilManualUseragentStringHacks.fixIt(useragent));
+        }
+    }
+
+}
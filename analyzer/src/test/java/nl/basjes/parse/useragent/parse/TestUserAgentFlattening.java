@@ -18,14 +18,22 @@
 package nl.basjes.parse.useragent.parse;
 
 import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.analyze.InformPathTrie;
+import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.Test;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class TestUserAgentFlattening {
@@ -1339,6 +1347,80 @@ public class TestUserAgentFlattening {
 
     }
 
+    @Test
+    public void testErrorStateIsPerUserAgent() {
+        // The lexer and parser are reused; the errors of one parse must not show up in the next one.
+        UserAgent bad = new UserAgent("a {");
+        UserAgentTreeFlattener.parse(bad, Collections.emptyMap(), (path, value, ctx) -> { });
+        assertTrue(bad.hasSyntaxError());
+
+        UserAgent good = new UserAgent("Mozilla/5.0 (Macintosh; Intel Mac OS X 10_7_3) Safari/535.20");
+        final Collection<String> paths = new ArrayDeque<>(128);
+        UserAgentTreeFlattener.parse(good, Collections.emptyMap(), (path, value, ctx) -> paths.add(path + "=\"" + value + "\""));
+        assertFalse(good.hasSyntaxError());
+        assertTrue(paths.contains("agent=\"Mozilla/5.0 (Macintosh; Intel Mac OS X 10_7_3) Safari/535.20\""));
+    }
+
+    @Test
+    public void testPrunedFlattening() {
+        String useragent = "one/two 3 four five/6 (one/two 3 four five/6)";
+
+        InformPathTrie informPathTrie = new InformPathTrie();
+        informPathTrie.add("agent.(2)product.(1)comments.(1)entry.(2)product.(1)name");
+        informPathTrie.add("agent.(1)product.(1)Version=\"two\"");
+
+        final List<String> allPaths = new ArrayList<>();
+        UserAgentTreeFlattener.parse(new UserAgent(useragent), Collections.emptyMap(),
+            (path, value, ctx) -> allPaths.add(path + "=\"" + value + "\""));
+
+        final List<String> prunedPaths = new ArrayList<>();
+        UserAgentTreeFlattener.parse(new UserAgent(useragent), informPathTrie,
+            (pathId, value, ctx) -> prunedPaths.add(informPathTrie.getPath(pathId) + "=\"" + value + "\""), false);
+
+        assertEquals(Arrays.asList(
+            "agent=\"one/two 3 four five/6 (one/two 3 four five/6)\"",
+            "agent.(1)product=\"one/two 3\"",
+            "agent.(1)product.(1)version=\"two\"",
+            "agent.(2)product=\"four five/6 (one/two 3 four five/6)\"",
+            "agent.(2)product.(1)comments=\"(one/two 3 four five/6)\"",
+            "agent.(2)product.(1)comments.(1)entry=\"one/two 3 four five/6\"",
+            "agent.(2)product.(1)comments.(1)entry.(2)product=\"four five/6\"",
+            "agent.(2)product.(1)comments.(1)entry.(2)product.(1)name=\"four five\""
+        ), prunedPaths);
+
+        // Pruning must never change the path or value of what is informed.
+        assertTrue(allPaths.containsAll(prunedPaths));
+    }
+
+    @Test
+    public void testPathIds() {
+        String useragent = "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/53.0.2785.124 Mobile Safari/537.36";
+
+        final List<String> allPaths = new ArrayList<>();
+        UserAgentTreeFlattener.parse(new UserAgent(useragent), Collections.emptyMap(),
+            (path, value, ctx) -> allPaths.add(path + "=\"" + value + "\""));
+
+        // With all paths (and some ranges) in the trie we must get exactly the same (apart from the ranges).
+        InformPathTrie informPathTrie = new InformPathTrie();
+        allPaths.forEach(informPathTrie::add);
+        informPathTrie.addRanges("agent.(1)product.(1)comments.(3)entry", Collections.singletonList(new Range(3, 3)));
+        informPathTrie.addRanges("agent.(3)product.(1)version", Collections.singletonList(new Range(1, 2)));
+
+        final List<String> idPaths = new ArrayList<>();
+        UserAgentTreeFlattener.parse(new UserAgent(useragent), informPathTrie,
+            (pathId, value, ctx) -> idPaths.add(informPathTrie.getPath(pathId) + "=\"" + value + "\""), false);
+
+        // The paths in the trie are all lowercase
+        List<String> expected = new ArrayList<>();
+        allPaths.forEach(path -> expected.add(path.replace("__SyntaxError__", "__syntaxerror__")));
+        expected.add(expected.indexOf("agent.(1)product.(1)comments.(3)entry=\"Nexus 6 Build/NBD90Z\"") + 1,
+            "agent.(1)product.(1)comments.(3)entry[3-3]=\"Build\"");
+        expected.add(expected.indexOf("agent.(3)product.(1)version=\"53.0.2785.124\"") + 1,
+            "agent.(3)product.(1)version[1-2]=\"53.0\"");
+        assertEquals(expected, idPaths);
+    }
+
     private void validateUserAgent(String useragent, String... requiredValues) {
 
         boolean developmentMode = requiredValues.length == 0;
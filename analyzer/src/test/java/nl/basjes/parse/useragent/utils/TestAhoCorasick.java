@@ -0,0 +1,58 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestAhoCorasick {
+
+    private static final List<String> NEEDLES = Arrays.asList(
+        "he", "she", "his", "hers", "linux", "x86", "nux", "mozilla/5.0", "phone", "iphone", "os", "école", "a", "aa", "aaa", "she");
+
+    private static final String[] INPUTS = {
+        "", "a", "AAAA", "ushers", "Mozilla/5.0 (Linux; Android 7.0)", "Mozilla/5.0 (iPhone; CPU iPhone OS 10_3 like Mac OS X)",
+        "ÉCOLE", "Linux x86_64", "no match at all"};
+
+    @Test
+    public void testSameAsContains() {
+        AhoCorasick automaton = new AhoCorasick(NEEDLES);
+        assertEquals(NEEDLES.size(), automaton.getNumberOfNeedles());
+        for (String input : INPUTS) {
+            BitSet found = new BitSet();
+            automaton.findAll(input, found);
+            for (int id = 0; id < NEEDLES.size(); id++) {
+                assertEquals("\"" + input + "\" vs \"" + NEEDLES.get(id) + "\"",
+                    CaseInsensitive.contains(input, NEEDLES.get(id)), found.get(id));
+            }
+        }
+    }
+
+    @Test
+    public void testNoNeedles() {
+        BitSet found = new BitSet();
+        new AhoCorasick(Arrays.asList()).findAll("Something", found);
+        assertEquals(0, found.cardinality());
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseInsensitive {
+
+    private static final String[] VALUES = {"", "a", "A", "Linux", "LINUX x86_64", "Mozilla/5.0", "iPhone OS", "ÉCOLE", "école"};
+    private static final String[] NEEDLES = {"", "a", "linux", "x86", "nux", "mozilla/5.0", "phone", "os", "école", "cole", "zz"};
+
+    @Test
+    public void testSameAsLowerCase() {
+        for (String value : VALUES) {
+            String lowerValue = value.toLowerCase();
+            for (String needle : NEEDLES) {
+                String message = "\"" + value + "\" vs \"" + needle + "\"";
+                assertEquals(message, lowerValue.equals(needle),     CaseInsensitive.equals(value, needle));
+                assertEquals(message, lowerValue.startsWith(needle), CaseInsensitive.startsWith(value, needle));
+                assertEquals(message, lowerValue.endsWith(needle),   CaseInsensitive.endsWith(value, needle));
+                assertEquals(message, lowerValue.contains(needle),   CaseInsensitive.contains(value, needle));
+            }
+            assertEquals(lowerValue.hashCode(), CaseInsensitive.hashCode(value));
+        }
+    }
+
+    @Test
+    public void testLookup() {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, "Value " + i);
+        }
+        map.put("apple", "Apple");
+
+        CaseInsensitiveLookup<String> lookup = new CaseInsensitiveLookup<>(map);
+        assertEquals(map.size(), lookup.size());
+        assertEquals(map, new HashMap<>(lookup));
+        assertEquals("Apple", lookup.get("apple"));
+        assertEquals("Apple", lookup.get("APPLE"));
+        assertEquals("Value 42", lookup.get("Key42"));
+        assertTrue(lookup.containsKey("aPPle"));
+        assertFalse(lookup.containsKey("pear"));
+        assertNull(lookup.get("pear"));
+        assertNull(lookup.get(42));
+
+        assertTrue(lookup == CaseInsensitiveLookup.of(lookup));
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestClockCache {
+
+    @Test
+    public void testBounded() {
+        ClockCache<Integer, String> cache = new ClockCache<>(10);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "Value " + i);
+            assertEquals("Value " + i, cache.get(i));
+            assertTrue(cache.size() <= 10);
+        }
+        assertEquals(10, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(99));
+    }
+
+    @Test
+    public void testRecentlyUsedIsRetained() {
+        ClockCache<Integer, String> cache = new ClockCache<>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "Value " + i);
+        }
+        // Entry 0 keeps being used while many others are added.
+        for (int i = 10; i < 100; i++) {
+            assertEquals("Value 0", cache.get(0));
+            cache.put(i, "Value " + i);
+        }
+        assertEquals("Value 0", cache.get(0));
+    }
+
+    @Test
+    public void testGrowsUpToTheBound() {
+        ClockCache<Integer, String> cache = new ClockCache<>(3000);
+        for (int i = 0; i < 5000; i++) {
+            cache.put(i, "Value " + i);
+        }
+        assertEquals(3000, cache.size());
+        assertEquals("Value 4999", cache.get(4999));
+
+        cache.clear();
+        for (int i = 0; i < 3000; i++) {
+            cache.put(i, "Value " + i);
+        }
+        assertEquals(3000, cache.size());
+        assertEquals("Value 0", cache.get(0));
+    }
+
+    @Test
+    public void testHugeBoundIsNotAllocated() {
+        ClockCache<Integer, String> cache = new ClockCache<>(Integer.MAX_VALUE);
+        cache.put(1, "One");
+        assertEquals("One", cache.get(1));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testNullKey() {
+        ClockCache<String, String> cache = new ClockCache<>(10);
+        cache.put(null, "Something");
+        assertNull(cache.get(null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testManyThreads() throws InterruptedException {
+        ClockCache<Integer, Integer> cache = new ClockCache<>(100);
+        AtomicInteger wrong = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    int key = i % 250;
+                    Integer value = cache.get(key);
+                    if (value == null) {
+                        cache.put(key, key * 2);
+                    } else if (value != key * 2) {
+                        wrong.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, wrong.get());
+        assertTrue(cache.size() <= 100);
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestDigits {
+
+    private static final String[] VALUES = {
+        "", "0", "12", "a", "Win64", "WIN32", "x86_64", "Android 7.1.2", "12ab", "ab12", "1a2b3", "Chrome/61.0.3163.100"};
+    private static final String[] SHAPES = {
+        "", "0", "a", "win0", "0.0", "0ab", "ab0", "0a0b0", "x0_0", "android 0", "0.0.0.0", "/0.", "zz0"};
+
+    @Test
+    public void testSameAsShapeOf() {
+        for (String value : VALUES) {
+            String valueShape = Digits.shapeOf(value);
+            assertEquals(value, CaseInsensitive.hashCode(valueShape), Digits.shapeHashCode(value));
+            for (String shape : SHAPES) {
+                String message = "\"" + value + "\" vs \"" + shape + "\"";
+                assertEquals(message, CaseInsensitive.equals(valueShape, shape),     Digits.sameShape(value, shape));
+                assertEquals(message, CaseInsensitive.startsWith(valueShape, shape), Digits.shapeStartsWith(value, shape));
+                assertEquals(message, CaseInsensitive.endsWith(valueShape, shape),   Digits.shapeEndsWith(value, shape));
+                assertEquals(message, CaseInsensitive.contains(valueShape, shape),   Digits.shapeContains(value, shape));
+            }
+        }
+    }
+}
@@ -19,6 +19,11 @@ package nl.basjes.parse.useragent.utils;
 
 import org.junit.Test;
 
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import static org.junit.Assert.assertEquals;
 
 public class TestNormalize {
@@ -105,4 +110,94 @@ public class TestNormalize {
         Normalize.cleanupDeviceBrandName("${N", "${N.Foo");
     }
 
+    // ==========================================================================================
+    // The original regex based implementations as a reference.
+
+    private static String regexCleanupDeviceBrandName(String deviceBrand, String deviceName) {
+        String lowerDeviceBrand = deviceBrand.toLowerCase(Locale.ENGLISH);
+
+        deviceName = deviceName.replaceAll("_", " ");
+        deviceName = deviceName.replaceAll("- +", "-");
+        deviceName = deviceName.replaceAll(" +-", "-");
+        deviceName = deviceName.replaceAll(" +", " ");
+
+        String lowerDeviceName = deviceName.toLowerCase(Locale.ENGLISH);
+
+        if (lowerDeviceName.startsWith(lowerDeviceBrand)) {
+            deviceName = deviceName.replaceAll("_", " ");
+            deviceName = deviceName.replaceAll("(?i)^" + Pattern.quote(deviceBrand) + "([^ ].*)$", Matcher.quoteReplacement(deviceBrand)+" $1");
+            deviceName = deviceName.replaceAll("( -| )+", " ");
+        } else {
+            deviceName = deviceBrand + ' ' + deviceName;
+        }
+        String result = Normalize.brand(deviceName);
+
+        if (result.contains("I")) {
+            result = result
+                .replace("Ipad", "iPad")
+                .replace("Ipod", "iPod")
+                .replace("Iphone", "iPhone")
+                .replace("IOS ", "iOS ");
+        }
+        return result;
+    }
+
+    private static String regexEmail(String email) {
+        String cleaned = email;
+        cleaned = cleaned.replaceAll("\\[at]", "@");
+        cleaned = cleaned.replaceAll("\\[\\\\xc3\\\\xa07]", "@");
+        cleaned = cleaned.replaceAll("\\[dot]", ".");
+        cleaned = cleaned.replaceAll("\\\\", " ");
+        cleaned = cleaned.replaceAll(" at ", "@");
+        cleaned = cleaned.replaceAll("dot", ".");
+        cleaned = cleaned.replaceAll(" dash ", "-");
+        cleaned = cleaned.replaceAll(" ", "");
+        return cleaned;
+    }
+
+    private static String randomString(Random random, String[] parts, int maxParts) {
+        StringBuilder sb = new StringBuilder();
+        int count = random.nextInt(maxParts + 1);
+        for (int i = 0; i < count; i++) {
+            sb.append(parts[random.nextInt(parts.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static final String[] BRAND_PARTS = {
+        "a", "S", "o", "ny", "Sony", "sony", "SONY", "HP", "hp", "Apple", "I", "-", " ", "_", "1", "\\", "$", "ı", "İ", "Σ",
+    };
+
+    private static final String[] NAME_PARTS = {
+        "a", "S", "o", "ny", "Sony", "sony", "HP", "hp", "Apple", "Ipad", "Ipod", "Iphone", "IOS ", "ios ", "I",
+        "-", " ", "  ", "_", " - ", "1", "x1", "GT", "$1", "\\", "\n", "\r", "\r\n", "\u2028", "ı", "İ", "Σ", "é",
+    };
+
+    private static final String[] EMAIL_PARTS = {
+        "a", "t", "d", "o", "at", "dot", "dash", " ", "  ", "[at]", "[dot]", "[\\xc3\\xa07]", "[", "]", "\\", " at ", " dash ",
+        "@", ".", "-", "x",
+    };
+
+    @Test
+    public void checkCleanupDeviceBrandNameSameAsRegex() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            String brand = randomString(random, BRAND_PARTS, 3);
+            String name = random.nextBoolean() ? brand + randomString(random, NAME_PARTS, 5) : randomString(random, NAME_PARTS, 6);
+            String message = "\"" + brand + "\" / \"" + name + "\"";
+            assertEquals(message, regexCleanupDeviceBrandName(brand, name), Normalize.cleanupDeviceBrandName(brand, name));
+            // And once more from the memo
+            assertEquals(message, regexCleanupDeviceBrandName(brand, name), Normalize.cleanupDeviceBrandName(brand, name));
+        }
+    }
+
+    @Test
+    public void checkEmailSameAsRegex() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            String email = randomString(random, EMAIL_PARTS, 8);
+            assertEquals("\"" + email + "\"", regexEmail(email), Normalize.email(email));
+        }
+    }
+
 }
@@ -25,7 +25,9 @@ import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.runner.Runner;
@@ -44,9 +46,21 @@ public class AnalyzerBenchmarks {
 
     @State(Scope.Benchmark)
     public static class ThreadState {
-        final UserAgentAnalyzer uaa;
-        public ThreadState() {
-            uaa = new UserAgentAnalyzer();
+        // Compare the default (full LL) parsing with first trying SLL.
+        @Param({"false", "true"})
+        boolean twoStageParsing;
+
+        UserAgentAnalyzer uaa;
+
+        @Setup
+        public void initialize() {
+            UserAgentAnalyzer.Builder builder = UserAgentAnalyzer
+                .newBuilder()
+                .withoutCache(); // We want to measure the parsing, not the cache.
+            if (twoStageParsing) {
+                builder.withTwoStageParsing();
+            }
+            uaa = builder.build();
         }
     }
 
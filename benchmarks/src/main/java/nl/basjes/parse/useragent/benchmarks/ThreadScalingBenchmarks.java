@@ -0,0 +1,130 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.benchmarks;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of a single (shared) analyzer with 1 up to N threads.
+ * If nothing is shared that should not be shared the throughput scales linearly with the number of threads
+ * (as long as there are enough cores). Run the main to get the scaling factors.
+ */
+@Warmup(iterations = 10)
+@Measurement(iterations = 10)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ThreadScalingBenchmarks {
+
+    private static final String[] USERAGENTS = {
+        "Mozilla/5.0 (Linux; Android 6.0; Nexus 6 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/46.0.2490.76 Mobile Safari/537.36",
+        "Mozilla/5.0 (Linux; Android 5.0.1; ALE-L21 Build/HuaweiALE-L21) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Version/4.0 Chrome/37.0.0.0 Mobile Safari/537.36",
+        "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+        "Mozilla/5.0 (iPhone; CPU iPhone OS 9_3_2 like Mac OS X) AppleWebKit/601.1.46 (KHTML, like Gecko) " +
+            "Version/9.0 Mobile/13F69 Safari/601.1",
+        "Mozilla/5.0 (Windows NT 6.1; WOW64; Trident/7.0; rv:11.0) like Gecko",
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/46.0.2486.0 Safari/537.36 Edge/13.10586",
+        "Mozilla/5.0 (Windows NT 10.0; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/51.0.2704.103 Safari/537.36",
+    };
+
+    // One analyzer for all threads.
+    @State(Scope.Benchmark)
+    public static class SharedAnalyzer {
+        // Without the cache only the parsing is measured; with the (default) cache also the contention on it.
+        @Param({"false", "true"})
+        boolean cache;
+
+        UserAgentAnalyzer uaa;
+
+        @Setup
+        public void initialize() {
+            UserAgentAnalyzer.Builder builder = UserAgentAnalyzer.newBuilder();
+            if (!cache) {
+                builder.withoutCache();
+            }
+            uaa = builder.build();
+        }
+    }
+
+    // Each thread goes through the useragents on its own.
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int next = 0;
+    }
+
+    @Benchmark
+    public UserAgent parse(SharedAnalyzer shared, ThreadState state) {
+        String useragent = USERAGENTS[state.next];
+        state.next = (state.next + 1) % USERAGENTS.length;
+        return shared.uaa.parse(useragent);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(maxThreads);
+
+        for (String cache : new String[]{"false", "true"}) {
+            List<Double> scores = new ArrayList<>();
+            for (int threads : threadCounts) {
+                Options opt = new OptionsBuilder()
+                    .include(ThreadScalingBenchmarks.class.getSimpleName())
+                    .param("cache", cache)
+                    .threads(threads)
+                    .build();
+                for (RunResult result : new Runner(opt).run()) {
+                    scores.add(result.getPrimaryResult().getScore());
+                }
+            }
+
+            System.out.println("Cache = " + cache);
+            System.out.println("Threads | Parses/second | Scaling (linear = the number of threads)");
+            for (int i = 0; i < threadCounts.size(); i++) {
+                System.out.printf("%7d | %13.0f | %5.2f%n", threadCounts.get(i), scores.get(i), scores.get(i) / scores.get(0));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2017 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.benchmarks;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+@Warmup(iterations = 20)
+@Measurement(iterations = 10)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WalkListBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class ThreadState {
+        // Compare interpreting the chain of Steps with the compiled walkLists.
+        @Param({"false", "true"})
+        boolean compiledWalkLists;
+
+        UserAgentAnalyzer uaa;
+
+        @Setup
+        public void initialize() {
+            UserAgentAnalyzer.Builder builder = UserAgentAnalyzer
+                .newBuilder()
+                .withoutCache(); // We want to measure the parsing, not the cache.
+            if (compiledWalkLists) {
+                builder.withCompiledWalkLists();
+            }
+            uaa = builder.build();
+        }
+    }
+
+    @Benchmark
+    public UserAgent android6Chrome46(ThreadState state) {
+        return state.uaa.parse("Mozilla/5.0 (Linux; Android 6.0; Nexus 6 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/46.0.2490.76 Mobile Safari/537.36");
+    }
+
+    @Benchmark
+    public UserAgent iPhoneFacebookApp(ThreadState state) {
+        return state.uaa.parse("Mozilla/5.0 (iPhone; CPU iPhone OS 9_3_3 like Mac OS X) AppleWebKit/601.1.46 (KHTML, like Gecko) " +
+            "Mobile/13G34 [FBAN/FBIOS;FBAV/61.0.0.53.158;FBBV/35251526;FBRV/0;FBDV/iPhone7,2;FBMD/iPhone;FBSN/iPhone OS;" +
+            "FBSV/9.3.3;FBSS/2;FBCR/vfnl;FBID/phone;FBLC/nl_NL;FBOP/5]");
+    }
+
+    @Benchmark
+    public UserAgent win7ie11(ThreadState state) {
+        return state.uaa.parse("Mozilla/5.0 (Windows NT 6.1; WOW64; Trident/7.0; rv:11.0) like Gecko");
+    }
+
+    @Benchmark
+    public UserAgent win10Edge13(ThreadState state) {
+        return state.uaa.parse("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/46.0.2486.0 Safari/537.36 Edge/13.10586");
+    }
+
+    @Benchmark
+    public UserAgent googleBotMobileAndroid(ThreadState state) {
+        return state.uaa.parse("Mozilla/5.0 (Linux; Android 6.0.1; Nexus 5X Build/MMB29P) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/41.0.2272.96 Mobile Safari/537.36 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+            .include(WalkListBenchmarks.class.getSimpleName())
+            .build();
+
+        new Runner(opt).run();
+    }
+}
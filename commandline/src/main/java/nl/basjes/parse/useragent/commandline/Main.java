@@ -157,6 +157,7 @@ public final class Main {
             }
 
             UserAgentAnalyzer uaa = new UserAgentAnalyzer("classpath*:UserAgents/**/*.yaml", commandlineOptions.fields, false);
+            uaa.setCacheSize(commandlineOptions.cacheSize);
             setVerbose(commandlineOptions.debug);
 
             List<String> fields;
@@ -350,7 +351,7 @@ public final class Main {
             usage = "A list of the desired fieldnames (use '"+USERAGENT+"' if you want the input value aswell)")
         private List<String> fields = null;
 
-        @Option(name = "-cache", usage = "The number of elements that can be cached (LRU).")
+        @Option(name = "-cache", usage = "The number of elements that can be cached.")
         private int cacheSize = 10000;
 
         @Option(name = "-bad", usage = "Output only cases that have a problem")